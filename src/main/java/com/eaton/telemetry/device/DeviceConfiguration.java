@@ -0,0 +1,68 @@
+package com.eaton.telemetry.device;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+
+/**
+ * Configuration of a {@link MultiProtocolDevice}, as read from a device file, which may look like the following:
+ * <pre>
+ * {@code
+ *     name: "ups"
+ *     periodMillis: 1000
+ *     snmp:
+ *       ip: "127.0.0.1"
+ *       port: 10161
+ *     modbus:
+ *       port: 15020
+ *     measurements:
+ *       - name: "outputVoltage"
+ *         minimum: 228
+ *         maximum: 232
+ *         snmp: { oid: "1.3.6.1.2.1.33.1.4.4.1.2.1", type: GAUGE32 }
+ *         modbus: { unit: 1, table: I, address: 0, encoding: UINT16, scale: 10 }
+ * }
+ * </pre>
+ *
+ * @param name         the name of the device, and of its agents
+ * @param periodMillis the period of the ticks in milliseconds, 1 second if not positive
+ * @param snmp         the endpoint of the SNMP agent, none if {@code null}
+ * @param modbus       the endpoint of the Modbus agent, none if {@code null}
+ * @param measurements the measurements of the device
+ */
+public record DeviceConfiguration(String name,
+                                  long periodMillis,
+                                  @Nullable Endpoint snmp,
+                                  @Nullable Endpoint modbus,
+                                  List<MeasurementConfiguration> measurements) {
+
+    /**
+     * Reads a device file.
+     *
+     * @param file the device file
+     * @return the configuration
+     * @throws UncheckedIOException if the device file could not be parsed
+     */
+    public static DeviceConfiguration load(File file) {
+        try {
+            return new ObjectMapper(new YAMLFactory()).readValue(file, DeviceConfiguration.class);
+        } catch (IOException e) {
+            throw new UncheckedIOException("could not parse device at path: " + file.getAbsolutePath(), e);
+        }
+    }
+
+    /**
+     * Address an agent of the device listens to.
+     *
+     * @param ip        the IP, all the interfaces if {@code null}
+     * @param port      the port
+     * @param community the SNMP community, {@code public} if {@code null}
+     */
+    public record Endpoint(@Nullable String ip, int port, @Nullable String community) {
+    }
+}
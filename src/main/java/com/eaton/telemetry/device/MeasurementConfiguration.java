@@ -0,0 +1,45 @@
+package com.eaton.telemetry.device;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntToDoubleFunction;
+
+/**
+ * Configuration of a measurement of a {@link MultiProtocolDevice}, as read from a device file: its value on each
+ * tick is random between a minimum and a maximum if both are set, a counter if an increment is set, or constant.
+ *
+ * @param name      the name of the measurement
+ * @param value     the constant value, or the first value of a counter, 0 if {@code null}
+ * @param minimum   the minimum of the random values
+ * @param maximum   the maximum of the random values
+ * @param increment the increment of a counter on each tick
+ * @param snmp      the projection of the measurement into SNMP, none if {@code null}
+ * @param modbus    the projection of the measurement into Modbus, none if {@code null}
+ */
+public record MeasurementConfiguration(String name,
+                                       @Nullable Double value,
+                                       @Nullable Double minimum,
+                                       @Nullable Double maximum,
+                                       @Nullable Double increment,
+                                       @Nullable SnmpMapping snmp,
+                                       @Nullable ModbusMapping modbus) {
+
+    /**
+     * Creates the generator of the values of the measurement.
+     *
+     * @return the generator, called once per tick
+     */
+    public IntToDoubleFunction toGenerator() {
+        double first = value != null ? value : 0;
+        if (minimum != null && maximum != null) {
+            double low = minimum;
+            double high = maximum;
+            return tick -> low + ThreadLocalRandom.current().nextDouble() * (high - low);
+        }
+        if (increment != null) {
+            double step = increment;
+            return tick -> first + tick * step;
+        }
+        return tick -> first;
+    }
+}
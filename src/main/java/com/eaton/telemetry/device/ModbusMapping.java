@@ -0,0 +1,85 @@
+package com.eaton.telemetry.device;
+
+import com.eaton.telemetry.modbus.RegisterTable;
+import com.eaton.telemetry.modbus.RegisterType;
+import com.google.common.base.Preconditions;
+
+/**
+ * Projection of a measurement of a {@link MultiProtocolDevice} into the registers of a Modbus unit.
+ * <br>
+ * The value is multiplied by the scale, then rounded and clamped to the range of integer encodings. 32-bit encodings
+ * span 2 registers, the high word first. Bits of coils and discrete inputs are set when the value is not 0.
+ *
+ * @param unit     the unit id
+ * @param table    the table of the registers
+ * @param address  the address of the first register
+ * @param encoding the encoding of the value, {@link Encoding#BIT} for bit tables and {@link Encoding#INT16} for
+ *                 register tables if {@code null}
+ * @param scale    the factor applied to the value, 1 if 0
+ */
+public record ModbusMapping(int unit, RegisterType table, int address, Encoding encoding, double scale) {
+
+    /**
+     * Encodings of a value in Modbus tables.
+     */
+    public enum Encoding {
+        INT16(1),
+        UINT16(1),
+        INT32(2),
+        UINT32(2),
+        FLOAT32(2),
+        BIT(1);
+
+        private final int length;
+
+        Encoding(int length) {
+            this.length = length;
+        }
+
+        /**
+         * Returns the number of registers or bits of the encoding.
+         *
+         * @return the number of entries
+         */
+        public int getLength() {
+            return length;
+        }
+    }
+
+    public ModbusMapping {
+        Preconditions.checkNotNull(table, "table may not be null");
+        boolean bits = table == RegisterType.C || table == RegisterType.D;
+        encoding = encoding != null ? encoding : bits ? Encoding.BIT : Encoding.INT16;
+        Preconditions.checkArgument(bits == (encoding == Encoding.BIT), "%s may not be encoded as %s", table, encoding);
+        Preconditions.checkArgument(address >= 0 && address + encoding.getLength() <= RegisterTable.SIZE, "address %s is out of the table", address);
+        scale = scale == 0 ? 1 : scale;
+    }
+
+    /**
+     * Encodes a value of the measurement into register values, without allocating.
+     *
+     * @param value the value of the measurement
+     * @param words the array receiving the {@link Encoding#getLength()} register values
+     */
+    public void encode(double value, short[] words) {
+        double scaled = value * scale;
+        long rounded = Math.round(scaled);
+        switch (encoding) {
+            case INT16 -> words[0] = (short) clamp(rounded, Short.MIN_VALUE, Short.MAX_VALUE);
+            case UINT16 -> words[0] = (short) clamp(rounded, 0, 0xFFFF);
+            case INT32 -> split((int) clamp(rounded, Integer.MIN_VALUE, Integer.MAX_VALUE), words);
+            case UINT32 -> split((int) clamp(rounded, 0, 0xFFFFFFFFL), words);
+            case FLOAT32 -> split(Float.floatToIntBits((float) scaled), words);
+            case BIT -> words[0] = (short) (scaled != 0 ? 1 : 0);
+        }
+    }
+
+    private static void split(int value, short[] words) {
+        words[0] = (short) (value >>> 16);
+        words[1] = (short) value;
+    }
+
+    private static long clamp(long value, long minimum, long maximum) {
+        return Math.max(minimum, Math.min(maximum, value));
+    }
+}
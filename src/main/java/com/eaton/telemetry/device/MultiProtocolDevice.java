@@ -0,0 +1,431 @@
+package com.eaton.telemetry.device;
+
+import javax.annotation.Nullable;
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.Set;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+import java.util.function.IntToDoubleFunction;
+
+import com.eaton.telemetry.Device;
+import com.eaton.telemetry.modbus.ModbusAgent;
+import com.eaton.telemetry.modbus.ModbusRuntime;
+import com.eaton.telemetry.modbus.RegisterBank;
+import com.eaton.telemetry.modbus.RegisterType;
+import com.eaton.telemetry.snmp.AgentConfiguration;
+import com.eaton.telemetry.snmp.SnmpAgent;
+import com.eaton.telemetry.snmp.SnmpSensor;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Device exposing the same measurements over SNMP and Modbus, backed by one state: on each tick, every measurement is
+ * generated once, and both protocols serve the values of the same tick.
+ * <br>
+ * The values of a tick are projected into the registers of the bound {@link ModbusAgent}s when generated, through
+ * {@link ModbusMapping}s which don't allocate, so that Modbus reads serve them straight from the register tables. The
+ * values of a table of a unit are stored at once, only locking the stripes of the mapped ranges, so that a read never
+ * mixes the values of two ticks. They are stored as the values of sensors, see {@link RegisterBank}: the holding
+ * registers and coils written by a master keep the written values, the next ticks not overwriting them. They are
+ * projected into SNMP {@link Variable}s by {@link SnmpMapping}s on the first read of each tick, the next reads of
+ * the tick sharing the same variable.
+ * <br>
+ * A device is either assembled with {@link #addMeasurement} and {@link #bind(ModbusAgent)}, the SNMP side being served
+ * by an agent created with {@link #getSnmpSensors()}, or started from a device file, see {@link #start(File)}.
+ */
+@Slf4j
+public class MultiProtocolDevice implements AutoCloseable {
+
+    /**
+     * Creates a device from a device file, starts its agents and its ticks.
+     *
+     * @param deviceFile the device file, see {@link DeviceConfiguration}
+     * @return the running device
+     * @throws UncheckedIOException  if the device file could not be parsed or the SNMP agent could not be started
+     * @throws IllegalStateException if the Modbus agent could not be started
+     */
+    public static MultiProtocolDevice start(File deviceFile) {
+        return start(DeviceConfiguration.load(deviceFile));
+    }
+
+    /**
+     * Creates a device from its configuration, starts its agents and its ticks.
+     *
+     * @param configuration the configuration of the device
+     * @return the running device
+     * @throws UncheckedIOException  if the SNMP agent could not be started
+     * @throws IllegalStateException if the Modbus agent could not be started
+     */
+    public static MultiProtocolDevice start(DeviceConfiguration configuration) {
+        MultiProtocolDevice device = new MultiProtocolDevice(configuration.name());
+        for (MeasurementConfiguration measurement : configuration.measurements()) {
+            device.addMeasurement(measurement.name(), measurement.toGenerator(), measurement.snmp(), measurement.modbus());
+        }
+        device.tick();
+        try {
+            DeviceConfiguration.Endpoint modbus = configuration.modbus();
+            if (modbus != null) {
+                device.modbusRuntime = new ModbusRuntime(1);
+                InetSocketAddress address = modbus.ip() == null ? new InetSocketAddress(modbus.port()) : new InetSocketAddress(modbus.ip(), modbus.port());
+                device.modbusAgent = new ModbusAgent(configuration.name(), address, new HashSet<>(), device.modbusRuntime);
+                device.bind(device.modbusAgent);
+                device.modbusAgent.start();
+            }
+            DeviceConfiguration.Endpoint snmp = configuration.snmp();
+            if (snmp != null) {
+                AgentConfiguration agentConfiguration = new AgentConfiguration(configuration.name(),
+                        new Device(configuration.name(), Set.of(), List.of()),
+                        Optional.ofNullable(snmp.ip()).orElse("0.0.0.0"), snmp.port(), snmp.community());
+                device.snmpAgent = new SnmpAgent(agentConfiguration, device.getSnmpSensors());
+                device.snmpAgent.execute();
+            }
+        } catch (IOException e) {
+            device.close();
+            throw new UncheckedIOException("could not start the SNMP agent of device " + configuration.name(), e);
+        } catch (RuntimeException e) {
+            device.close();
+            throw e;
+        }
+        device.start(Duration.ofMillis(configuration.periodMillis() > 0 ? configuration.periodMillis() : 1000));
+        return device;
+    }
+
+    /**
+     * The name of the device.
+     *
+     * @return the name of the device
+     */
+    @Getter private final String name;
+
+    private final List<Measurement> measurements = new ArrayList<>();
+
+    private final Map<String, Integer> indexes = new HashMap<>();
+
+    private final List<ModbusAgent> modbusAgents = new CopyOnWriteArrayList<>();
+
+    /**
+     * The measurements projected into Modbus, grouped by table of a unit, null until the first projection.
+     */
+    @Nullable
+    private List<TableProjection> tableProjections;
+
+    /**
+     * The values of the last tick, null before the first one.
+     */
+    @Nullable
+    private volatile Snapshot snapshot;
+
+    private int tick;
+
+    @Nullable
+    private ScheduledExecutorService scheduler;
+
+    /**
+     * The SNMP agent created by {@link #start(DeviceConfiguration)}, null otherwise.
+     *
+     * @return the SNMP agent of the device
+     */
+    @Getter @Nullable private SnmpAgent snmpAgent;
+
+    /**
+     * The Modbus agent created by {@link #start(DeviceConfiguration)}, null otherwise.
+     *
+     * @return the Modbus agent of the device
+     */
+    @Getter @Nullable private ModbusAgent modbusAgent;
+
+    @Nullable
+    private ModbusRuntime modbusRuntime;
+
+    public MultiProtocolDevice(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Adds a measurement, before the first tick.
+     *
+     * @param measurementName the name of the measurement, unique in the device
+     * @param generator       the generator of the values of the measurement, called once per tick
+     * @param snmp            the projection of the measurement into SNMP, none if {@code null}
+     * @param modbus          the projection of the measurement into Modbus, none if {@code null}
+     * @throws IllegalStateException    if the device already ticked
+     * @throws IllegalArgumentException if the name is already used
+     */
+    public synchronized void addMeasurement(String measurementName, IntToDoubleFunction generator,
+                                            @Nullable SnmpMapping snmp, @Nullable ModbusMapping modbus) {
+        if (snapshot != null) {
+            throw new IllegalStateException("measurements may not be added once the device ticked");
+        }
+        if (indexes.putIfAbsent(measurementName, measurements.size()) != null) {
+            throw new IllegalArgumentException("measurement " + measurementName + " already exists");
+        }
+        measurements.add(new Measurement(measurements.size(), generator, snmp, modbus));
+    }
+
+    /**
+     * Returns the SNMP sensors of the measurements projected into SNMP, to be served by a {@link SnmpAgent}.
+     *
+     * @return the sensors, one per measurement projected into SNMP
+     */
+    public synchronized Set<SnmpSensor<Variable>> getSnmpSensors() {
+        Set<SnmpSensor<Variable>> sensors = new LinkedHashSet<>();
+        for (Measurement measurement : measurements) {
+            if (measurement.snmp != null) {
+                sensors.add(measurement.snmpSensor);
+            }
+        }
+        return sensors;
+    }
+
+    /**
+     * Binds a Modbus agent: the measurements projected into Modbus are written into the registers of its units on
+     * each tick, the values of the last tick being written at once.
+     *
+     * @param agent the Modbus agent
+     */
+    public synchronized void bind(ModbusAgent agent) {
+        modbusAgents.add(agent);
+        Snapshot current = snapshot;
+        if (current != null) {
+            project(agent, current);
+        }
+    }
+
+    /**
+     * Generates the values of all the measurements for the next tick, and projects them into the bound Modbus agents.
+     * A failing generator keeps its previous value.
+     */
+    public synchronized void tick() {
+        Snapshot previous = snapshot;
+        double[] values = new double[measurements.size()];
+        for (Measurement measurement : measurements) {
+            try {
+                values[measurement.index] = measurement.generator.applyAsDouble(tick);
+            } catch (RuntimeException e) {
+                log.warn("Measurement {} of device {} failed", measurement.index, name, e);
+                values[measurement.index] = previous != null ? previous.values[measurement.index] : 0;
+            }
+        }
+        Snapshot next = new Snapshot(tick++, values);
+        snapshot = next;
+        for (ModbusAgent agent : modbusAgents) {
+            project(agent, next);
+        }
+    }
+
+    /**
+     * Returns the number of the last tick.
+     *
+     * @return the last tick, -1 before the first one
+     */
+    public int getTick() {
+        Snapshot current = snapshot;
+        return current != null ? current.tick : -1;
+    }
+
+    /**
+     * Returns the value of a measurement at the last tick.
+     *
+     * @param measurementName the name of the measurement
+     * @return the value, {@link Double#NaN} before the first tick
+     * @throws IllegalArgumentException if the device has no such measurement
+     */
+    public double getValue(String measurementName) {
+        Integer index = indexes.get(measurementName);
+        if (index == null) {
+            throw new IllegalArgumentException("no measurement " + measurementName + " in device " + name);
+        }
+        Snapshot current = snapshot;
+        return current != null ? current.values[index] : Double.NaN;
+    }
+
+    /**
+     * Ticks periodically, on a thread of the device.
+     *
+     * @param period the period of the ticks
+     */
+    public synchronized void start(Duration period) {
+        if (scheduler == null) {
+            scheduler = Executors.newSingleThreadScheduledExecutor(runnable -> {
+                Thread thread = new Thread(runnable, "MultiProtocolDevice-" + name);
+                thread.setDaemon(true);
+                return thread;
+            });
+            scheduler.scheduleAtFixedRate(this::tick, period.toNanos(), period.toNanos(), TimeUnit.NANOSECONDS);
+        }
+    }
+
+    /**
+     * Stops the ticks, and the agents created by {@link #start(DeviceConfiguration)}.
+     */
+    @Override
+    public synchronized void close() {
+        if (scheduler != null) {
+            scheduler.shutdownNow();
+            scheduler = null;
+        }
+        if (snmpAgent != null) {
+            snmpAgent.stop();
+        }
+        if (modbusAgent != null) {
+            modbusAgent.stop();
+        }
+        if (modbusRuntime != null) {
+            modbusRuntime.close();
+        }
+    }
+
+    private void project(ModbusAgent agent, Snapshot current) {
+        if (tableProjections == null) {
+            // the measurements don't change once the device ticked
+            Map<ModbusTable, List<Measurement>> byTable = new LinkedHashMap<>();
+            for (Measurement measurement : measurements) {
+                ModbusMapping mapping = measurement.modbus;
+                if (mapping != null) {
+                    byTable.computeIfAbsent(new ModbusTable(mapping.unit(), mapping.table()), key -> new ArrayList<>()).add(measurement);
+                }
+            }
+            List<TableProjection> projections = new ArrayList<>();
+            byTable.forEach((table, tableMeasurements) -> projections.add(new TableProjection(table, tableMeasurements)));
+            tableProjections = projections;
+        }
+        for (TableProjection projection : tableProjections) {
+            projection.write(agent.getBank(projection.table.unit()), current);
+        }
+    }
+
+    /**
+     * A table of a unit.
+     */
+    private record ModbusTable(int unit, RegisterType registerType) {
+    }
+
+    /**
+     * The measurements projected into a table of a unit, in ascending order of address, stored into the table at once.
+     */
+    private static final class TableProjection {
+
+        private final ModbusTable table;
+
+        private final List<Measurement> measurements;
+
+        private final int[] addresses;
+
+        /**
+         * The encoded registers of the measurements, the arrays of the measurements themselves.
+         */
+        private final short[][] words;
+
+        private final boolean[] bits;
+
+        private TableProjection(ModbusTable table, List<Measurement> measurements) {
+            this.table = table;
+            this.measurements = measurements.stream()
+                    .sorted(Comparator.comparingInt(measurement -> measurement.modbus.address()))
+                    .toList();
+            this.addresses = new int[measurements.size()];
+            this.words = new short[measurements.size()][];
+            this.bits = new boolean[measurements.size()];
+            for (int i = 0; i < addresses.length; i++) {
+                addresses[i] = this.measurements.get(i).modbus.address();
+                words[i] = this.measurements.get(i).words;
+            }
+        }
+
+        private void write(RegisterBank bank, Snapshot current) {
+            for (Measurement measurement : measurements) {
+                measurement.modbus.encode(current.values[measurement.index], measurement.words);
+            }
+            if (table.registerType() == RegisterType.C || table.registerType() == RegisterType.D) {
+                for (int i = 0; i < bits.length; i++) {
+                    bits[i] = words[i][0] != 0;
+                }
+                bank.store(table.registerType(), addresses, bits);
+            } else {
+                bank.store(table.registerType(), addresses, words);
+            }
+        }
+    }
+
+    /**
+     * The values of all the measurements at a tick, indexed as {@link #measurements}.
+     */
+    private record Snapshot(int tick, double[] values) {
+    }
+
+    /**
+     * A variable projected from a snapshot.
+     */
+    private record Projected(Snapshot snapshot, Variable variable) {
+    }
+
+    private final class Measurement implements IntFunction<Variable> {
+
+        private final int index;
+
+        private final IntToDoubleFunction generator;
+
+        @Nullable
+        private final SnmpMapping snmp;
+
+        @Nullable
+        private final ModbusMapping modbus;
+
+        /**
+         * The encoded registers, reused on each tick: ticks don't overlap.
+         */
+        private final short[] words;
+
+        @Nullable
+        private final SnmpSensor<Variable> snmpSensor;
+
+        @Nullable
+        private volatile Projected projected;
+
+        private Measurement(int index, IntToDoubleFunction generator, @Nullable SnmpMapping snmp, @Nullable ModbusMapping modbus) {
+            this.index = index;
+            this.generator = generator;
+            this.snmp = snmp;
+            this.modbus = modbus;
+            this.words = new short[modbus != null ? modbus.encoding().getLength() : 0];
+            this.snmpSensor = snmp != null ? new SnmpSensor<>(snmp.oid(), snmp.toVariable(0), this) : null;
+        }
+
+        /**
+         * Returns the SNMP variable of the last tick, projected on the first read of the tick.
+         *
+         * @param ignored the tick of the SNMP sensor, the one of the device being used instead
+         * @return the variable, null before the first tick
+         */
+        @Override
+        public Variable apply(int ignored) {
+            Snapshot current = snapshot;
+            if (current == null || snmp == null) {
+                return null;
+            }
+            Projected last = projected;
+            if (last == null || last.snapshot != current) {
+                last = new Projected(current, snmp.toVariable(current.values[index]));
+                projected = last;
+            }
+            return last.variable;
+        }
+    }
+}
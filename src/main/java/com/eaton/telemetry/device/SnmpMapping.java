@@ -0,0 +1,71 @@
+package com.eaton.telemetry.device;
+
+import java.math.BigDecimal;
+import java.math.RoundingMode;
+
+import com.google.common.base.Preconditions;
+import org.snmp4j.smi.Counter32;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Projection of a measurement of a {@link MultiProtocolDevice} into the {@link Variable} of an OID.
+ * <br>
+ * The value is multiplied by the scale and rounded, then clamped to the range of the type, except for counters which
+ * wrap as real ones do. Octet strings hold the scaled value in decimal, with at most 3 decimals.
+ *
+ * @param oid   the OID of the variable
+ * @param type  the type of the variable
+ * @param scale the factor applied to the value, 1 if 0
+ */
+public record SnmpMapping(String oid, Type type, double scale) {
+
+    /**
+     * SNMP types a measurement may be projected into.
+     */
+    public enum Type {
+        INTEGER32,
+        GAUGE32,
+        COUNTER32,
+        COUNTER64,
+        TIMETICKS,
+        OCTET_STRING
+    }
+
+    private static final long UNSIGNED32_MAX = 0xFFFFFFFFL;
+
+    public SnmpMapping {
+        Preconditions.checkNotNull(oid, "oid may not be null");
+        Preconditions.checkNotNull(type, "type may not be null");
+        scale = scale == 0 ? 1 : scale;
+    }
+
+    /**
+     * Converts a value of the measurement into a variable.
+     *
+     * @param value the value of the measurement
+     * @return the variable
+     */
+    public Variable toVariable(double value) {
+        double scaled = value * scale;
+        long rounded = Math.round(scaled);
+        return switch (type) {
+            case INTEGER32 -> new Integer32((int) clamp(rounded, Integer.MIN_VALUE, Integer.MAX_VALUE));
+            case GAUGE32 -> new Gauge32(clamp(rounded, 0, UNSIGNED32_MAX));
+            case COUNTER32 -> new Counter32(rounded & UNSIGNED32_MAX);
+            case COUNTER64 -> new Counter64(rounded);
+            case TIMETICKS -> new TimeTicks(clamp(rounded, 0, UNSIGNED32_MAX));
+            case OCTET_STRING -> new OctetString(Double.isFinite(scaled)
+                    ? BigDecimal.valueOf(scaled).setScale(3, RoundingMode.HALF_UP).stripTrailingZeros().toPlainString()
+                    : String.valueOf(scaled));
+        };
+    }
+
+    private static long clamp(long value, long minimum, long maximum) {
+        return Math.max(minimum, Math.min(maximum, value));
+    }
+}
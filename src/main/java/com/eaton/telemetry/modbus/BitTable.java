@@ -0,0 +1,228 @@
+package com.eaton.telemetry.modbus;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.util.function.IntUnaryOperator;
+
+import io.netty.buffer.ByteBuf;
+
+import static com.eaton.telemetry.modbus.RegisterTable.SIZE;
+import static com.eaton.telemetry.modbus.RegisterTable.checkRange;
+import static com.eaton.telemetry.modbus.RegisterTable.checkReadable;
+import static com.eaton.telemetry.modbus.RegisterTable.isMarked;
+import static com.eaton.telemetry.modbus.RegisterTable.mark;
+
+/**
+ * Table of the 65,536 bits of a unit, coils or discrete inputs, stored in a {@code long[]}.
+ * <br>
+ * Ranges of bits are exchanged as {@link BigInteger}, bit 0 being the bit at the first address of the range, as the
+ * Modbus messages do. As in {@link RegisterTable}, ranges are written atomically and read without locking unless a
+ * write overlaps them.
+ * <br>
+ * Responses are encoded straight from the table into their buffer by {@link #read(int, int, ByteBuf)}, 8 bits at a
+ * time.
+ * <br>
+ * As a {@link RegisterTable}, a table may track the bits written by the masters, the values generated by the sensors
+ * being only stored into the bits not written, see {@link #store(int, int, BigInteger)}.
+ */
+public class BitTable {
+
+    /**
+     * The length of the ranges of single bits.
+     */
+    private static final IntUnaryOperator SINGLE = i -> 1;
+
+    private final long[] words = new long[SIZE / Long.SIZE];
+
+    private final StripedLock lock = new StripedLock();
+
+    private final StripedLock.Encoder encoder = this::encode;
+
+    /**
+     * The bits written by the masters, a word per stripe guarded by its lock, {@code null} if not tracked.
+     */
+    @Nullable
+    private final long[] written;
+
+    public BitTable() {
+        this(false);
+    }
+
+    /**
+     * Creates a table.
+     *
+     * @param tracked whether the bits written by the masters are tracked
+     */
+    BitTable(boolean tracked) {
+        this.written = tracked ? new long[SIZE / Long.SIZE] : null;
+    }
+
+    /**
+     * Returns the value of a bit.
+     *
+     * @param address the address of the bit
+     * @return the value of the bit
+     */
+    public boolean get(int address) {
+        checkRange(address, 1);
+        return lock.read(address, 1, () -> isSet(address));
+    }
+
+    /**
+     * Returns the values of a range of bits.
+     *
+     * @param address the address of the first bit
+     * @param count   the number of bits
+     * @return the values of the bits, bit 0 being the bit at {@code address}
+     */
+    public BigInteger read(int address, int count) {
+        checkRange(address, count);
+        byte[] bigEndian = lock.read(address, count, () -> {
+            byte[] bytes = new byte[(count + 7) / 8];
+            for (int i = 0; i < count; i++) {
+                if (isSet(address + i)) {
+                    bytes[bytes.length - 1 - i / 8] |= (byte) (1 << (i % 8));
+                }
+            }
+            return bytes;
+        });
+        return new BigInteger(1, bigEndian);
+    }
+
+    /**
+     * Writes the values of a range of bits into a buffer, packed as in Modbus frames: the bit at {@code address} is the
+     * lowest bit of the first byte, the unused high bits of the last byte being 0. Does not allocate.
+     *
+     * @param address the address of the first bit
+     * @param count   the number of bits
+     * @param out     the buffer the {@code (count + 7) / 8} bytes are written to
+     */
+    public void read(int address, int count, ByteBuf out) {
+        checkRange(address, count);
+        out.ensureWritable((count + 7) / 8);
+        lock.read(address, count, out, encoder);
+    }
+
+    /**
+     * Sets the value of a bit.
+     *
+     * @param address the address of the bit
+     * @param value   the value of the bit
+     */
+    public void set(int address, boolean value) {
+        checkRange(address, 1);
+        lock.write(address, 1, () -> {
+            assign(address, value);
+            mark(written, address, 1);
+            return null;
+        });
+    }
+
+    /**
+     * Sets the values of a range of bits atomically.
+     *
+     * @param address the address of the first bit
+     * @param count   the number of bits
+     * @param values  the values of the bits, bit 0 being the bit at {@code address}
+     */
+    public void write(int address, int count, BigInteger values) {
+        checkRange(address, count);
+        lock.write(address, count, () -> {
+            for (int i = 0; i < count; i++) {
+                assign(address + i, values.testBit(i));
+            }
+            mark(written, address, count);
+            return null;
+        });
+    }
+
+    /**
+     * Sets the values of a range of bits atomically from a buffer, packed as in Modbus frames.
+     *
+     * @param address the address of the first bit
+     * @param count   the number of bits
+     * @param values  the buffer holding the {@code (count + 7) / 8} bytes of the bits, read from its reader index
+     */
+    public void write(int address, int count, ByteBuf values) {
+        checkRange(address, count);
+        checkReadable(values, (count + 7) / 8);
+        lock.write(address, count, () -> {
+            for (int i = 0; i < count; i += 8) {
+                int bits = values.readUnsignedByte();
+                for (int j = 0; j < 8 && i + j < count; j++) {
+                    assign(address + i + j, (bits & (1 << j)) != 0);
+                }
+            }
+            mark(written, address, count);
+            return null;
+        });
+    }
+
+    /**
+     * Stores the values generated by a sensor into a range of bits atomically, except into the bits written by a
+     * master.
+     *
+     * @param address the address of the first bit
+     * @param count   the number of bits
+     * @param values  the values of the bits, bit 0 being the bit at {@code address}
+     */
+    void store(int address, int count, BigInteger values) {
+        checkRange(address, count);
+        lock.write(address, count, () -> {
+            for (int i = 0; i < count; i++) {
+                if (!isMarked(written, address + i, 1)) {
+                    assign(address + i, values.testBit(i));
+                }
+            }
+            return null;
+        });
+    }
+
+    /**
+     * Stores the values generated for several bits atomically, except into the bits written by a master: a read
+     * overlapping them sees either all of them stored or none, e.g. for the values of a same tick. Only the stripes
+     * holding the bits are locked.
+     *
+     * @param addresses the addresses of the bits, in ascending order
+     * @param values    the values of the bits
+     */
+    void store(int[] addresses, boolean[] values) {
+        for (int address : addresses) {
+            checkRange(address, 1);
+        }
+        lock.write(addresses, SINGLE, () -> {
+            for (int i = 0; i < addresses.length; i++) {
+                if (!isMarked(written, addresses[i], 1)) {
+                    assign(addresses[i], values[i]);
+                }
+            }
+            return null;
+        });
+    }
+
+    private void encode(int address, int count, ByteBuf out) {
+        for (int i = 0; i < count; i += 8) {
+            int bitAddress = address + i;
+            int word = bitAddress >>> 6;
+            int shift = bitAddress & 63;
+            long bits = words[word] >>> shift;
+            if (shift > 56 && word + 1 < words.length) {
+                bits |= words[word + 1] << (64 - shift);
+            }
+            int remaining = count - i;
+            out.writeByte(remaining < 8 ? (int) bits & ((1 << remaining) - 1) : (int) bits);
+        }
+    }
+
+    private boolean isSet(int address) {
+        return (words[address >>> 6] & (1L << address)) != 0;
+    }
+
+    private void assign(int address, boolean value) {
+        if (value) {
+            words[address >>> 6] |= 1L << address;
+        } else {
+            words[address >>> 6] &= ~(1L << address);
+        }
+    }
+}
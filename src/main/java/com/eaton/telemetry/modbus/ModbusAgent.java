@@ -1,134 +1,624 @@
 package com.eaton.telemetry.modbus;
 
-import java.io.IOException;
+import javax.annotation.Nullable;
 import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.time.Duration;
 import java.util.HashSet;
-import java.util.Map;
+import java.util.Objects;
 import java.util.Set;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.function.IntFunction;
-import java.util.stream.Collectors;
 
+import io.netty.bootstrap.ServerBootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.AdaptiveRecvByteBufAllocator;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.group.ChannelGroup;
+import io.netty.channel.group.DefaultChannelGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioServerSocketChannel;
+import io.netty.util.concurrent.GlobalEventExecutor;
+import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
-import net.solarnetwork.io.modbus.BitsModbusMessage;
-import net.solarnetwork.io.modbus.ModbusErrorCode;
-import net.solarnetwork.io.modbus.ModbusMessage;
-import net.solarnetwork.io.modbus.RegistersModbusMessage;
-import net.solarnetwork.io.modbus.netty.msg.BaseModbusMessage;
-import net.solarnetwork.io.modbus.tcp.netty.NettyTcpModbusServer;
-
-import static net.solarnetwork.io.modbus.ModbusFunctionCodes.WRITE_COIL;
-import static net.solarnetwork.io.modbus.ModbusFunctionCodes.WRITE_COILS;
-import static net.solarnetwork.io.modbus.ModbusFunctionCodes.WRITE_HOLDING_REGISTER;
-import static net.solarnetwork.io.modbus.ModbusFunctionCodes.WRITE_HOLDING_REGISTERS;
-import static net.solarnetwork.io.modbus.netty.msg.BitsModbusMessage.readCoilsResponse;
-import static net.solarnetwork.io.modbus.netty.msg.BitsModbusMessage.readDiscretesResponse;
-import static net.solarnetwork.io.modbus.netty.msg.BitsModbusMessage.writeCoilResponse;
-import static net.solarnetwork.io.modbus.netty.msg.BitsModbusMessage.writeCoilsResponse;
-import static net.solarnetwork.io.modbus.netty.msg.RegistersModbusMessage.readHoldingsResponse;
-import static net.solarnetwork.io.modbus.netty.msg.RegistersModbusMessage.readInputsResponse;
-import static net.solarnetwork.io.modbus.netty.msg.RegistersModbusMessage.writeHoldingResponse;
-import static net.solarnetwork.io.modbus.netty.msg.RegistersModbusMessage.writeHoldingsResponse;
 
+import static com.eaton.telemetry.modbus.ModbusCodes.ACKNOWLEDGE;
+import static com.eaton.telemetry.modbus.ModbusCodes.DIAGNOSTICS;
+import static com.eaton.telemetry.modbus.ModbusCodes.EXCEPTION_FLAG;
+import static com.eaton.telemetry.modbus.ModbusCodes.GATEWAY_TARGET_DEVICE_FAILED_TO_RESPOND;
+import static com.eaton.telemetry.modbus.ModbusCodes.ILLEGAL_DATA_ADDRESS;
+import static com.eaton.telemetry.modbus.ModbusCodes.ILLEGAL_DATA_VALUE;
+import static com.eaton.telemetry.modbus.ModbusCodes.ILLEGAL_FUNCTION;
+import static com.eaton.telemetry.modbus.ModbusCodes.MASK_WRITE_REGISTER;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_BITS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_WRITE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_WRITE_BITS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_WRITE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_DISCRETE_INPUTS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_HOLDING_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_INPUT_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_WRITE_MULTIPLE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.SERVER_DEVICE_FAILURE;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_MULTIPLE_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_MULTIPLE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_SINGLE_COIL;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_SINGLE_REGISTER;
+
+/**
+ * Modbus TCP agent serving the {@link RegisterBank} of each of its units.
+ * <br>
+ * Reads are served from the tables of the requested unit, once the sensors bound to the requested range have generated
+ * their next values. Writes to holding registers and coils are stored in the tables, each request being applied
+ * atomically, and are seen by the following reads.
+ * <br>
+ * The agent runs on the event loops of a {@link ModbusRuntime}, which may be shared by many agents, see
+ * {@link ModbusApplication}: the PDUs are decoded from and encoded into the Netty buffers of the connections.
+ */
 @Slf4j
 public class ModbusAgent {
 
-    private NettyTcpModbusServer server;
+    /**
+     * Number of unit ids, which are a byte.
+     */
+    public static final int UNITS = 256;
+
+    /**
+     * Maximum number of connections waiting to be accepted, so that collectors opening thousands of connections at once
+     * are not refused.
+     */
+    private static final int BACKLOG = 1024;
+
+    /**
+     * Interval between two lines of the sampled access log of an agent, logged at debug level: a fleet would log
+     * thousands of lines per interval otherwise.
+     */
+    private static final long LOG_INTERVAL_NANOS = TimeUnit.SECONDS.toNanos(10);
+
+    /**
+     * The name of the agent, its address unless specified.
+     *
+     * @return the name of the agent
+     */
+    @Getter private final String name;
+
+    /**
+     * The address the agent listens to.
+     *
+     * @return the address of the agent
+     */
+    @Getter private final InetSocketAddress address;
+
+    private final ModbusRuntime runtime;
+
+    /**
+     * Whether {@link #runtime} was created by this agent, and should be closed with it.
+     */
+    private final boolean ownsRuntime;
+
+    /**
+     * The server channel of the agent, null unless started.
+     */
+    @Nullable
+    private Channel channel;
+
+    /**
+     * The open connections of the agent, closed with it: on a shared runtime, they would stay open otherwise.
+     */
+    private final ChannelGroup connectionChannels = new DefaultChannelGroup(GlobalEventExecutor.INSTANCE);
+
+    /**
+     * The registers of the units, indexed by unit id, null for absent units.
+     */
+    private final AtomicReferenceArray<RegisterBank> banks = new AtomicReferenceArray<>(UNITS);
+
+    private final LongAdder requests = new LongAdder();
+
+    private final LongAdder errors = new LongAdder();
+
+    private final AtomicLong nextLog = new AtomicLong(System.nanoTime() + LOG_INTERVAL_NANOS);
+
+    /**
+     * Whether the units are in snapshot mode, see {@link #enableSnapshots(Duration, ScheduledExecutorService)}.
+     */
+    private volatile boolean snapshots;
 
-    private final Map<Integer, ModbusSensor> sensors;
+    @Nullable
+    private ScheduledFuture<?> snapshotTask;
+
+    /**
+     * The maximum number of pipelined requests of a connection handled concurrently, 1 to handle them one after the
+     * other on the event loop of the connection.
+     *
+     * @return the pipelining depth
+     */
+    @Getter private volatile int pipeliningDepth = 1;
+
+    private final ModbusConnections connections = new ModbusConnections();
 
     public ModbusAgent(int port) {
         this(port, new HashSet<>());
     }
 
     public ModbusAgent(int port, Set<? extends ModbusSensor<?>> sensors) {
-        this.server = new NettyTcpModbusServer(port);
-        this.sensors = sensors.stream().collect(Collectors.toMap(ModbusSensor::getIdentifier, s -> s));
+        this(new InetSocketAddress(port), sensors, new ModbusRuntime(1), true);
+    }
+
+    /**
+     * Creates an agent running on a shared runtime, which is not closed with the agent.
+     *
+     * @param name    the name of the agent
+     * @param address the address the agent listens to
+     * @param sensors the sensors of the agent
+     * @param runtime the runtime of the agent
+     */
+    public ModbusAgent(String name, InetSocketAddress address, Set<? extends ModbusSensor<?>> sensors, ModbusRuntime runtime) {
+        this(name, address, sensors, runtime, false);
+    }
+
+    private ModbusAgent(InetSocketAddress address, Set<? extends ModbusSensor<?>> sensors, ModbusRuntime runtime, boolean ownsRuntime) {
+        this(address.toString(), address, sensors, runtime, ownsRuntime);
+    }
+
+    private ModbusAgent(String name, InetSocketAddress address, Set<? extends ModbusSensor<?>> sensors, ModbusRuntime runtime, boolean ownsRuntime) {
+        this.name = name;
+        this.address = address;
+        this.runtime = runtime;
+        this.ownsRuntime = ownsRuntime;
+        sensors.forEach(this::addSensor);
     }
 
     public void addSensor(int sensorId, RegisterType registerType, IntFunction<?> dataSupplier) {
-        sensors.put(sensorId, new ModbusSensor<>(sensorId, registerType, dataSupplier));
+        addSensor(new ModbusSensor<>(sensorId, registerType, dataSupplier));
     }
 
-    public void configure() {
-        server.setMessageHandler((msg, sender) -> {
-            ModbusMessage modbusMessage = null;
-            log.info("Reading value of sensor: {}", msg.getUnitId());
-            ModbusSensor<?> modbusSensor = sensors.get(msg.getUnitId());
-            final Object sensorValue = modbusSensor.nextValue();
-            if (sensorValue == null) {
-                modbusMessage = new BaseModbusMessage(msg.getUnitId(), msg.getFunction(), ModbusErrorCode.ServerDeviceFailure);
-                sender.accept(modbusMessage);
-                return;
-            } else {
-                if (msg.getFunction().isReadFunction()) {
-                    modbusMessage = handleRead(msg, sensorValue);
-                } else {
-                    modbusMessage = handleWrite(msg, sensorValue);
-                }
-            }
-            sender.accept(modbusMessage);
-        });
+    /**
+     * Binds a sensor to its range of the registers of its unit, creating the unit if needed.
+     *
+     * @param sensor the sensor
+     */
+    public void addSensor(ModbusSensor<?> sensor) {
+        getBank(sensor.getIdentifier()).bind(sensor);
     }
 
-    private ModbusMessage handleRead(ModbusMessage msg, Object sensorValue) {
-        ModbusMessage modbusMessage = null;
-        switch (msg.getFunction().blockType()) {
-            case Coil -> {
-                BitsModbusMessage tcpRequest = msg.unwrap(BitsModbusMessage.class);
-                modbusMessage = readCoilsResponse(tcpRequest.getUnitId(), tcpRequest.getAddress(), tcpRequest.getCount(), (BigInteger) sensorValue);
-            }
-            case Discrete -> {
-                BitsModbusMessage tcpRequest = msg.unwrap(BitsModbusMessage.class);
-                modbusMessage = readDiscretesResponse(tcpRequest.getUnitId(), tcpRequest.getAddress(), tcpRequest.getCount(), (BigInteger) sensorValue);
-            }
-            case Holding -> {
-                RegistersModbusMessage registerRequest = msg.unwrap(RegistersModbusMessage.class);
-                modbusMessage = readHoldingsResponse(registerRequest.getUnitId(), registerRequest.getAddress(), (short[]) sensorValue);
-            }
-            case Input -> {
-                RegistersModbusMessage registerRequest = msg.unwrap(RegistersModbusMessage.class);
-                modbusMessage = readInputsResponse(registerRequest.getUnitId(), registerRequest.getAddress(), (short[]) sensorValue);
-            }
-            case Diagnostic -> {
-                modbusMessage = new BaseModbusMessage(msg.getUnitId(), msg.getFunction(), ModbusErrorCode.Acknowledge);
+    /**
+     * Returns the registers of a unit, creating the unit if needed.
+     *
+     * @param unitId the unit id
+     * @return the registers of the unit
+     */
+    public RegisterBank getBank(int unitId) {
+        if (unitId < 0 || unitId >= UNITS) {
+            throw new IllegalArgumentException("unit id " + unitId + " should be between 0 and " + (UNITS - 1));
+        }
+        RegisterBank bank = banks.get(unitId);
+        if (bank == null) {
+            RegisterBank created = new RegisterBank();
+            // read after the insertion: enableSnapshots either switches the bank or is seen here, snapshots are
+            // never disabled once enabled
+            if (banks.compareAndSet(unitId, null, created) && snapshots) {
+                created.setSnapshot(true);
             }
+            bank = banks.get(unitId);
         }
-        return modbusMessage;
+        return bank;
+    }
+
+    /**
+     * Generates the values of the sensors on the scheduler of the runtime of this agent, see
+     * {@link #enableSnapshots(Duration, ScheduledExecutorService)}.
+     *
+     * @param period the delay between the end of a generation and the start of the next one
+     */
+    public void enableSnapshots(Duration period) {
+        enableSnapshots(period, runtime.getScheduler());
     }
 
-    private ModbusMessage handleWrite(ModbusMessage msg, Object sensorValue) {
-        ModbusMessage modbusMessage = null;
-        switch (msg.getFunction().blockType()) {
-            // Modbus protocol only supports write for coils and holding registers
-            case Coil -> {
-                BitsModbusMessage tcpRequest = msg.unwrap(BitsModbusMessage.class);
-                if (tcpRequest.getFunction().getCode() == WRITE_COILS) {
-                    modbusMessage = writeCoilsResponse(tcpRequest.getUnitId(), tcpRequest.getAddress(), (int) sensorValue);
-                } else if (tcpRequest.getFunction().getCode() == WRITE_COIL) {
-                    modbusMessage = writeCoilResponse(tcpRequest.getUnitId(), tcpRequest.getAddress(), (boolean) sensorValue);
-                }
+    /**
+     * Generates the values of the sensors periodically on an executor rather than on each read, i.e. on the Netty I/O
+     * threads: reads serve the values of the last generation, so that slow generators never stall the connections,
+     * and responses are sent in the order of the requests. Generations don't overlap, a slow one delays the next one.
+     *
+     * @param period   the delay between the end of a generation and the start of the next one
+     * @param executor the executor running the generations, which may be shared by several agents
+     */
+    public synchronized void enableSnapshots(Duration period, ScheduledExecutorService executor) {
+        if (snapshotTask != null) {
+            throw new IllegalStateException("snapshots are already enabled");
+        }
+        snapshots = true;
+        for (int unitId = 0; unitId < UNITS; unitId++) {
+            RegisterBank bank = banks.get(unitId);
+            if (bank != null) {
+                bank.setSnapshot(true);
             }
-            case Holding -> {
-                RegistersModbusMessage registerRequest = msg.unwrap(RegistersModbusMessage.class);
-                if (registerRequest.getFunction().getCode() == WRITE_HOLDING_REGISTERS) {
-                    modbusMessage = writeHoldingsResponse(registerRequest.getUnitId(), registerRequest.getAddress(), (int) sensorValue);
-                } else if (registerRequest.getFunction().getCode() == WRITE_HOLDING_REGISTER) {
-                    modbusMessage = writeHoldingResponse(registerRequest.getUnitId(), registerRequest.getAddress(), (int) sensorValue);
-                }
+        }
+        snapshotTask = executor.scheduleWithFixedDelay(this::refreshAll, 0, period.toNanos(), TimeUnit.NANOSECONDS);
+    }
+
+    private void refreshAll() {
+        for (int unitId = 0; unitId < UNITS; unitId++) {
+            RegisterBank bank = banks.get(unitId);
+            if (bank != null) {
+                bank.refreshAll();
             }
         }
-        return modbusMessage;
     }
 
-    public void start() {
+    /**
+     * Sets the maximum number of pipelined requests of a connection handled concurrently, for the connections opened
+     * afterwards.
+     * <br>
+     * By default, the requests of a connection are handled one after the other on its event loop, which is the
+     * fastest when the values are cheap to generate or generated in snapshots, see {@link #enableSnapshots(Duration)}.
+     * With a greater depth, the read requests pipelined by a client are handled concurrently by the handler pool of the
+     * runtime, so that slow generators are run in parallel: writes are handled once the previous requests are
+     * answered, and before the next ones are handled, so that the responses are the same as when handled one after the
+     * other. Responses are always sent in the order of the requests.
+     *
+     * @param depth the pipelining depth, at least 1
+     * @return this to eventually chain configuration
+     */
+    public ModbusAgent setPipeliningDepth(int depth) {
+        if (depth < 1) {
+            throw new IllegalArgumentException("pipelining depth should be at least 1");
+        }
+        this.pipeliningDepth = depth;
+        return this;
+    }
+
+    ModbusRuntime getRuntime() {
+        return runtime;
+    }
+
+    /**
+     * Sets the limits of the connections opened afterwards: idle timeout, maximum numbers of connections and write
+     * buffer water marks. Connections are not limited by default.
+     *
+     * @param limits the connection limits
+     * @return this to eventually chain configuration
+     */
+    public ModbusAgent setConnectionLimits(ModbusConnectionLimits limits) {
+        connections.setLimits(Objects.requireNonNull(limits, "limits may not be null"));
+        return this;
+    }
+
+    /**
+     * Returns the limits of the connections.
+     *
+     * @return the connection limits
+     */
+    public ModbusConnectionLimits getConnectionLimits() {
+        return connections.getLimits();
+    }
+
+    /**
+     * Returns the number of connections currently open to the agent.
+     *
+     * @return the number of open connections
+     */
+    public int getConnections() {
+        return connections.getOpen();
+    }
+
+    /**
+     * Returns the number of connections accepted since the agent was created, not counting the rejected ones.
+     *
+     * @return the number of accepted connections
+     */
+    public long getAcceptedConnections() {
+        return connections.getAccepted();
+    }
+
+    /**
+     * Returns the number of connections closed at once because they exceeded the maximum numbers of connections.
+     *
+     * @return the number of rejected connections
+     */
+    public long getRejectedConnections() {
+        return connections.getRejected();
+    }
+
+    /**
+     * Returns the number of connections closed because they were idle.
+     *
+     * @return the number of idle connections closed
+     */
+    public long getIdleConnectionsClosed() {
+        return connections.getIdleClosed();
+    }
+
+    /**
+     * Returns the number of bytes received on all the connections, MBAP headers included.
+     *
+     * @return the number of bytes received
+     */
+    public long getBytesReceived() {
+        return connections.getBytesReceived();
+    }
+
+    /**
+     * Returns the number of bytes sent on all the connections, MBAP headers included.
+     *
+     * @return the number of bytes sent
+     */
+    public long getBytesSent() {
+        return connections.getBytesSent();
+    }
+
+    /**
+     * Returns the number of requests handled since the agent was created.
+     *
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return requests.sum();
+    }
+
+    /**
+     * Returns the number of requests answered with an exception response.
+     *
+     * @return the number of failed requests
+     */
+    public long getErrors() {
+        return errors.sum();
+    }
+
+    /**
+     * Returns the port the agent listens to, which is only known once started if the agent was created on port 0.
+     *
+     * @return the port of the agent
+     */
+    public synchronized int getPort() {
+        return channel != null ? ((InetSocketAddress) channel.localAddress()).getPort() : address.getPort();
+    }
+
+    /**
+     * Kept for compatibility, the agent being configured by {@link #start()}.
+     */
+    @Deprecated
+    public void configure() {
+        // nothing to configure
+    }
+
+    /**
+     * Handles the PDU of a request: requests to absent units are answered with a gateway exception, requests out of
+     * the tables with an illegal data address exception.
+     * <br>
+     * Requests are only logged at trace level, a summary being logged every 10 seconds at most.
+     *
+     * @param unitId   the unit id of the request
+     * @param request  the PDU of the request, from its function code
+     * @param response the buffer the PDU of the response is written to, from its function code
+     */
+    public void handle(int unitId, ByteBuf request, ByteBuf response) {
+        requests.increment();
+        int start = response.writerIndex();
+        int function = 0;
+        int exception;
         try {
-            server.start();
-        } catch (IOException e) {
-            throw new RuntimeException(e);
+            // a frame may have no PDU at all
+            function = request.readUnsignedByte();
+            exception = dispatch(unitId, function, request, response);
+        } catch (IndexOutOfBoundsException e) {
+            // the request is truncated
+            exception = ILLEGAL_DATA_VALUE;
+        } catch (RuntimeException e) {
+            log.debug("Request of function {} to unit {} failed", function, unitId, e);
+            exception = SERVER_DEVICE_FAILURE;
         }
+        if (exception != 0) {
+            errors.increment();
+            response.writerIndex(start);
+            response.writeByte(function | EXCEPTION_FLAG).writeByte(exception);
+        }
+        if (log.isTraceEnabled()) {
+            log.trace("Request of function {} to unit {} answered with exception {}", function, unitId, exception);
+        }
+        if (log.isDebugEnabled()) {
+            long now = System.nanoTime();
+            long next = nextLog.get();
+            if (now - next >= 0 && nextLog.compareAndSet(next, now + LOG_INTERVAL_NANOS)) {
+                log.debug("{}: {} requests handled, {} errors, last request: unit {}, function {}",
+                        name, requests.sum(), errors.sum(), unitId, function);
+            }
+        }
+    }
+
+    /**
+     * Handles a request.
+     *
+     * @return the exception code, 0 if the response was written
+     */
+    private int dispatch(int unitId, int function, ByteBuf request, ByteBuf response) {
+        RegisterBank bank = unitId >= 0 && unitId < UNITS ? banks.get(unitId) : null;
+        if (bank == null) {
+            return GATEWAY_TARGET_DEVICE_FAILED_TO_RESPOND;
+        }
+        return switch (function) {
+            case READ_COILS -> readBits(bank, RegisterType.C, function, request, response);
+            case READ_DISCRETE_INPUTS -> readBits(bank, RegisterType.D, function, request, response);
+            case READ_HOLDING_REGISTERS -> readRegisters(bank, RegisterType.H, function, request, response);
+            case READ_INPUT_REGISTERS -> readRegisters(bank, RegisterType.I, function, request, response);
+            case WRITE_SINGLE_COIL -> writeCoil(bank, function, request, response);
+            case WRITE_SINGLE_REGISTER -> writeRegister(bank, function, request, response);
+            case WRITE_MULTIPLE_COILS -> writeCoils(bank, function, request, response);
+            case WRITE_MULTIPLE_REGISTERS -> writeRegisters(bank, function, request, response);
+            case MASK_WRITE_REGISTER -> maskWriteRegister(bank, function, request, response);
+            case READ_WRITE_MULTIPLE_REGISTERS -> readWriteRegisters(bank, function, request, response);
+            case DIAGNOSTICS -> ACKNOWLEDGE;
+            default -> ILLEGAL_FUNCTION;
+        };
     }
 
-    public void stop() {
-        server.stop();
+    private static int readBits(RegisterBank bank, RegisterType registerType, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        int count = request.readUnsignedShort();
+        if (count < 1 || count > MAX_READ_BITS) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        if (!RegisterTable.isInRange(address, count)) {
+            return ILLEGAL_DATA_ADDRESS;
+        }
+        if (!bank.refresh(registerType, address, count)) {
+            return SERVER_DEVICE_FAILURE;
+        }
+        response.writeByte(function).writeByte((count + 7) / 8);
+        bank.getBits(registerType).read(address, count, response);
+        return 0;
+    }
+
+    private static int readRegisters(RegisterBank bank, RegisterType registerType, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        int count = request.readUnsignedShort();
+        if (count < 1 || count > MAX_READ_REGISTERS) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        if (!RegisterTable.isInRange(address, count)) {
+            return ILLEGAL_DATA_ADDRESS;
+        }
+        if (!bank.refresh(registerType, address, count)) {
+            return SERVER_DEVICE_FAILURE;
+        }
+        response.writeByte(function).writeByte(count * 2);
+        bank.getRegisters(registerType).read(address, count, response);
+        return 0;
+    }
+
+    private static int writeCoil(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        int value = request.readUnsignedShort();
+        if (value != 0xFF00 && value != 0x0000) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        bank.writeCoils(address, 1, value == 0 ? BigInteger.ZERO : BigInteger.ONE);
+        response.writeByte(function).writeShort(address).writeShort(value);
+        return 0;
+    }
+
+    private static int writeRegister(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        short value = request.readShort();
+        bank.writeHoldings(address, new short[]{value});
+        response.writeByte(function).writeShort(address).writeShort(value);
+        return 0;
+    }
+
+    private static int writeCoils(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        int count = request.readUnsignedShort();
+        int byteCount = request.readUnsignedByte();
+        if (count < 1 || count > MAX_WRITE_BITS || byteCount != (count + 7) / 8) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        if (!RegisterTable.isInRange(address, count)) {
+            return ILLEGAL_DATA_ADDRESS;
+        }
+        bank.writeCoils(address, count, request);
+        response.writeByte(function).writeShort(address).writeShort(count);
+        return 0;
+    }
+
+    private static int writeRegisters(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        int count = request.readUnsignedShort();
+        int byteCount = request.readUnsignedByte();
+        if (count < 1 || count > MAX_WRITE_REGISTERS || byteCount != count * 2) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        if (!RegisterTable.isInRange(address, count)) {
+            return ILLEGAL_DATA_ADDRESS;
+        }
+        bank.writeHoldings(address, count, request);
+        response.writeByte(function).writeShort(address).writeShort(count);
+        return 0;
+    }
+
+    private static int maskWriteRegister(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int address = request.readUnsignedShort();
+        short andMask = request.readShort();
+        short orMask = request.readShort();
+        bank.maskWriteHolding(address, andMask, orMask);
+        response.writeByte(function).writeShort(address).writeShort(andMask).writeShort(orMask);
+        return 0;
+    }
+
+    private static int readWriteRegisters(RegisterBank bank, int function, ByteBuf request, ByteBuf response) {
+        int readAddress = request.readUnsignedShort();
+        int readCount = request.readUnsignedShort();
+        int writeAddress = request.readUnsignedShort();
+        int writeCount = request.readUnsignedShort();
+        int byteCount = request.readUnsignedByte();
+        if (readCount < 1 || readCount > MAX_READ_REGISTERS
+                || writeCount < 1 || writeCount > MAX_READ_WRITE_REGISTERS || byteCount != writeCount * 2) {
+            return ILLEGAL_DATA_VALUE;
+        }
+        if (!RegisterTable.isInRange(readAddress, readCount) || !RegisterTable.isInRange(writeAddress, writeCount)) {
+            return ILLEGAL_DATA_ADDRESS;
+        }
+        response.writeByte(function).writeByte(readCount * 2);
+        bank.writeAndReadHoldings(writeAddress, request, writeCount, readAddress, readCount, response);
+        return 0;
+    }
+
+    /**
+     * Starts listening to the address of the agent.
+     *
+     * @throws IllegalStateException if the agent could not listen to its address
+     */
+    public synchronized void start() {
+        ServerBootstrap bootstrap = new ServerBootstrap()
+                .group(runtime.getBossGroup(), runtime.getWorkerGroup())
+                .channel(NioServerSocketChannel.class)
+                .option(ChannelOption.SO_BACKLOG, BACKLOG)
+                .childOption(ChannelOption.TCP_NODELAY, true)
+                // small reads for small frames: an idle connection holds no buffer, a busy one grows its reads
+                .childOption(ChannelOption.RCVBUF_ALLOCATOR, new AdaptiveRecvByteBufAllocator(64, 512, 65536))
+                .childHandler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        connectionChannels.add(ch);
+                        if (!ch.parent().isOpen()) {
+                            // accepted while the agent was stopped, after its connections were closed
+                            ch.close();
+                            return;
+                        }
+                        connections.initChannel(ch);
+                        ch.pipeline().addLast(ModbusTcpHandler.frameDecoder(), new ModbusTcpHandler(ModbusAgent.this));
+                    }
+                });
+        ChannelFuture bind = bootstrap.bind(address).awaitUninterruptibly();
+        if (!bind.isSuccess()) {
+            throw new IllegalStateException("could not listen to " + address, bind.cause());
+        }
+        channel = bind.channel();
+        log.debug("Modbus agent {} listening to {}", name, channel.localAddress());
+    }
+
+    /**
+     * Stops listening to the address of the agent and closes its open connections.
+     */
+    public synchronized void stop() {
+        if (channel != null) {
+            channel.close().syncUninterruptibly();
+            channel = null;
+        }
+        connectionChannels.close().awaitUninterruptibly();
+        if (snapshotTask != null) {
+            snapshotTask.cancel(false);
+            snapshotTask = null;
+        }
+        if (ownsRuntime) {
+            runtime.close();
+        }
     }
 }
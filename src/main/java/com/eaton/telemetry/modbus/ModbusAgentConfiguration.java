@@ -0,0 +1,179 @@
+package com.eaton.telemetry.modbus;
+
+import javax.annotation.Nullable;
+import java.math.BigInteger;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.function.IntFunction;
+
+/**
+ * Configuration of one or several identical {@link ModbusAgent}s of a {@link ModbusApplication}, as read from a fleet
+ * file.
+ * <br>
+ * An entry may look like the following, {@code count} agents being created on consecutive ports, or on consecutive
+ * IPv4 addresses with the same port if {@code increment} is {@code ip}:
+ * <pre>
+ * {@code
+ *     - name: "meter"
+ *       ip: "127.0.0.1"
+ *       port: 15020
+ *       count: 1000
+ *       connections:
+ *         idleTimeoutSeconds: 60
+ *         maxConnectionsPerIp: 16
+ *       registers:
+ *         - unit: 1
+ *           table: H
+ *           address: 0
+ *           values: [230, 50, 12]
+ *         - unit: 1
+ *           table: I
+ *           address: 100
+ *           count: 4
+ *           minimum: 0
+ *           maximum: 1000
+ * }
+ * </pre>
+ *
+ * @param name        the name of the agent, suffixed by the index of the agent if several agents are created
+ * @param ip          the IP the agent should bind to, all the interfaces if {@code null}
+ * @param port        the port of the agent
+ * @param count       the number of agents, 1 if not positive
+ * @param increment   {@code port} (the default) or {@code ip}, the part of the address incremented from an agent to
+ *                    the next
+ * @param registers   the ranges of registers of the agents
+ * @param connections the limits of the connections to each agent, none if {@code null}
+ */
+public record ModbusAgentConfiguration(String name,
+                                       @Nullable String ip,
+                                       int port,
+                                       int count,
+                                       @Nullable String increment,
+                                       @Nullable List<RegisterConfiguration> registers,
+                                       @Nullable ModbusConnectionLimits connections) {
+
+    /**
+     * Creates the agents of this configuration.
+     *
+     * @param runtime the runtime the agents run on
+     * @return the agents
+     * @throws IllegalArgumentException if the IP or a range of registers is not valid
+     */
+    public List<ModbusAgent> createAgents(ModbusRuntime runtime) {
+        int agentCount = Math.max(1, count);
+        boolean incrementIp = "ip".equalsIgnoreCase(increment);
+        List<ModbusAgent> agents = new ArrayList<>(agentCount);
+        for (int i = 0; i < agentCount; i++) {
+            InetSocketAddress address = incrementIp ? new InetSocketAddress(address(i), port) : address(0, port + i);
+            ModbusAgent agent = new ModbusAgent(agentCount == 1 ? name : name + "-" + i, address, new LinkedHashSet<>(), runtime);
+            Optional.ofNullable(registers).ifPresent(ranges -> ranges.forEach(range -> range.configure(agent)));
+            Optional.ofNullable(connections).ifPresent(agent::setConnectionLimits);
+            agents.add(agent);
+        }
+        return agents;
+    }
+
+    private InetSocketAddress address(int index, int agentPort) {
+        return ip == null ? new InetSocketAddress(agentPort) : new InetSocketAddress(address(index), agentPort);
+    }
+
+    private InetAddress address(int index) {
+        try {
+            InetAddress first = InetAddress.getByName(Optional.ofNullable(ip).orElse("0.0.0.0"));
+            if (index == 0) {
+                return first;
+            }
+            int value = ByteBuffer.wrap(first.getAddress()).getInt() + index;
+            return InetAddress.getByAddress(ByteBuffer.allocate(4).putInt(value).array());
+        } catch (UnknownHostException e) {
+            throw new IllegalArgumentException("invalid IP " + ip, e);
+        }
+    }
+
+    /**
+     * Configuration of a range of registers: its values are either constant, stored once in the tables so that the
+     * masters may overwrite them, or drawn at random between a minimum and a maximum on each read.
+     *
+     * @param unit    the unit id
+     * @param table   the table of the range
+     * @param address the address of the first entry of the range
+     * @param count   the number of entries, the number of values if {@code values} is set
+     * @param values  the constant values of the range, 0 or 1 for bits
+     * @param minimum the minimum of the random values
+     * @param maximum the maximum of the random values
+     */
+    public record RegisterConfiguration(int unit,
+                                        RegisterType table,
+                                        int address,
+                                        int count,
+                                        @Nullable List<Integer> values,
+                                        int minimum,
+                                        int maximum) {
+
+        /**
+         * Stores the constant values of this range into the tables of an agent, or binds a sensor generating its
+         * random values.
+         *
+         * @param agent the agent
+         * @throws IllegalArgumentException if the range is out of the table, or the minimum of random registers is
+         *                                  greater than their maximum
+         */
+        void configure(ModbusAgent agent) {
+            if (values == null) {
+                if ((table == RegisterType.H || table == RegisterType.I) && minimum > maximum) {
+                    throw new IllegalArgumentException("minimum " + minimum + " of range " + table + address
+                            + " is greater than its maximum " + maximum);
+                }
+                agent.addSensor(switch (table) {
+                    case H, I -> new ModbusSensor<>(unit, table, address, count, registers(count));
+                    case C, D -> new ModbusSensor<>(unit, table, address, count, bits(count));
+                });
+                return;
+            }
+            int length = values.size();
+            if (!RegisterTable.isInRange(address, length)) {
+                throw new IllegalArgumentException("range " + address + "+" + length + " is out of the table");
+            }
+            RegisterBank bank = agent.getBank(unit);
+            switch (table) {
+                case H, I -> {
+                    short[] constant = new short[length];
+                    for (int i = 0; i < length; i++) {
+                        constant[i] = values.get(i).shortValue();
+                    }
+                    bank.store(table, address, constant);
+                }
+                case C, D -> {
+                    BigInteger constant = BigInteger.ZERO;
+                    for (int i = 0; i < length; i++) {
+                        if (values.get(i) != 0) {
+                            constant = constant.setBit(i);
+                        }
+                    }
+                    bank.store(table, address, length, constant);
+                }
+            }
+        }
+
+        private IntFunction<short[]> registers(int length) {
+            return tick -> {
+                short[] random = new short[length];
+                for (int i = 0; i < length; i++) {
+                    random[i] = (short) ThreadLocalRandom.current().nextInt(minimum, maximum + 1);
+                }
+                return random;
+            };
+        }
+
+        private IntFunction<BigInteger> bits(int length) {
+            return tick -> new BigInteger(length, ThreadLocalRandom.current());
+        }
+    }
+}
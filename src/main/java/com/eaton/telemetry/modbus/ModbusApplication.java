@@ -0,0 +1,163 @@
+package com.eaton.telemetry.modbus;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Fleet of {@link ModbusAgent}s running on a shared {@link ModbusRuntime}: the number of threads is the same for 1
+ * or 10,000 agents.
+ * <br>
+ * The configuration {@code YAML} file defines a list of {@link ModbusAgentConfiguration}s, each of them creating one
+ * or several agents.
+ */
+@Slf4j
+public class ModbusApplication {
+
+    /**
+     * Creates a {@code ModbusApplication} from the specified fleet file, with as many worker threads as available
+     * processors, and starts all agents.
+     *
+     * @param configurationFile the fleet file
+     * @return the {@code ModbusApplication} instance
+     * @throws UncheckedIOException  if the fleet file could not be parsed
+     * @throws IllegalStateException if an agent could not be started
+     */
+    public static ModbusApplication start(File configurationFile) {
+        return start(configurationFile, new ModbusRuntime());
+    }
+
+    /**
+     * Creates a {@code ModbusApplication} from the specified fleet file and starts all agents.
+     *
+     * @param configurationFile the fleet file
+     * @param runtime           the runtime of the agents, closed with the application, or on failure
+     * @return the {@code ModbusApplication} instance
+     * @throws UncheckedIOException     if the fleet file could not be parsed
+     * @throws IllegalArgumentException if an agent of the fleet file is not valid
+     * @throws IllegalStateException    if an agent could not be started
+     */
+    public static ModbusApplication start(File configurationFile, ModbusRuntime runtime) {
+        List<ModbusAgent> agents = new ArrayList<>();
+        try {
+            Preconditions.checkNotNull(configurationFile, "the configuration file may not be null");
+            Preconditions.checkArgument(configurationFile.exists() && configurationFile.isFile(), "configuration does not exist or is not a file");
+
+            log.debug("started with configuration in path {}", configurationFile.getAbsolutePath());
+            ModbusAgentConfiguration[] configurations;
+            try {
+                configurations = new ObjectMapper(new YAMLFactory()).readValue(configurationFile, ModbusAgentConfiguration[].class);
+            } catch (IOException e) {
+                throw new UncheckedIOException("could not parse configuration at path: " + configurationFile.getAbsolutePath(), e);
+            }
+            for (ModbusAgentConfiguration configuration : configurations) {
+                agents.addAll(configuration.createAgents(runtime));
+            }
+        } catch (RuntimeException e) {
+            runtime.close();
+            throw e;
+        }
+        return start(agents, runtime);
+    }
+
+    /**
+     * Creates a {@code ModbusApplication} with the specified agents and starts them.
+     *
+     * @param agents  the agents, created on {@code runtime}
+     * @param runtime the runtime of the agents, closed with the application
+     * @return the {@code ModbusApplication} instance
+     * @throws IllegalStateException if an agent could not be started
+     */
+    public static ModbusApplication start(List<ModbusAgent> agents, ModbusRuntime runtime) {
+        ModbusApplication application = new ModbusApplication(runtime);
+        try {
+            agents.forEach(application::addAgent);
+        } catch (RuntimeException e) {
+            application.stop();
+            throw e;
+        }
+        log.info("{} Modbus agents are running", agents.size());
+        return application;
+    }
+
+    private final ModbusRuntime runtime;
+
+    private final List<ModbusAgent> agents = new CopyOnWriteArrayList<>();
+
+    /**
+     * The agents by name, the first agent of a name being kept if names are duplicated.
+     */
+    private final Map<String, ModbusAgent> agentsByName = new ConcurrentHashMap<>();
+
+    private ModbusApplication(ModbusRuntime runtime) {
+        this.runtime = runtime;
+    }
+
+    /**
+     * Returns the agents of {@code this} instance.
+     *
+     * @return the unmodifiable list of agents
+     */
+    public List<ModbusAgent> getAgents() {
+        return Collections.unmodifiableList(agents);
+    }
+
+    /**
+     * Returns the agent of the specified name.
+     *
+     * @param name the name of the agent
+     * @return the agent or {@code null} if there is no agent of this name
+     */
+    public ModbusAgent getAgent(String name) {
+        return agentsByName.get(name);
+    }
+
+    /**
+     * Starts an agent created on the runtime of {@code this} instance and adds it.
+     *
+     * @param agent the agent to add
+     * @throws IllegalStateException if the agent could not be started
+     */
+    public void addAgent(ModbusAgent agent) {
+        agent.start();
+        agents.add(agent);
+        agentsByName.putIfAbsent(agent.getName(), agent);
+    }
+
+    /**
+     * Returns the number of requests handled by all the agents.
+     *
+     * @return the number of requests
+     */
+    public long getRequests() {
+        return agents.stream().mapToLong(ModbusAgent::getRequests).sum();
+    }
+
+    /**
+     * Returns the number of connections currently open to all the agents.
+     *
+     * @return the number of open connections
+     */
+    public long getConnections() {
+        return agents.stream().mapToLong(ModbusAgent::getConnections).sum();
+    }
+
+    /**
+     * Stops all agents and closes their runtime.
+     */
+    public void stop() {
+        agents.forEach(ModbusAgent::stop);
+        runtime.close();
+    }
+}
@@ -0,0 +1,68 @@
+package com.eaton.telemetry.modbus;
+
+/**
+ * Function and exception codes of the Modbus protocol handled by {@link ModbusAgent}.
+ */
+public final class ModbusCodes {
+
+    public static final int READ_COILS = 0x01;
+
+    public static final int READ_DISCRETE_INPUTS = 0x02;
+
+    public static final int READ_HOLDING_REGISTERS = 0x03;
+
+    public static final int READ_INPUT_REGISTERS = 0x04;
+
+    public static final int WRITE_SINGLE_COIL = 0x05;
+
+    public static final int WRITE_SINGLE_REGISTER = 0x06;
+
+    public static final int DIAGNOSTICS = 0x08;
+
+    public static final int WRITE_MULTIPLE_COILS = 0x0F;
+
+    public static final int WRITE_MULTIPLE_REGISTERS = 0x10;
+
+    public static final int MASK_WRITE_REGISTER = 0x16;
+
+    public static final int READ_WRITE_MULTIPLE_REGISTERS = 0x17;
+
+    /**
+     * Bit set in the function code of an exception response.
+     */
+    public static final int EXCEPTION_FLAG = 0x80;
+
+    public static final int ILLEGAL_FUNCTION = 0x01;
+
+    public static final int ILLEGAL_DATA_ADDRESS = 0x02;
+
+    public static final int ILLEGAL_DATA_VALUE = 0x03;
+
+    public static final int SERVER_DEVICE_FAILURE = 0x04;
+
+    public static final int ACKNOWLEDGE = 0x05;
+
+    public static final int GATEWAY_TARGET_DEVICE_FAILED_TO_RESPOND = 0x0B;
+
+    /**
+     * Maximum number of registers of a read request.
+     */
+    public static final int MAX_READ_REGISTERS = 125;
+
+    /**
+     * Maximum number of bits of a read request.
+     */
+    public static final int MAX_READ_BITS = 2000;
+
+    public static final int MAX_WRITE_REGISTERS = 123;
+
+    public static final int MAX_WRITE_BITS = 1968;
+
+    /**
+     * Maximum number of registers written by a Read/Write Multiple Registers request.
+     */
+    public static final int MAX_READ_WRITE_REGISTERS = 121;
+
+    private ModbusCodes() {
+    }
+}
@@ -0,0 +1,41 @@
+package com.eaton.telemetry.modbus;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Limits of the connections of a {@link ModbusAgent}, so that an agent survives collectors opening thousands of
+ * connections, forgetting to close them or not reading their responses. See
+ * {@link ModbusAgent#setConnectionLimits(ModbusConnectionLimits)}.
+ * <br>
+ * A connection over a limit is accepted then closed at once. When the responses waiting to be sent to a connection
+ * exceed the high water mark, the agent stops reading its requests until they fall below the low water mark.
+ *
+ * @param idleTimeoutSeconds       the time after which a connection without any request or response is closed, 0 to
+ *                                 keep idle connections
+ * @param maxConnections           the maximum number of connections to the agent, 0 for no limit
+ * @param maxConnectionsPerIp      the maximum number of connections to the agent from one source IP, 0 for no limit
+ * @param writeBufferLowWaterMark  the number of pending response bytes below which a connection is read again, 0 for
+ *                                 the Netty default of 32 KiB
+ * @param writeBufferHighWaterMark the number of pending response bytes above which a connection is no longer read, 0
+ *                                 for the Netty default of 64 KiB
+ */
+public record ModbusConnectionLimits(int idleTimeoutSeconds,
+                                     int maxConnections,
+                                     int maxConnectionsPerIp,
+                                     int writeBufferLowWaterMark,
+                                     int writeBufferHighWaterMark) {
+
+    /**
+     * No limit: connections are never closed by the agent, with the default water marks.
+     */
+    public static final ModbusConnectionLimits NONE = new ModbusConnectionLimits(0, 0, 0, 0, 0);
+
+    public ModbusConnectionLimits {
+        Preconditions.checkArgument(idleTimeoutSeconds >= 0, "idle timeout may not be negative");
+        Preconditions.checkArgument(maxConnections >= 0, "maximum number of connections may not be negative");
+        Preconditions.checkArgument(maxConnectionsPerIp >= 0, "maximum number of connections per IP may not be negative");
+        Preconditions.checkArgument(writeBufferLowWaterMark >= 0 && writeBufferHighWaterMark >= 0, "water marks may not be negative");
+        Preconditions.checkArgument(writeBufferLowWaterMark == 0 || writeBufferHighWaterMark == 0
+                || writeBufferLowWaterMark <= writeBufferHighWaterMark, "low water mark may not exceed the high one");
+    }
+}
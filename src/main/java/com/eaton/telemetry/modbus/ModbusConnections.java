@@ -0,0 +1,189 @@
+package com.eaton.telemetry.modbus;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.ChannelDuplexHandler;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelPipeline;
+import io.netty.channel.ChannelPromise;
+import io.netty.channel.WriteBufferWaterMark;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.handler.timeout.IdleStateEvent;
+import io.netty.handler.timeout.IdleStateHandler;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Connections of a {@link ModbusAgent}: enforces its {@link ModbusConnectionLimits} and counts its connections and
+ * the bytes exchanged on them.
+ * <br>
+ * Each connection gets a {@link Handler} at the head of its pipeline, before the frame decoder, so that the bytes are
+ * counted as sent and received on the socket.
+ */
+@Slf4j
+final class ModbusConnections {
+
+    private static final int DEFAULT_LOW_WATER_MARK = WriteBufferWaterMark.DEFAULT.low();
+
+    private static final int DEFAULT_HIGH_WATER_MARK = WriteBufferWaterMark.DEFAULT.high();
+
+    private volatile ModbusConnectionLimits limits = ModbusConnectionLimits.NONE;
+
+    private final AtomicInteger open = new AtomicInteger();
+
+    private final Map<InetAddress, Integer> openByIp = new ConcurrentHashMap<>();
+
+    private final LongAdder accepted = new LongAdder();
+
+    private final LongAdder rejected = new LongAdder();
+
+    private final LongAdder idleClosed = new LongAdder();
+
+    private final LongAdder bytesReceived = new LongAdder();
+
+    private final LongAdder bytesSent = new LongAdder();
+
+    ModbusConnectionLimits getLimits() {
+        return limits;
+    }
+
+    void setLimits(ModbusConnectionLimits limits) {
+        this.limits = limits;
+    }
+
+    /**
+     * Configures a new connection according to the current limits, and adds the handlers counting and limiting it at
+     * the head of its pipeline.
+     *
+     * @param channel the channel of the connection
+     */
+    void initChannel(SocketChannel channel) {
+        ModbusConnectionLimits current = limits;
+        int high = current.writeBufferHighWaterMark() > 0 ? current.writeBufferHighWaterMark() : DEFAULT_HIGH_WATER_MARK;
+        int low = current.writeBufferLowWaterMark() > 0 ? current.writeBufferLowWaterMark() : Math.min(DEFAULT_LOW_WATER_MARK, high);
+        channel.config().setWriteBufferWaterMark(new WriteBufferWaterMark(low, Math.max(low, high)));
+        ChannelPipeline pipeline = channel.pipeline();
+        if (current.idleTimeoutSeconds() > 0) {
+            pipeline.addLast(new IdleStateHandler(0, 0, current.idleTimeoutSeconds(), TimeUnit.SECONDS));
+        }
+        pipeline.addLast(new Handler(current));
+    }
+
+    int getOpen() {
+        return open.get();
+    }
+
+    long getAccepted() {
+        return accepted.sum();
+    }
+
+    long getRejected() {
+        return rejected.sum();
+    }
+
+    long getIdleClosed() {
+        return idleClosed.sum();
+    }
+
+    long getBytesReceived() {
+        return bytesReceived.sum();
+    }
+
+    long getBytesSent() {
+        return bytesSent.sum();
+    }
+
+    /**
+     * Counts a new connection, unless it exceeds a limit.
+     *
+     * @return true if the connection is within the limits
+     */
+    private boolean opened(InetAddress ip, ModbusConnectionLimits current) {
+        int total = open.incrementAndGet();
+        int fromIp = openByIp.merge(ip, 1, Integer::sum);
+        if (current.maxConnections() > 0 && total > current.maxConnections()
+                || current.maxConnectionsPerIp() > 0 && fromIp > current.maxConnectionsPerIp()) {
+            closed(ip);
+            return false;
+        }
+        return true;
+    }
+
+    private void closed(InetAddress ip) {
+        open.decrementAndGet();
+        openByIp.computeIfPresent(ip, (key, count) -> count == 1 ? null : count - 1);
+    }
+
+    /**
+     * Handler of a connection, closing it if over the limits or idle, and counting its bytes.
+     */
+    private final class Handler extends ChannelDuplexHandler {
+
+        private final ModbusConnectionLimits limits;
+
+        /**
+         * The source IP of the connection, null unless counted.
+         */
+        private InetAddress ip;
+
+        private Handler(ModbusConnectionLimits limits) {
+            this.limits = limits;
+        }
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) throws Exception {
+            InetAddress remote = ((InetSocketAddress) ctx.channel().remoteAddress()).getAddress();
+            if (!opened(remote, limits)) {
+                rejected.increment();
+                log.debug("Closing {}, over the connection limits", ctx.channel());
+                ctx.close();
+                return;
+            }
+            ip = remote;
+            accepted.increment();
+            super.channelActive(ctx);
+        }
+
+        @Override
+        public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+            if (ip != null) {
+                closed(ip);
+                ip = null;
+            }
+            super.channelInactive(ctx);
+        }
+
+        @Override
+        public void channelRead(ChannelHandlerContext ctx, Object msg) throws Exception {
+            if (msg instanceof ByteBuf buf) {
+                bytesReceived.add(buf.readableBytes());
+            }
+            super.channelRead(ctx, msg);
+        }
+
+        @Override
+        public void write(ChannelHandlerContext ctx, Object msg, ChannelPromise promise) throws Exception {
+            if (msg instanceof ByteBuf buf) {
+                bytesSent.add(buf.readableBytes());
+            }
+            super.write(ctx, msg, promise);
+        }
+
+        @Override
+        public void userEventTriggered(ChannelHandlerContext ctx, Object evt) throws Exception {
+            if (evt instanceof IdleStateEvent) {
+                idleClosed.increment();
+                log.debug("Closing {}, idle for {} s", ctx.channel(), limits.idleTimeoutSeconds());
+                ctx.close();
+                return;
+            }
+            super.userEventTriggered(ctx, evt);
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.eaton.telemetry.modbus;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.util.concurrent.DefaultThreadFactory;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Threads shared by {@link ModbusAgent}s, so that the number of threads doesn't depend on the number of agents: a
+ * single boss event loop accepts the connections of all the agents, a bounded group of worker event loops serves
+ * them, a single scheduler generates the snapshots of the agents, and a pool handles the pipelined requests of the
+ * agents allowing it, see {@link ModbusAgent#setPipeliningDepth(int)}.
+ * <br>
+ * Agents created without runtime have their own small runtime, closed with them. A shared runtime is closed by its
+ * creator once its agents are stopped, e.g. by {@link ModbusApplication#stop()}.
+ * <pre>
+ * {@code
+ *     try (ModbusRuntime runtime = new ModbusRuntime(4)) {
+ *         List<ModbusAgent> agents = ...; // new ModbusAgent(..., runtime)
+ *         agents.forEach(ModbusAgent::start);
+ *         ...
+ *         agents.forEach(ModbusAgent::stop);
+ *     }
+ * }
+ * </pre>
+ */
+@Slf4j
+public class ModbusRuntime implements AutoCloseable {
+
+    private final EventLoopGroup bossGroup;
+
+    private final EventLoopGroup workerGroup;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ExecutorService handlers;
+
+    /**
+     * Creates a runtime with as many worker event loops as available processors.
+     */
+    public ModbusRuntime() {
+        this(Runtime.getRuntime().availableProcessors());
+    }
+
+    /**
+     * Creates a runtime with as many handler threads as worker threads.
+     *
+     * @param workerThreads the number of event loops serving the connections of all the agents
+     */
+    public ModbusRuntime(int workerThreads) {
+        this(workerThreads, workerThreads);
+    }
+
+    /**
+     * Creates a runtime.
+     *
+     * @param workerThreads  the number of event loops serving the connections of all the agents
+     * @param handlerThreads the number of threads handling the pipelined requests, only started when needed
+     */
+    public ModbusRuntime(int workerThreads, int handlerThreads) {
+        Preconditions.checkArgument(workerThreads > 0, "there should be at least one worker thread");
+        Preconditions.checkArgument(handlerThreads > 0, "there should be at least one handler thread");
+        this.bossGroup = new NioEventLoopGroup(1, new DefaultThreadFactory("ModbusRuntime-boss", true));
+        this.workerGroup = new NioEventLoopGroup(workerThreads, new DefaultThreadFactory("ModbusRuntime-worker", true));
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(new DefaultThreadFactory("ModbusRuntime-scheduler", true));
+        this.handlers = Executors.newFixedThreadPool(handlerThreads, new DefaultThreadFactory("ModbusRuntime-handler", true));
+    }
+
+    EventLoopGroup getBossGroup() {
+        return bossGroup;
+    }
+
+    EventLoopGroup getWorkerGroup() {
+        return workerGroup;
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    ExecutorService getHandlers() {
+        return handlers;
+    }
+
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        handlers.shutdownNow();
+        bossGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS);
+        workerGroup.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+        log.debug("Modbus runtime closed");
+    }
+}
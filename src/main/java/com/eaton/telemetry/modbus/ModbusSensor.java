@@ -1,13 +1,21 @@
 package com.eaton.telemetry.modbus;
 
+import java.math.BigInteger;
+import java.util.Arrays;
 import java.util.function.IntFunction;
 
 import com.eaton.telemetry.Sensor;
 import lombok.Getter;
 
 /**
- * Very basic sensor for Modbus. For now it doesn't suit to all needs and focuses on a short[] value generator.
- * @param <V>
+ * Sensor for Modbus, bound to a range of a table of a unit: its generator produces the values of the whole range, a
+ * {@code short[]} for registers or a {@link BigInteger} for bits, which are stored in the {@link RegisterBank} of the
+ * unit when the range is read, except into the holding registers and coils written by a master.
+ * <br>
+ * The identifier of the sensor is the unit id. Sensors created without a range are bound to the whole table, their
+ * values being stored from address 0.
+ *
+ * @param <V> the type of the values, {@code short[]} or {@link BigInteger}
  */
 @Getter
 public class ModbusSensor<V> extends Sensor<V, Integer> {
@@ -16,10 +24,86 @@ public class ModbusSensor<V> extends Sensor<V, Integer> {
         return new ModbusSensor<>(sensorId, RegisterType.H, valueGenerator);
     }
 
+    public static ModbusSensor<short[]> holding(int unitId, int address, int count, IntFunction<short[]> valueGenerator) {
+        return new ModbusSensor<>(unitId, RegisterType.H, address, count, valueGenerator);
+    }
+
+    public static ModbusSensor<short[]> input(int unitId, int address, int count, IntFunction<short[]> valueGenerator) {
+        return new ModbusSensor<>(unitId, RegisterType.I, address, count, valueGenerator);
+    }
+
+    public static ModbusSensor<BigInteger> coils(int unitId, int address, int count, IntFunction<BigInteger> valueGenerator) {
+        return new ModbusSensor<>(unitId, RegisterType.C, address, count, valueGenerator);
+    }
+
+    public static ModbusSensor<BigInteger> discretes(int unitId, int address, int count, IntFunction<BigInteger> valueGenerator) {
+        return new ModbusSensor<>(unitId, RegisterType.D, address, count, valueGenerator);
+    }
+
     private final RegisterType registerType;
 
+    /**
+     * Address of the first entry of the range of the sensor.
+     */
+    private final int address;
+
+    /**
+     * Number of entries of the range of the sensor.
+     */
+    private final int count;
+
     public ModbusSensor(int sensorId, RegisterType registerType, IntFunction<V> valueGenerator) {
-        super(sensorId, valueGenerator);
+        this(sensorId, registerType, 0, RegisterTable.SIZE, valueGenerator);
+    }
+
+    /**
+     * Creates a sensor bound to a range of a table of a unit.
+     *
+     * @param unitId         the unit id
+     * @param registerType   the table
+     * @param address        the address of the first entry of the range
+     * @param count          the number of entries of the range
+     * @param valueGenerator a function returning the values of the range for every "tick" it is called
+     */
+    public ModbusSensor(int unitId, RegisterType registerType, int address, int count, IntFunction<V> valueGenerator) {
+        super(unitId, valueGenerator);
+        if (!RegisterTable.isInRange(address, count)) {
+            throw new IllegalArgumentException("range " + address + "+" + count + " is out of the table");
+        }
         this.registerType = registerType;
+        this.address = address;
+        this.count = count;
+    }
+
+    /**
+     * Returns whether the range of this sensor overlaps a range of its table.
+     *
+     * @param from   the address of the first entry of the range
+     * @param length the number of entries of the range
+     * @return true if the ranges overlap
+     */
+    public boolean overlaps(int from, int length) {
+        return from < address + count && address < from + length;
+    }
+
+    /**
+     * Generates the next values of this sensor and stores them in the registers of its unit.
+     *
+     * @param bank the registers of the unit of this sensor
+     * @return false if the generator produced no value
+     */
+    boolean update(RegisterBank bank) {
+        V value = nextValue();
+        if (value == null) {
+            return false;
+        }
+        switch (registerType) {
+            case H, I -> {
+                short[] registers = (short[]) value;
+                bank.store(registerType, address, registers.length > count ? Arrays.copyOf(registers, count) : registers);
+            }
+            case C, D -> bank.store(registerType, address, count, (BigInteger) value);
+        }
+        return true;
     }
 }
@@ -0,0 +1,275 @@
+package com.eaton.telemetry.modbus;
+
+import javax.annotation.Nullable;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.RejectedExecutionException;
+
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.ByteBufAllocator;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import lombok.extern.slf4j.Slf4j;
+
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_INPUT_REGISTERS;
+
+/**
+ * Handler of the Modbus TCP frames of a connection to a {@link ModbusAgent}, split by a
+ * {@link LengthFieldBasedFrameDecoder} on the length field of their MBAP header.
+ * <br>
+ * Each frame is answered with a frame holding the same transaction id and unit id, its PDU being written by
+ * {@link ModbusAgent#handle(int, ByteBuf, ByteBuf)} into a pooled direct buffer of the channel allocator, straight
+ * from the register tables. The responses to the frames decoded from one socket read are flushed together once the
+ * read is complete, so that a client pipelining transactions gets its responses in as few segments as possible.
+ * <br>
+ * With a pipelining depth greater than 1, the transactions are handled on the handler pool of the runtime: up to
+ * {@code depth} consecutive reads at once, writes alone, and the responses are written in the order of the requests.
+ * All the state of the pipeline is confined to the event loop of the channel.
+ * <br>
+ * The channel stops reading while its pending responses exceed its high water mark, or while too many pipelined
+ * transactions are queued, so that a client not reading its responses can't exhaust the memory of the agent.
+ */
+@Slf4j
+class ModbusTcpHandler extends SimpleChannelInboundHandler<ByteBuf> {
+
+    /**
+     * Length of the MBAP header: transaction id, protocol id, length and unit id.
+     */
+    static final int HEADER_LENGTH = 7;
+
+    /**
+     * Maximum length of a Modbus TCP frame, header included.
+     */
+    static final int MAX_FRAME_LENGTH = 260;
+
+    /**
+     * Offset of the length field in the MBAP header.
+     */
+    static final int LENGTH_OFFSET = 4;
+
+    /**
+     * Number of queued transactions, as a multiple of the depth, above which the channel stops reading.
+     */
+    private static final int QUEUED_FACTOR = 4;
+
+    private final ModbusAgent agent;
+
+    private final int depth;
+
+    /**
+     * The transactions not answered yet, in the order of the requests.
+     */
+    private final Deque<Transaction> transactions = new ArrayDeque<>();
+
+    private int inFlight;
+
+    private boolean writeInFlight;
+
+    private boolean flushScheduled;
+
+    /**
+     * Whether too many transactions are queued, the channel not being read until half of them are answered.
+     */
+    private boolean queueFull;
+
+    ModbusTcpHandler(ModbusAgent agent) {
+        this.agent = agent;
+        this.depth = agent.getPipeliningDepth();
+    }
+
+    /**
+     * Creates the decoder splitting the stream of a connection into frames.
+     *
+     * @return the frame decoder
+     */
+    static LengthFieldBasedFrameDecoder frameDecoder() {
+        return new LengthFieldBasedFrameDecoder(MAX_FRAME_LENGTH, LENGTH_OFFSET, 2);
+    }
+
+    @Override
+    protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+        int transactionId = frame.readUnsignedShort();
+        int protocolId = frame.readUnsignedShort();
+        frame.skipBytes(2);
+        int unitId = frame.readUnsignedByte();
+        if (protocolId != 0) {
+            log.debug("Closing {}, which sent a frame of protocol {}", ctx.channel(), protocolId);
+            ctx.close();
+            return;
+        }
+        if (depth == 1) {
+            ctx.write(respond(ctx.alloc(), transactionId, unitId, frame), ctx.voidPromise());
+            return;
+        }
+        boolean read = frame.isReadable() && frame.getUnsignedByte(frame.readerIndex()) >= READ_COILS
+                && frame.getUnsignedByte(frame.readerIndex()) <= READ_INPUT_REGISTERS;
+        transactions.add(new Transaction(transactionId, unitId, frame.retain(), read));
+        if (transactions.size() >= depth * QUEUED_FACTOR) {
+            queueFull = true;
+            updateAutoRead(ctx);
+        }
+        dispatch(ctx);
+    }
+
+    @Override
+    public void channelReadComplete(ChannelHandlerContext ctx) {
+        ctx.flush();
+    }
+
+    @Override
+    public void channelWritabilityChanged(ChannelHandlerContext ctx) throws Exception {
+        updateAutoRead(ctx);
+        super.channelWritabilityChanged(ctx);
+    }
+
+    @Override
+    public void channelInactive(ChannelHandlerContext ctx) throws Exception {
+        for (Transaction transaction : transactions) {
+            transaction.release();
+        }
+        transactions.clear();
+        super.channelInactive(ctx);
+    }
+
+    @Override
+    public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+        log.debug("Closing {} after failure", ctx.channel(), cause);
+        ctx.close();
+    }
+
+    private ByteBuf respond(ByteBufAllocator allocator, int transactionId, int unitId, ByteBuf pdu) {
+        ByteBuf response = allocator.directBuffer(MAX_FRAME_LENGTH);
+        try {
+            response.writeShort(transactionId).writeShort(0).writeShort(0).writeByte(unitId);
+            agent.handle(unitId, pdu, response);
+            response.setShort(LENGTH_OFFSET, response.writerIndex() - LENGTH_OFFSET - 2);
+            return response;
+        } catch (RuntimeException e) {
+            response.release();
+            throw e;
+        }
+    }
+
+    /**
+     * Starts the queued transactions which may run along the ones in flight: reads while no write is in flight, a
+     * write once nothing is in flight.
+     */
+    private void dispatch(ChannelHandlerContext ctx) {
+        for (Transaction transaction : transactions) {
+            if (inFlight >= depth || writeInFlight) {
+                return;
+            }
+            if (transaction.started) {
+                continue;
+            }
+            if (!transaction.read && inFlight > 0) {
+                return;
+            }
+            start(ctx, transaction);
+        }
+    }
+
+    private void start(ChannelHandlerContext ctx, Transaction transaction) {
+        transaction.started = true;
+        inFlight++;
+        writeInFlight = !transaction.read;
+        try {
+            agent.getRuntime().getHandlers().execute(() -> {
+                ByteBuf response = null;
+                try {
+                    response = respond(ctx.alloc(), transaction.transactionId, transaction.unitId, transaction.frame);
+                } catch (RuntimeException e) {
+                    // not on the event loop, the failure would not reach the pipeline
+                    log.debug("Closing {} after failure", ctx.channel(), e);
+                } finally {
+                    transaction.frame.release();
+                }
+                ByteBuf completedResponse = response;
+                ctx.executor().execute(() -> completed(ctx, transaction, completedResponse));
+            });
+        } catch (RejectedExecutionException e) {
+            log.debug("Closing {}, the runtime being closed", ctx.channel());
+            transaction.frame.release();
+            ctx.close();
+        }
+    }
+
+    /**
+     * Ends a transaction handled on the handler pool, on the event loop of the channel.
+     *
+     * @param response the response to the transaction, {@code null} if it could not be handled, the channel being
+     *                 closed then
+     */
+    private void completed(ChannelHandlerContext ctx, Transaction transaction, @Nullable ByteBuf response) {
+        inFlight--;
+        writeInFlight = false;
+        if (response == null) {
+            ctx.close();
+            return;
+        }
+        if (!ctx.channel().isActive()) {
+            response.release();
+            return;
+        }
+        transaction.response = response;
+        boolean written = false;
+        while (!transactions.isEmpty() && transactions.peekFirst().response != null) {
+            ctx.write(transactions.pollFirst().response, ctx.voidPromise());
+            written = true;
+        }
+        if (written && !flushScheduled) {
+            // the completions already queued on the event loop run before the flush, and are sent along
+            flushScheduled = true;
+            ctx.executor().execute(() -> {
+                flushScheduled = false;
+                ctx.flush();
+            });
+        }
+        if (queueFull && transactions.size() < depth * QUEUED_FACTOR / 2) {
+            queueFull = false;
+            updateAutoRead(ctx);
+        }
+        dispatch(ctx);
+    }
+
+    private void updateAutoRead(ChannelHandlerContext ctx) {
+        boolean autoRead = ctx.channel().isWritable() && !queueFull;
+        if (ctx.channel().config().isAutoRead() != autoRead) {
+            log.trace("{} {} reading", ctx.channel(), autoRead ? "resumes" : "stops");
+            ctx.channel().config().setAutoRead(autoRead);
+        }
+    }
+
+    private static final class Transaction {
+
+        private final int transactionId;
+
+        private final int unitId;
+
+        private final ByteBuf frame;
+
+        private final boolean read;
+
+        private boolean started;
+
+        private ByteBuf response;
+
+        private Transaction(int transactionId, int unitId, ByteBuf frame, boolean read) {
+            this.transactionId = transactionId;
+            this.unitId = unitId;
+            this.frame = frame;
+            this.read = read;
+        }
+
+        private void release() {
+            if (!started) {
+                frame.release();
+            }
+            if (response != null) {
+                response.release();
+            }
+        }
+    }
+}
@@ -0,0 +1,295 @@
+package com.eaton.telemetry.modbus;
+
+import java.math.BigInteger;
+import java.util.EnumMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+import io.netty.buffer.ByteBuf;
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Registers of a Modbus unit: its coil, discrete input, input register and holding register tables, and the sensors
+ * generating their values.
+ * <br>
+ * The writes of the masters, only allowed to holding registers and coils, are stored and notified to the
+ * {@link WriteListener}s of the written range. Written values are kept until written again: the sensors bound to a
+ * written range keep generating the values of the entries which were not written, the written ones being left to the
+ * masters. The written entries are tracked by the tables, under the locks of their stripes, so that the writers of
+ * distinct ranges don't contend.
+ * <br>
+ * In snapshot mode, the values are generated in the background by {@link #refreshAll()} rather than on each read, so
+ * that reads never run the generators.
+ */
+@Slf4j
+public class RegisterBank {
+
+    private final RegisterTable holdings = new RegisterTable(true);
+
+    private final RegisterTable inputs = new RegisterTable();
+
+    private final BitTable coils = new BitTable(true);
+
+    private final BitTable discretes = new BitTable();
+
+    private final Map<RegisterType, List<ModbusSensor<?>>> sensors = new EnumMap<>(RegisterType.class);
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    private volatile boolean snapshot;
+
+    public RegisterBank() {
+        for (RegisterType registerType : RegisterType.values()) {
+            sensors.put(registerType, new CopyOnWriteArrayList<>());
+        }
+    }
+
+    /**
+     * Returns a register table of this unit.
+     *
+     * @param registerType {@link RegisterType#H} or {@link RegisterType#I}
+     * @return the register table
+     */
+    public RegisterTable getRegisters(RegisterType registerType) {
+        return switch (registerType) {
+            case H -> holdings;
+            case I -> inputs;
+            default -> throw new IllegalArgumentException(registerType + " is not a register table");
+        };
+    }
+
+    /**
+     * Returns a bit table of this unit.
+     *
+     * @param registerType {@link RegisterType#C} or {@link RegisterType#D}
+     * @return the bit table
+     */
+    public BitTable getBits(RegisterType registerType) {
+        return switch (registerType) {
+            case C -> coils;
+            case D -> discretes;
+            default -> throw new IllegalArgumentException(registerType + " is not a bit table");
+        };
+    }
+
+    /**
+     * Binds a sensor to its range of this unit.
+     *
+     * @param sensor the sensor
+     */
+    public void bind(ModbusSensor<?> sensor) {
+        sensors.get(sensor.getRegisterType()).add(sensor);
+    }
+
+    /**
+     * Generates the next values of the sensors bound to a range of a table, before the range is read.
+     *
+     * @param registerType the table
+     * @param address      the address of the first entry of the range
+     * @param count        the number of entries of the range
+     * @return false if a sensor produced no value
+     */
+    public boolean refresh(RegisterType registerType, int address, int count) {
+        if (snapshot) {
+            return true;
+        }
+        boolean refreshed = true;
+        for (ModbusSensor<?> sensor : sensors.get(registerType)) {
+            if (sensor.overlaps(address, count)) {
+                refreshed &= sensor.update(this);
+            }
+        }
+        return refreshed;
+    }
+
+    /**
+     * Generates the next values of all the sensors of this unit. A failing sensor keeps its previous values.
+     */
+    public void refreshAll() {
+        for (List<ModbusSensor<?>> tableSensors : sensors.values()) {
+            for (ModbusSensor<?> sensor : tableSensors) {
+                try {
+                    sensor.update(this);
+                } catch (RuntimeException e) {
+                    log.warn("Sensor of unit {} at {}{} failed", sensor.getIdentifier(), sensor.getRegisterType(), sensor.getAddress(), e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Switches the snapshot mode: when enabled, the values are only generated by {@link #refreshAll()}, reads serving
+     * the last generated ones.
+     *
+     * @param snapshot true to enable the snapshot mode
+     */
+    public void setSnapshot(boolean snapshot) {
+        this.snapshot = snapshot;
+    }
+
+    /**
+     * Adds a listener of the writes of the masters to a range of a table.
+     *
+     * @param registerType the table, {@link RegisterType#H} or {@link RegisterType#C}
+     * @param address      the address of the first entry of the range
+     * @param count        the number of entries of the range
+     * @param listener     the listener
+     */
+    public void addWriteListener(RegisterType registerType, int address, int count, WriteListener listener) {
+        listeners.add(new Listener(registerType, address, count, listener));
+    }
+
+    /**
+     * Writes holding registers, as the Write Single Register and Write Multiple Registers functions.
+     *
+     * @param address the address of the first register
+     * @param values  the values of the registers
+     */
+    public void writeHoldings(int address, short[] values) {
+        holdings.write(address, values);
+        written(RegisterType.H, address, values.length);
+    }
+
+    /**
+     * Writes holding registers from the big-endian values of a buffer, as the Write Multiple Registers function.
+     *
+     * @param address the address of the first register
+     * @param count   the number of registers
+     * @param values  the buffer holding the values, read from its reader index
+     */
+    public void writeHoldings(int address, int count, ByteBuf values) {
+        holdings.write(address, count, values);
+        written(RegisterType.H, address, count);
+    }
+
+    /**
+     * Modifies a holding register, as the Mask Write Register function, see
+     * {@link RegisterTable#mask(int, short, short)}.
+     *
+     * @param address the address of the register
+     * @param andMask the AND mask
+     * @param orMask  the OR mask
+     */
+    public void maskWriteHolding(int address, short andMask, short orMask) {
+        holdings.mask(address, andMask, orMask);
+        written(RegisterType.H, address, 1);
+    }
+
+    /**
+     * Writes holding registers then reads others, as the Read/Write Multiple Registers function.
+     *
+     * @param writeAddress the address of the first written register
+     * @param values       the values of the written registers
+     * @param readAddress  the address of the first read register
+     * @param readCount    the number of read registers
+     * @return the values of the read registers
+     */
+    public short[] writeAndReadHoldings(int writeAddress, short[] values, int readAddress, int readCount) {
+        refresh(RegisterType.H, readAddress, readCount);
+        short[] read = holdings.writeAndRead(writeAddress, values, readAddress, readCount);
+        written(RegisterType.H, writeAddress, values.length);
+        return read;
+    }
+
+    /**
+     * Writes holding registers then writes the values of others into a buffer, as the Read/Write Multiple Registers
+     * function, see {@link RegisterTable#writeAndRead(int, ByteBuf, int, int, int, ByteBuf)}.
+     *
+     * @param writeAddress the address of the first written register
+     * @param values       the buffer holding the values of the written registers, read from its reader index
+     * @param writeCount   the number of written registers
+     * @param readAddress  the address of the first read register
+     * @param readCount    the number of read registers
+     * @param out          the buffer the values of the read registers are written to
+     */
+    public void writeAndReadHoldings(int writeAddress, ByteBuf values, int writeCount, int readAddress, int readCount, ByteBuf out) {
+        refresh(RegisterType.H, readAddress, readCount);
+        holdings.writeAndRead(writeAddress, values, writeCount, readAddress, readCount, out);
+        written(RegisterType.H, writeAddress, writeCount);
+    }
+
+    /**
+     * Writes coils, as the Write Single Coil and Write Multiple Coils functions.
+     *
+     * @param address the address of the first coil
+     * @param count   the number of coils
+     * @param values  the values of the coils, bit 0 being the coil at {@code address}
+     */
+    public void writeCoils(int address, int count, BigInteger values) {
+        coils.write(address, count, values);
+        written(RegisterType.C, address, count);
+    }
+
+    /**
+     * Writes coils from the packed bits of a buffer, as the Write Multiple Coils function, see
+     * {@link BitTable#write(int, int, ByteBuf)}.
+     *
+     * @param address the address of the first coil
+     * @param count   the number of coils
+     * @param values  the buffer holding the bits, read from its reader index
+     */
+    public void writeCoils(int address, int count, ByteBuf values) {
+        coils.write(address, count, values);
+        written(RegisterType.C, address, count);
+    }
+
+    /**
+     * Stores the values generated by a sensor into a register table, except into the registers written by a master.
+     *
+     * @param registerType the table
+     * @param address      the address of the first register
+     * @param values       the values of the registers
+     */
+    void store(RegisterType registerType, int address, short[] values) {
+        getRegisters(registerType).store(address, values);
+    }
+
+    /**
+     * Stores the values generated by a sensor into a bit table, except into the coils written by a master.
+     *
+     * @param registerType the table
+     * @param address      the address of the first bit
+     * @param count        the number of bits
+     * @param values       the values of the bits, bit 0 being the bit at {@code address}
+     */
+    void store(RegisterType registerType, int address, int count, BigInteger values) {
+        getBits(registerType).store(address, count, values);
+    }
+
+    /**
+     * Stores the values generated for several ranges of a register table at once, except into the registers written
+     * by a master, see {@link RegisterTable#store(int[], short[][])}.
+     *
+     * @param registerType the table
+     * @param addresses    the addresses of the first registers of the ranges, in ascending order
+     * @param values       the values of the registers of each range
+     */
+    public void store(RegisterType registerType, int[] addresses, short[][] values) {
+        getRegisters(registerType).store(addresses, values);
+    }
+
+    /**
+     * Stores the values generated for several bits of a bit table at once, except into the coils written by a master,
+     * see {@link BitTable#store(int[], boolean[])}.
+     *
+     * @param registerType the table
+     * @param addresses    the addresses of the bits, in ascending order
+     * @param values       the values of the bits
+     */
+    public void store(RegisterType registerType, int[] addresses, boolean[] values) {
+        getBits(registerType).store(addresses, values);
+    }
+
+    private void written(RegisterType registerType, int address, int count) {
+        for (Listener listener : listeners) {
+            if (listener.registerType == registerType
+                    && address < listener.address + listener.count && listener.address < address + count) {
+                listener.listener.onWrite(this, registerType, address, count);
+            }
+        }
+    }
+
+    private record Listener(RegisterType registerType, int address, int count, WriteListener listener) {
+    }
+}
@@ -0,0 +1,337 @@
+package com.eaton.telemetry.modbus;
+
+import javax.annotation.Nullable;
+import java.util.Arrays;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Table of the 65,536 16-bit registers of a unit, holding or input ones, stored in a single {@code short[]}.
+ * <br>
+ * A range of registers is read with a single array copy, whatever its length. Ranges are written atomically, and read
+ * without locking unless a write overlaps them, see {@link StripedLock}: writers of distinct ranges don't contend.
+ * <br>
+ * Responses are encoded straight from the table into their buffer by {@link #read(int, int, ByteBuf)}, without any
+ * intermediate array.
+ * <br>
+ * A table of a {@link RegisterBank} may track the writes of the masters: the registers written by the write methods
+ * are marked under the locks of their stripes, and the values generated by the sensors, stored by
+ * {@link #store(int, short[])}, are only stored into the registers not marked, so that a write of a master is never
+ * overwritten by a value generated before it.
+ */
+public class RegisterTable {
+
+    /**
+     * Number of addressable entries of a Modbus table.
+     */
+    public static final int SIZE = 1 << 16;
+
+    private final short[] registers = new short[SIZE];
+
+    private final StripedLock lock = new StripedLock();
+
+    private final StripedLock.Encoder encoder = this::encode;
+
+    /**
+     * The registers written by the masters, a word per stripe guarded by its lock, {@code null} if not tracked.
+     */
+    @Nullable
+    private final long[] written;
+
+    public RegisterTable() {
+        this(false);
+    }
+
+    /**
+     * Creates a table.
+     *
+     * @param tracked whether the registers written by the masters are tracked
+     */
+    RegisterTable(boolean tracked) {
+        this.written = tracked ? new long[SIZE / Long.SIZE] : null;
+    }
+
+    /**
+     * Returns the value of a register.
+     *
+     * @param address the address of the register
+     * @return the value of the register
+     */
+    public short get(int address) {
+        checkRange(address, 1);
+        return lock.read(address, 1, () -> registers[address]);
+    }
+
+    /**
+     * Returns the values of a range of registers.
+     *
+     * @param address the address of the first register
+     * @param count   the number of registers
+     * @return a copy of the values of the registers
+     */
+    public short[] read(int address, int count) {
+        checkRange(address, count);
+        return lock.read(address, count, () -> Arrays.copyOfRange(registers, address, address + count));
+    }
+
+    /**
+     * Writes the values of a range of registers into a buffer, big-endian as in Modbus frames, without allocating.
+     *
+     * @param address the address of the first register
+     * @param count   the number of registers
+     * @param out     the buffer the {@code 2 * count} bytes are written to
+     */
+    public void read(int address, int count, ByteBuf out) {
+        checkRange(address, count);
+        out.ensureWritable(count * 2);
+        lock.read(address, count, out, encoder);
+    }
+
+    /**
+     * Sets the value of a register.
+     *
+     * @param address the address of the register
+     * @param value   the value of the register
+     */
+    public void set(int address, short value) {
+        checkRange(address, 1);
+        lock.write(address, 1, () -> {
+            registers[address] = value;
+            mark(written, address, 1);
+            return null;
+        });
+    }
+
+    /**
+     * Sets the values of a range of registers atomically.
+     *
+     * @param address the address of the first register
+     * @param values  the values of the registers
+     */
+    public void write(int address, short[] values) {
+        checkRange(address, values.length);
+        lock.write(address, values.length, () -> {
+            System.arraycopy(values, 0, registers, address, values.length);
+            mark(written, address, values.length);
+            return null;
+        });
+    }
+
+    /**
+     * Modifies a register atomically, as the Mask Write Register function: the bits set in the AND mask are kept, the
+     * other ones are taken from the OR mask.
+     *
+     * @param address the address of the register
+     * @param andMask the AND mask
+     * @param orMask  the OR mask
+     * @return the new value of the register
+     */
+    public short mask(int address, short andMask, short orMask) {
+        checkRange(address, 1);
+        return lock.write(address, 1, () -> {
+            mark(written, address, 1);
+            return registers[address] = (short) ((registers[address] & andMask) | (orMask & ~andMask));
+        });
+    }
+
+    /**
+     * Writes a range of registers then reads another one, atomically, as the Read/Write Multiple Registers function.
+     *
+     * @param writeAddress the address of the first written register
+     * @param values       the values of the written registers
+     * @param readAddress  the address of the first read register
+     * @param readCount    the number of read registers
+     * @return a copy of the values of the read registers
+     */
+    public short[] writeAndRead(int writeAddress, short[] values, int readAddress, int readCount) {
+        checkRange(writeAddress, values.length);
+        checkRange(readAddress, readCount);
+        int from = Math.min(writeAddress, readAddress);
+        int to = Math.max(writeAddress + values.length, readAddress + readCount);
+        return lock.write(from, to - from, () -> {
+            System.arraycopy(values, 0, registers, writeAddress, values.length);
+            mark(written, writeAddress, values.length);
+            return Arrays.copyOfRange(registers, readAddress, readAddress + readCount);
+        });
+    }
+
+    /**
+     * Writes a range of registers then writes the values of another one into a buffer, atomically, as the Read/Write
+     * Multiple Registers function.
+     *
+     * @param writeAddress the address of the first written register
+     * @param values       the buffer holding the big-endian values of the written registers, read from its reader index
+     * @param writeCount   the number of written registers
+     * @param readAddress  the address of the first read register
+     * @param readCount    the number of read registers
+     * @param out          the buffer the {@code 2 * readCount} bytes are written to
+     */
+    public void writeAndRead(int writeAddress, ByteBuf values, int writeCount, int readAddress, int readCount, ByteBuf out) {
+        checkRange(writeAddress, writeCount);
+        checkRange(readAddress, readCount);
+        checkReadable(values, writeCount * 2);
+        out.ensureWritable(readCount * 2);
+        int from = Math.min(writeAddress, readAddress);
+        int to = Math.max(writeAddress + writeCount, readAddress + readCount);
+        lock.write(from, to - from, () -> {
+            decode(writeAddress, writeCount, values);
+            mark(written, writeAddress, writeCount);
+            encode(readAddress, readCount, out);
+            return null;
+        });
+    }
+
+    /**
+     * Sets the values of a range of registers atomically from a buffer.
+     *
+     * @param address the address of the first register
+     * @param count   the number of registers
+     * @param values  the buffer holding the big-endian values of the registers, read from its reader index
+     */
+    public void write(int address, int count, ByteBuf values) {
+        checkRange(address, count);
+        checkReadable(values, count * 2);
+        lock.write(address, count, () -> {
+            decode(address, count, values);
+            mark(written, address, count);
+            return null;
+        });
+    }
+
+    /**
+     * Stores the values generated by a sensor into a range of registers atomically, except into the registers written
+     * by a master.
+     *
+     * @param address the address of the first register
+     * @param values  the values of the registers
+     */
+    void store(int address, short[] values) {
+        checkRange(address, values.length);
+        lock.write(address, values.length, () -> {
+            copyUnmarked(values, address);
+            return null;
+        });
+    }
+
+    /**
+     * Stores the values generated for several ranges of registers atomically, except into the registers written by a
+     * master: a read overlapping them sees either all of them stored or none, e.g. for the values of a same tick. Only
+     * the stripes covered by the ranges are locked.
+     *
+     * @param addresses the addresses of the first registers of the ranges, in ascending order
+     * @param values    the values of the registers of each range
+     */
+    void store(int[] addresses, short[][] values) {
+        for (int i = 0; i < addresses.length; i++) {
+            checkRange(addresses[i], values[i].length);
+        }
+        lock.write(addresses, i -> values[i].length, () -> {
+            for (int i = 0; i < addresses.length; i++) {
+                copyUnmarked(values[i], addresses[i]);
+            }
+            return null;
+        });
+    }
+
+    private void copyUnmarked(short[] values, int address) {
+        if (!isMarked(written, address, values.length)) {
+            System.arraycopy(values, 0, registers, address, values.length);
+            return;
+        }
+        for (int i = 0; i < values.length; i++) {
+            if ((written[(address + i) >>> 6] & (1L << (address + i))) == 0) {
+                registers[address + i] = values[i];
+            }
+        }
+    }
+
+    private void encode(int address, int count, ByteBuf out) {
+        for (int i = 0; i < count; i++) {
+            out.writeShort(registers[address + i]);
+        }
+    }
+
+    private void decode(int address, int count, ByteBuf values) {
+        for (int i = 0; i < count; i++) {
+            registers[address + i] = values.readShort();
+        }
+    }
+
+    /**
+     * Marks a range of entries in a bit set of a table, if any.
+     *
+     * @param marks   the bit set, a bit per entry
+     * @param address the address of the first entry
+     * @param count   the number of entries
+     */
+    static void mark(@Nullable long[] marks, int address, int count) {
+        if (marks == null) {
+            return;
+        }
+        for (int i = address; i < address + count; ) {
+            int end = Math.min((i | 63) + 1, address + count);
+            marks[i >>> 6] |= (-1L >>> (64 - (end - i))) << i;
+            i = end;
+        }
+    }
+
+    /**
+     * Returns whether an entry of a range is marked in a bit set of a table.
+     *
+     * @param marks   the bit set, a bit per entry, {@code null} if no entry is marked
+     * @param address the address of the first entry
+     * @param count   the number of entries
+     * @return true if an entry is marked
+     */
+    static boolean isMarked(@Nullable long[] marks, int address, int count) {
+        if (marks == null) {
+            return false;
+        }
+        for (int i = address; i < address + count; ) {
+            int end = Math.min((i | 63) + 1, address + count);
+            if ((marks[i >>> 6] & ((-1L >>> (64 - (end - i))) << i)) != 0) {
+                return true;
+            }
+            i = end;
+        }
+        return false;
+    }
+
+    /**
+     * Checks that a range of entries lies inside a table.
+     *
+     * @param address the address of the first entry
+     * @param count   the number of entries
+     * @throws IndexOutOfBoundsException if the range doesn't lie inside the table
+     */
+    static void checkRange(int address, int count) {
+        if (!isInRange(address, count)) {
+            throw new IndexOutOfBoundsException("range " + address + "+" + count + " is out of the table");
+        }
+    }
+
+    /**
+     * Checks that a buffer holds enough bytes, before writing a range from it so that the range is not partially
+     * written.
+     *
+     * @param values the buffer
+     * @param length the number of bytes to read
+     * @throws IndexOutOfBoundsException if the buffer holds less bytes
+     */
+    static void checkReadable(ByteBuf values, int length) {
+        if (values.readableBytes() < length) {
+            throw new IndexOutOfBoundsException(length + " bytes expected, " + values.readableBytes() + " available");
+        }
+    }
+
+    /**
+     * Returns whether a range of entries lies inside a table.
+     *
+     * @param address the address of the first entry
+     * @param count   the number of entries
+     * @return true if the range lies inside the table
+     */
+    static boolean isInRange(int address, int count) {
+        return address >= 0 && count >= 0 && address + count <= SIZE;
+    }
+}
@@ -0,0 +1,235 @@
+package com.eaton.telemetry.modbus;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.locks.StampedLock;
+import java.util.function.IntUnaryOperator;
+import java.util.function.Supplier;
+
+import io.netty.buffer.ByteBuf;
+
+/**
+ * Locks of the stripes of a Modbus table, each stripe covering 64 consecutive addresses: operations on distinct ranges
+ * don't contend, and reads are optimistic, only taking the locks of their stripes if a write overlapped them.
+ * <br>
+ * The locks of a range are taken in ascending order, so that a range is written atomically without deadlock.
+ * <br>
+ * Each stripe covers the bits of a {@code long}, so that per-entry marks can be kept in a {@code long[]}, a word being
+ * guarded by the lock of its stripe.
+ */
+final class StripedLock {
+
+    private static final int STRIPE_BITS = 6;
+
+    /**
+     * Initial length of the array of the stamps of a thread, enough for the longest Modbus request. The array grows
+     * with the ranges of the thread, up to the number of stripes of a table.
+     */
+    private static final int CACHED_STAMPS = 64;
+
+    private static final ThreadLocal<long[]> STAMPS = ThreadLocal.withInitial(() -> new long[CACHED_STAMPS]);
+
+    private final StampedLock[] locks = new StampedLock[RegisterTable.SIZE >> STRIPE_BITS];
+
+    StripedLock() {
+        for (int i = 0; i < locks.length; i++) {
+            locks[i] = new StampedLock();
+        }
+    }
+
+    /**
+     * Reads a range, optimistically first. The reader may see inconsistent values when optimistic, it should not fail
+     * on them, its result being discarded then.
+     *
+     * @param address the address of the first entry of the range
+     * @param count   the number of entries of the range
+     * @param reader  the reader of the range
+     * @param <T>     the type of the result
+     * @return the result of the reader
+     */
+    <T> T read(int address, int count, Supplier<T> reader) {
+        int first = address >> STRIPE_BITS;
+        int stripes = last(address, count) - first + 1;
+        long[] stamps = stamps(stripes);
+        boolean optimistic = true;
+        for (int i = 0; i < stripes && optimistic; i++) {
+            stamps[i] = locks[first + i].tryOptimisticRead();
+            optimistic = stamps[i] != 0;
+        }
+        if (optimistic) {
+            T result = reader.get();
+            if (validate(first, stamps, stripes)) {
+                return result;
+            }
+        }
+        for (int i = 0; i < stripes; i++) {
+            stamps[i] = locks[first + i].readLock();
+        }
+        try {
+            return reader.get();
+        } finally {
+            for (int i = 0; i < stripes; i++) {
+                locks[first + i].unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Encodes a range into a buffer, optimistically first, without allocating unless the range is longer than any
+     * Modbus read. The encoder may write inconsistent values when optimistic, the writer index of the buffer being
+     * restored before encoding again under the locks of the range then.
+     *
+     * @param address the address of the first entry of the range
+     * @param count   the number of entries of the range
+     * @param out     the buffer the range is written to
+     * @param encoder the encoder of the range, which should not use this lock
+     */
+    void read(int address, int count, ByteBuf out, Encoder encoder) {
+        int first = address >> STRIPE_BITS;
+        int stripes = last(address, count) - first + 1;
+        long[] stamps = stamps(stripes);
+        boolean optimistic = true;
+        for (int i = 0; i < stripes && optimistic; i++) {
+            stamps[i] = locks[first + i].tryOptimisticRead();
+            optimistic = stamps[i] != 0;
+        }
+        int writerIndex = out.writerIndex();
+        if (optimistic) {
+            encoder.encode(address, count, out);
+            if (validate(first, stamps, stripes)) {
+                return;
+            }
+            out.writerIndex(writerIndex);
+        }
+        for (int i = 0; i < stripes; i++) {
+            stamps[i] = locks[first + i].readLock();
+        }
+        try {
+            encoder.encode(address, count, out);
+        } finally {
+            for (int i = 0; i < stripes; i++) {
+                locks[first + i].unlockRead(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes a range atomically.
+     *
+     * @param address the address of the first entry of the range
+     * @param count   the number of entries of the range
+     * @param writer  the writer of the range, which may also read it
+     * @param <T>     the type of the result
+     * @return the result of the writer
+     */
+    <T> T write(int address, int count, Supplier<T> writer) {
+        int first = address >> STRIPE_BITS;
+        int stripes = last(address, count) - first + 1;
+        long[] stamps = stamps(stripes);
+        for (int i = 0; i < stripes; i++) {
+            stamps[i] = locks[first + i].writeLock();
+        }
+        try {
+            return writer.get();
+        } finally {
+            for (int i = 0; i < stripes; i++) {
+                locks[first + i].unlockWrite(stamps[i]);
+            }
+        }
+    }
+
+    /**
+     * Writes several ranges atomically, only taking the locks of the stripes they cover, each once: a read overlapping
+     * them sees either all of them written or none.
+     *
+     * @param addresses the addresses of the first entries of the ranges, in ascending order
+     * @param counts    the number of entries of each range, by index of the range
+     * @param writer    the writer of the ranges
+     * @param <T>       the type of the result
+     * @return the result of the writer
+     * @throws IllegalArgumentException if the addresses are not in ascending order
+     */
+    <T> T write(int[] addresses, IntUnaryOperator counts, Supplier<T> writer) {
+        long[] stamps = stamps(lockAll(addresses, counts, null));
+        lockAll(addresses, counts, stamps);
+        try {
+            return writer.get();
+        } finally {
+            int stripes = 0;
+            int covered = -1;
+            for (int i = 0; i < addresses.length; i++) {
+                int last = last(addresses[i], counts.applyAsInt(i));
+                for (int stripe = Math.max(addresses[i] >> STRIPE_BITS, covered + 1); stripe <= last; stripe++) {
+                    locks[stripe].unlockWrite(stamps[stripes++]);
+                }
+                covered = Math.max(covered, last);
+            }
+        }
+    }
+
+    /**
+     * Write locks the stripes covered by several ranges in ascending order, or only counts them.
+     *
+     * @param stamps the array the stamps of the locks are written to, {@code null} to only count the stripes
+     * @return the number of stripes
+     */
+    private int lockAll(int[] addresses, IntUnaryOperator counts, @Nullable long[] stamps) {
+        int stripes = 0;
+        int covered = -1;
+        for (int i = 0; i < addresses.length; i++) {
+            if (i > 0 && addresses[i] < addresses[i - 1]) {
+                throw new IllegalArgumentException("ranges should be in ascending order of address");
+            }
+            int last = last(addresses[i], counts.applyAsInt(i));
+            for (int stripe = Math.max(addresses[i] >> STRIPE_BITS, covered + 1); stripe <= last; stripe++) {
+                if (stamps != null) {
+                    stamps[stripes] = locks[stripe].writeLock();
+                }
+                stripes++;
+            }
+            covered = Math.max(covered, last);
+        }
+        return stripes;
+    }
+
+    private boolean validate(int first, long[] stamps, int stripes) {
+        for (int i = 0; i < stripes; i++) {
+            if (!locks[first + i].validate(stamps[i])) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the array of the thread for the stamps of the stripes of a range, grown if too short: readers and writers
+     * of a table never use another lock, so that the array is used by one range at a time.
+     */
+    private static long[] stamps(int stripes) {
+        long[] stamps = STAMPS.get();
+        if (stamps.length < stripes) {
+            stamps = new long[stripes];
+            STAMPS.set(stamps);
+        }
+        return stamps;
+    }
+
+    private static int last(int address, int count) {
+        return (address + Math.max(count, 1) - 1) >> STRIPE_BITS;
+    }
+
+    /**
+     * Encoder of a range of a table into a buffer.
+     */
+    @FunctionalInterface
+    interface Encoder {
+
+        /**
+         * Writes the entries of a range.
+         *
+         * @param address the address of the first entry of the range
+         * @param count   the number of entries of the range
+         * @param out     the buffer the range is written to
+         */
+        void encode(int address, int count, ByteBuf out);
+    }
+}
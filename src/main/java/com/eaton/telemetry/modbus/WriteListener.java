@@ -0,0 +1,20 @@
+package com.eaton.telemetry.modbus;
+
+/**
+ * Listener of the writes of a Modbus master to a range of registers or coils, to simulate the behaviour of a device,
+ * e.g. a written setpoint driving the values of other registers. See
+ * {@link RegisterBank#addWriteListener(RegisterType, int, int, WriteListener)}.
+ */
+@FunctionalInterface
+public interface WriteListener {
+
+    /**
+     * Called once a write overlapping the listened range has been applied, on the thread of the request.
+     *
+     * @param bank         the registers of the unit
+     * @param registerType the written table, {@link RegisterType#H} or {@link RegisterType#C}
+     * @param address      the address of the first written entry
+     * @param count        the number of written entries
+     */
+    void onWrite(RegisterBank bank, RegisterType registerType, int address, int count);
+}
@@ -0,0 +1,325 @@
+package com.eaton.telemetry.snmp;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eaton.telemetry.LatencyHistogram;
+import org.snmp4j.PDU;
+
+/**
+ * Request metrics of a {@link SnmpAgent}: number of requests and latency of their processing by PDU type, and time
+ * spent generating the values of the sensors.
+ * <br>
+ * Recording only costs a few atomic increments, metrics are read through JMX, see {@link AgentMetricsMXBean}, or
+ * through a private subtree of the agent, see {@link SnmpAgent#enableMetrics(org.snmp4j.smi.OID)}.
+ */
+public class AgentMetrics implements AgentMetricsMXBean {
+
+    /**
+     * Index of the GET requests in the metrics by PDU type.
+     */
+    static final int GET = 0;
+
+    static final int GET_NEXT = 1;
+
+    static final int GET_BULK = 2;
+
+    static final int SET = 3;
+
+    static final int OTHER = 4;
+
+    /**
+     * Names of the PDU types, by index.
+     */
+    static final String[] PDU_TYPES = {"GET", "GETNEXT", "GETBULK", "SET", "OTHER"};
+
+    private final LongAdder[] requests = new LongAdder[PDU_TYPES.length];
+
+    private final LatencyHistogram[] requestLatencies = new LatencyHistogram[PDU_TYPES.length];
+
+    private final LatencyHistogram requestLatency = new LatencyHistogram();
+
+    private final LatencyHistogram generatorLatency = new LatencyHistogram();
+
+    /**
+     * Number of requests being processed, i.e. of busy worker threads.
+     */
+    private final AtomicInteger busyWorkers = new AtomicInteger();
+
+    private final AtomicInteger peakBusyWorkers = new AtomicInteger();
+
+    /**
+     * Time spent by the worker threads processing requests, not reset by {@link #reset()}.
+     */
+    private final LongAdder busyNanos = new LongAdder();
+
+    private final LongAdder delayedResponses = new LongAdder();
+
+    private final LongAdder droppedResponses = new LongAdder();
+
+    private final LongAdder duplicatedResponses = new LongAdder();
+
+    AgentMetrics() {
+        for (int i = 0; i < PDU_TYPES.length; i++) {
+            requests[i] = new LongAdder();
+            requestLatencies[i] = new LatencyHistogram();
+        }
+    }
+
+    /**
+     * Returns the index of a PDU type in the metrics by PDU type.
+     *
+     * @param pduType the type of the PDU, e.g. {@link PDU#GET}
+     * @return the index of the PDU type
+     */
+    static int indexOf(int pduType) {
+        return switch (pduType) {
+            case PDU.GET -> GET;
+            case PDU.GETNEXT -> GET_NEXT;
+            case PDU.GETBULK -> GET_BULK;
+            case PDU.SET -> SET;
+            default -> OTHER;
+        };
+    }
+
+    /**
+     * Records the start of the processing of a request by a worker thread.
+     */
+    void startRequest() {
+        peakBusyWorkers.accumulateAndGet(busyWorkers.incrementAndGet(), Math::max);
+    }
+
+    /**
+     * Records a processed request, see {@link #startRequest()}.
+     *
+     * @param pduType the type of the PDU of the request
+     * @param nanos   the processing time of the request
+     */
+    void recordRequest(int pduType, long nanos) {
+        busyWorkers.decrementAndGet();
+        busyNanos.add(nanos);
+        int index = indexOf(pduType);
+        requests[index].increment();
+        requestLatencies[index].record(nanos);
+        requestLatency.record(nanos);
+    }
+
+    /**
+     * Records the generation of a value by a sensor.
+     *
+     * @param nanos the generation time
+     */
+    void recordGenerator(long nanos) {
+        generatorLatency.record(nanos);
+    }
+
+    void recordDelayedResponse() {
+        delayedResponses.increment();
+    }
+
+    void recordDroppedResponse() {
+        droppedResponses.increment();
+    }
+
+    void recordDuplicatedResponse() {
+        duplicatedResponses.increment();
+    }
+
+    /**
+     * Returns the number of requests of the specified PDU type.
+     *
+     * @param pduType the type of the PDU, e.g. {@link PDU#GET}
+     * @return the number of requests
+     */
+    public long getRequests(int pduType) {
+        return requests[indexOf(pduType)].sum();
+    }
+
+    /**
+     * Returns the time spent by the worker threads processing requests since the start of the agent.
+     *
+     * @return the busy time of the workers in nanoseconds
+     */
+    long getBusyNanos() {
+        return busyNanos.sum();
+    }
+
+    /**
+     * Returns the number of requests of the PDU type at the specified index, e.g. {@link #OTHER}.
+     *
+     * @param index the index of the PDU type in {@link #PDU_TYPES}
+     * @return the number of requests
+     */
+    long getRequestsAt(int index) {
+        return requests[index].sum();
+    }
+
+    /**
+     * Returns the latencies of the requests of the PDU type at the specified index, e.g. {@link #OTHER}.
+     *
+     * @param index the index of the PDU type in {@link #PDU_TYPES}
+     * @return the histogram of the latencies
+     */
+    LatencyHistogram getRequestLatencyAt(int index) {
+        return requestLatencies[index];
+    }
+
+    /**
+     * Returns the latencies of the requests of the specified PDU type.
+     *
+     * @param pduType the type of the PDU, e.g. {@link PDU#GET}
+     * @return the histogram of the latencies
+     */
+    public LatencyHistogram getRequestLatency(int pduType) {
+        return requestLatencies[indexOf(pduType)];
+    }
+
+    /**
+     * Returns the latencies of all the requests.
+     *
+     * @return the histogram of the latencies
+     */
+    public LatencyHistogram getRequestLatency() {
+        return requestLatency;
+    }
+
+    /**
+     * Returns the time spent in the generators of the sensors, per generated value.
+     *
+     * @return the histogram of the generation times
+     */
+    public LatencyHistogram getGeneratorLatency() {
+        return generatorLatency;
+    }
+
+    @Override
+    public long getRequests() {
+        return requestLatency.getCount();
+    }
+
+    @Override
+    public long getGetRequests() {
+        return requests[GET].sum();
+    }
+
+    @Override
+    public long getGetNextRequests() {
+        return requests[GET_NEXT].sum();
+    }
+
+    @Override
+    public long getGetBulkRequests() {
+        return requests[GET_BULK].sum();
+    }
+
+    @Override
+    public long getSetRequests() {
+        return requests[SET].sum();
+    }
+
+    @Override
+    public long getOtherRequests() {
+        return requests[OTHER].sum();
+    }
+
+    @Override
+    public long getRequestLatencyP50Micros() {
+        return toMicros(requestLatency.getValueAtPercentile(50));
+    }
+
+    @Override
+    public long getRequestLatencyP99Micros() {
+        return toMicros(requestLatency.getValueAtPercentile(99));
+    }
+
+    @Override
+    public long getRequestLatencyP999Micros() {
+        return toMicros(requestLatency.getValueAtPercentile(99.9));
+    }
+
+    @Override
+    public long getRequestLatencyMaxMicros() {
+        return toMicros(requestLatency.getMax());
+    }
+
+    @Override
+    public Map<String, String> getRequestLatencyByPduType() {
+        Map<String, String> latencies = new LinkedHashMap<>();
+        for (int i = 0; i < PDU_TYPES.length; i++) {
+            latencies.put(PDU_TYPES[i], requestLatencies[i].toString());
+        }
+        return latencies;
+    }
+
+    @Override
+    public long getGeneratorCalls() {
+        return generatorLatency.getCount();
+    }
+
+    @Override
+    public long getGeneratorLatencyP50Nanos() {
+        return generatorLatency.getValueAtPercentile(50);
+    }
+
+    @Override
+    public long getGeneratorLatencyP99Nanos() {
+        return generatorLatency.getValueAtPercentile(99);
+    }
+
+    @Override
+    public long getGeneratorLatencyP999Nanos() {
+        return generatorLatency.getValueAtPercentile(99.9);
+    }
+
+    @Override
+    public double getGeneratorTimeRatio() {
+        long requestTime = requestLatency.getSum();
+        return requestTime == 0 ? 0 : Math.min(1, (double) generatorLatency.getSum() / requestTime);
+    }
+
+    @Override
+    public int getBusyWorkers() {
+        return busyWorkers.get();
+    }
+
+    @Override
+    public int getPeakBusyWorkers() {
+        return peakBusyWorkers.get();
+    }
+
+    @Override
+    public long getDelayedResponses() {
+        return delayedResponses.sum();
+    }
+
+    @Override
+    public long getDroppedResponses() {
+        return droppedResponses.sum();
+    }
+
+    @Override
+    public long getDuplicatedResponses() {
+        return duplicatedResponses.sum();
+    }
+
+    @Override
+    public void reset() {
+        peakBusyWorkers.set(busyWorkers.get());
+        for (int i = 0; i < PDU_TYPES.length; i++) {
+            requests[i].reset();
+            requestLatencies[i].reset();
+        }
+        requestLatency.reset();
+        generatorLatency.reset();
+        delayedResponses.reset();
+        droppedResponses.reset();
+        duplicatedResponses.reset();
+    }
+
+    private static long toMicros(long nanos) {
+        return TimeUnit.NANOSECONDS.toMicros(nanos);
+    }
+}
@@ -0,0 +1,82 @@
+package com.eaton.telemetry.snmp;
+
+import java.util.Map;
+
+/**
+ * JMX view of the {@link AgentMetrics} of a {@link SnmpAgent}.
+ */
+public interface AgentMetricsMXBean {
+
+    long getRequests();
+
+    long getGetRequests();
+
+    long getGetNextRequests();
+
+    long getGetBulkRequests();
+
+    long getSetRequests();
+
+    long getOtherRequests();
+
+    long getRequestLatencyP50Micros();
+
+    long getRequestLatencyP99Micros();
+
+    long getRequestLatencyP999Micros();
+
+    long getRequestLatencyMaxMicros();
+
+    /**
+     * Returns the latency percentiles of the requests, by PDU type.
+     *
+     * @return the summary of the latencies by PDU type, e.g. {@code GET -> count=12, mean=0.120ms, ...}
+     */
+    Map<String, String> getRequestLatencyByPduType();
+
+    long getGeneratorCalls();
+
+    long getGeneratorLatencyP50Nanos();
+
+    long getGeneratorLatencyP99Nanos();
+
+    long getGeneratorLatencyP999Nanos();
+
+    /**
+     * Returns the share of the time spent serving requests which was spent generating values.
+     *
+     * @return the ratio of the generator time over the request time, between 0 and 1
+     */
+    double getGeneratorTimeRatio();
+
+    /**
+     * Returns the number of worker threads processing a request.
+     *
+     * @return the number of busy workers
+     */
+    int getBusyWorkers();
+
+    /**
+     * Returns the highest number of worker threads processing a request at the same time since the last reset, a
+     * value equal to the size of the worker pool meaning that requests had to wait for a worker.
+     *
+     * @return the peak number of busy workers
+     */
+    int getPeakBusyWorkers();
+
+    /**
+     * Returns the number of responses sent after a delay, see {@link ResponseImpairment}.
+     *
+     * @return the number of delayed responses
+     */
+    long getDelayedResponses();
+
+    long getDroppedResponses();
+
+    long getDuplicatedResponses();
+
+    /**
+     * Forgets the recorded counters and latencies.
+     */
+    void reset();
+}
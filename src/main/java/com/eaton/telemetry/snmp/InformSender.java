@@ -0,0 +1,177 @@
+package com.eaton.telemetry.snmp;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eaton.telemetry.LatencyHistogram;
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.CommunityTarget;
+import org.snmp4j.PDU;
+import org.snmp4j.Snmp;
+import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.event.ResponseListener;
+import org.snmp4j.mp.SnmpConstants;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+
+/**
+ * Sends the notifications of a {@link SnmpTrapAgent} as INFORMs, asynchronously.
+ * <br>
+ * An INFORM is sent without waiting for its acknowledgement: the acknowledgement, or the lack of it once all the
+ * retries have timed out, is handled by a {@link ResponseListener}, retries being scheduled by the timer of the
+ * {@link Snmp} session. No thread is blocked by an outstanding INFORM, the number of outstanding INFORMs is only
+ * bounded by a window: while the window is full, new INFORMs are dropped and counted rather than waited for, so that a
+ * receiver which stops answering doesn't hold the sender threads shared with other agents, see {@link TrapRuntime}.
+ * <br>
+ * Instances are created by {@link SnmpTrapAgent#enableInforms(int, Duration, int)}.
+ */
+@Slf4j
+public class InformSender {
+
+    private final Snmp snmpSession;
+
+    /**
+     * The maximum number of outstanding INFORMs.
+     *
+     * @return the size of the window of outstanding INFORMs
+     */
+    @Getter private final int maxInFlight;
+
+    private final Semaphore window;
+
+    private final long timeoutMillis;
+
+    private final int retries;
+
+    /**
+     * The latencies between the first sending of the INFORMs and their acknowledgement, retries included.
+     *
+     * @return the histogram of the acknowledgement latencies
+     */
+    @Getter private final LatencyHistogram latency = new LatencyHistogram();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong acknowledged = new AtomicLong();
+
+    private final AtomicLong timedOut = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final ResponseListener listener = new ResponseListener() {
+        @Override
+        public <A extends Address> void onResponse(ResponseEvent<A> event) {
+            // stops the retries of the request, the listener would be called again otherwise
+            snmpSession.cancel(event.getRequest(), this);
+            Inform inform = (Inform) event.getUserObject();
+            if (inform.completed.compareAndSet(false, true)) {
+                complete(inform, event);
+            }
+        }
+    };
+
+    InformSender(Snmp snmpSession, int maxInFlight, Duration timeout, int retries) {
+        Preconditions.checkArgument(maxInFlight > 0, "the window of INFORMs should be positive");
+        Preconditions.checkArgument(retries >= 0, "retries should not be negative");
+        this.snmpSession = snmpSession;
+        this.maxInFlight = maxInFlight;
+        this.window = new Semaphore(maxInFlight);
+        this.timeoutMillis = timeout.toMillis();
+        this.retries = retries;
+    }
+
+    /**
+     * Sends a notification as an INFORM, unless the window is full.
+     *
+     * @param pdu         the notification, it is copied so that it can be sent to other destinations concurrently
+     * @param destination the address of the receiver
+     * @param community   the community of the INFORM
+     * @param onFailure   called if the INFORM is not acknowledged
+     * @return {@code false} if the INFORM was dropped because the window is full
+     * @throws IOException if the INFORM could not be sent
+     */
+    boolean send(PDU pdu, Address destination, OctetString community, Runnable onFailure) throws IOException {
+        if (!window.tryAcquire()) {
+            dropped.incrementAndGet();
+            return false;
+        }
+        PDU inform = (PDU) pdu.clone();
+        inform.setType(PDU.INFORM);
+        CommunityTarget<Address> target = new CommunityTarget<>(destination, community);
+        target.setVersion(SnmpConstants.version2c);
+        target.setTimeout(timeoutMillis);
+        target.setRetries(retries);
+        try {
+            snmpSession.send(inform, target, new Inform(System.nanoTime(), onFailure), listener);
+            sent.incrementAndGet();
+        } catch (IOException | RuntimeException e) {
+            window.release();
+            failed.incrementAndGet();
+            throw e;
+        }
+        return true;
+    }
+
+    /**
+     * Returns the current statistics of the INFORMs.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(maxInFlight - window.availablePermits(), sent.get(), acknowledged.get(), timedOut.get(),
+                failed.get(), dropped.get());
+    }
+
+    private void complete(Inform inform, ResponseEvent<?> event) {
+        window.release();
+        if (event.getResponse() != null) {
+            acknowledged.incrementAndGet();
+            latency.record(System.nanoTime() - inform.sentNanos);
+        } else {
+            if (event.getError() != null) {
+                failed.incrementAndGet();
+                log.debug("could not send INFORM to {}", event.getPeerAddress(), event.getError());
+            } else {
+                timedOut.incrementAndGet();
+            }
+            inform.onFailure.run();
+        }
+    }
+
+    /**
+     * Statistics of the INFORMs of a {@link SnmpTrapAgent}.
+     *
+     * @param inFlight     the number of INFORMs waiting for their acknowledgement
+     * @param sent         the number of sent INFORMs
+     * @param acknowledged the number of acknowledged INFORMs
+     * @param timedOut     the number of INFORMs not acknowledged after all their retries
+     * @param failed       the number of INFORMs which could not be sent
+     * @param dropped      the number of INFORMs not sent because the window was full
+     */
+    public record Statistics(int inFlight, long sent, long acknowledged, long timedOut, long failed, long dropped) {
+    }
+
+    /**
+     * The user object of an outstanding INFORM.
+     */
+    private static final class Inform {
+
+        private final long sentNanos;
+
+        private final Runnable onFailure;
+
+        private final AtomicBoolean completed = new AtomicBoolean();
+
+        private Inform(long sentNanos, Runnable onFailure) {
+            this.sentNanos = sentNanos;
+            this.onFailure = onFailure;
+        }
+    }
+}
@@ -0,0 +1,348 @@
+package com.eaton.telemetry.snmp;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.regex.Matcher;
+
+import com.google.common.base.Preconditions;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Memory-mapped walk whose values are decoded on demand.
+ * <br>
+ * Only the {@link OID} index and the position of each binding in the file are kept on heap. A {@link Variable} is
+ * parsed from the mapped file the first time it is requested and then kept in a bounded LRU cache, so the heap used
+ * by an agent serving a large walk depends on the OIDs actually polled rather than on the size of the walk.
+ * <br>
+ * Use {@link #getSensors()} to feed an {@link SnmpAgent} with the content of the walk:
+ * <pre>
+ * {@code
+ *     LazyWalk walk = Walks.mapWalk(new File("device.walk"), 10_000);
+ *     agent.setBindings(walk.getSensors());
+ * }
+ * </pre>
+ */
+@Slf4j
+public class LazyWalk {
+
+    /**
+     * The walk file mapped by this instance.
+     *
+     * @return the walk file
+     */
+    @Getter private final File file;
+
+    /**
+     * The content of the walk file.
+     */
+    private final MappedByteBuffer content;
+
+    /**
+     * The sorted OIDs of the walk.
+     */
+    private final OID[] oids;
+
+    /**
+     * The offset in {@link #content} of the binding at the same index in {@link #oids}.
+     */
+    private final int[] offsets;
+
+    /**
+     * The length in bytes of the binding at the same index in {@link #oids}, continuation lines included.
+     */
+    private final int[] lengths;
+
+    /**
+     * The decoded variables, indexed by their position in {@link #oids}, in access order.
+     */
+    private final Map<Integer, Variable> cache;
+
+    /**
+     * The maximum number of decoded variables kept in memory.
+     *
+     * @return the size of the cache
+     */
+    @Getter private final int cacheSize;
+
+    private final AtomicLong hits = new AtomicLong();
+
+    private final AtomicLong misses = new AtomicLong();
+
+    private final AtomicLong evictions = new AtomicLong();
+
+    /**
+     * Maps the specified walk file and indexes its {@link OID}s.
+     *
+     * @param file      the walk file
+     * @param cacheSize the maximum number of decoded variables kept in memory
+     * @throws IOException if the file could not be read
+     */
+    LazyWalk(File file, int cacheSize) throws IOException {
+        Preconditions.checkArgument(cacheSize > 0, "cache size should be positive");
+        this.file = file;
+        this.cacheSize = cacheSize;
+        try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            if (channel.size() > Integer.MAX_VALUE) {
+                throw new IOException("walk file " + file.getAbsolutePath() + " is too large to be mapped");
+            }
+            this.content = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        }
+        if (content.limit() >= 2 && content.get(0) == (byte) 0x1f && content.get(1) == (byte) 0x8b) {
+            throw new IOException("walk file " + file.getAbsolutePath() + " is compressed and cannot be mapped, use Walks.readWalk(File)");
+        }
+
+        List<Entry> entries = index();
+        // several lines may define the same OID, the last one wins as with Walks.readWalk(File)
+        entries.sort(Comparator.comparing((Entry entry) -> entry.oid).thenComparingInt(entry -> entry.offset));
+        List<Entry> unique = new ArrayList<>(entries.size());
+        for (Entry entry : entries) {
+            if (!unique.isEmpty() && unique.get(unique.size() - 1).oid.equals(entry.oid)) {
+                unique.set(unique.size() - 1, entry);
+            } else {
+                unique.add(entry);
+            }
+        }
+        this.oids = new OID[unique.size()];
+        this.offsets = new int[unique.size()];
+        this.lengths = new int[unique.size()];
+        for (int i = 0; i < unique.size(); i++) {
+            Entry entry = unique.get(i);
+            oids[i] = entry.oid;
+            offsets[i] = entry.offset;
+            lengths[i] = entry.length;
+        }
+        this.cache = Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Integer, Variable> eldest) {
+                if (size() > LazyWalk.this.cacheSize) {
+                    evictions.incrementAndGet();
+                    return true;
+                }
+                return false;
+            }
+        });
+        log.debug("Walk {} indexed with {} variable bindings", file, oids.length);
+    }
+
+    /**
+     * Scans the mapped file once to locate each binding, lines that don't start a binding are considered as
+     * continuation lines of the previous one.
+     *
+     * @return the bindings in file order
+     */
+    private List<Entry> index() {
+        List<Entry> entries = new ArrayList<>();
+        Entry last = null;
+        int limit = content.limit();
+        int start = 0;
+        while (start < limit) {
+            int end = start;
+            while (end < limit && content.get(end) != '\n') {
+                end++;
+            }
+            String line = decode(start, end - start);
+            Matcher matcher = Walks.VARIABLE_BINDING_PATTERN.matcher(line);
+            if (matcher.matches()) {
+                last = new Entry(new OID(matcher.group(1).replace("iso", ".1")), start, end - start);
+                entries.add(last);
+            } else if (last != null) {
+                last.length = end - last.offset;
+            }
+            start = end + 1;
+        }
+        return entries;
+    }
+
+    private String decode(int offset, int length) {
+        byte[] bytes = new byte[length];
+        content.get(offset, bytes, 0, length);
+        int size = length;
+        if (size > 0 && bytes[size - 1] == '\r') {
+            size--;
+        }
+        return new String(bytes, 0, size, Walks.DEFAULT_CHARSET);
+    }
+
+    /**
+     * Returns the number of bindings of this walk.
+     *
+     * @return the number of bindings
+     */
+    public int size() {
+        return oids.length;
+    }
+
+    /**
+     * Returns the {@link OID} at the specified index, OIDs are sorted.
+     *
+     * @param index the index of the binding
+     * @return the OID of the binding
+     */
+    public OID getOid(int index) {
+        return oids[index];
+    }
+
+    /**
+     * Returns the index of the specified {@link OID}.
+     *
+     * @param oid the OID to look for
+     * @return the index of the OID, or a negative value if the walk doesn't contain it
+     */
+    public int indexOf(OID oid) {
+        return Arrays.binarySearch(oids, oid);
+    }
+
+    /**
+     * Returns the variable at the specified index, decoding it from the mapped file if it is not cached.
+     *
+     * @param index the index of the binding
+     * @return the variable of the binding or {@code null} if it could not be parsed
+     */
+    public Variable getVariable(int index) {
+        Variable variable = cache.get(index);
+        if (variable != null) {
+            hits.incrementAndGet();
+            return variable;
+        }
+        misses.incrementAndGet();
+        variable = load(index);
+        if (variable != null) {
+            cache.put(index, variable);
+        }
+        return variable;
+    }
+
+    /**
+     * Parses the binding at the specified index with the same rules as {@link Walks#readWalk(File)}.
+     *
+     * @param index the index of the binding
+     * @return the parsed variable or {@code null} if the binding could not be parsed
+     */
+    private Variable load(int index) {
+        try (BufferedReader reader = new BufferedReader(new StringReader(decode(offsets[index], lengths[index])))) {
+            return Walks.readVariableBindings(file.getAbsolutePath(), reader).get(oids[index]);
+        } catch (IOException e) {
+            log.warn("could not decode OID {} of walk file {}", oids[index], file.getAbsolutePath(), e);
+            return null;
+        }
+    }
+
+    /**
+     * Returns the sensors serving the bindings of this walk, values are decoded when a sensor is first queried.
+     *
+     * @return the sensors of this walk
+     */
+    public Set<SnmpSensor<Variable>> getSensors() {
+        Set<SnmpSensor<Variable>> sensors = new LinkedHashSet<>(oids.length * 4 / 3 + 1);
+        for (int i = 0; i < oids.length; i++) {
+            sensors.add(new LazySensor(this, i));
+        }
+        return sensors;
+    }
+
+    /**
+     * Returns the number of variables served from the cache.
+     *
+     * @return the cache hits
+     */
+    public long getCacheHits() {
+        return hits.get();
+    }
+
+    /**
+     * Returns the number of variables decoded from the mapped file.
+     *
+     * @return the cache misses
+     */
+    public long getCacheMisses() {
+        return misses.get();
+    }
+
+    /**
+     * Returns the number of variables removed from the cache to respect {@link #cacheSize}.
+     *
+     * @return the cache evictions
+     */
+    public long getCacheEvictions() {
+        return evictions.get();
+    }
+
+    /**
+     * Position of a binding in the mapped file, only used while indexing.
+     */
+    private static final class Entry {
+
+        private final OID oid;
+
+        private final int offset;
+
+        private int length;
+
+        private Entry(OID oid, int offset, int length) {
+            this.oid = oid;
+            this.offset = offset;
+            this.length = length;
+        }
+    }
+
+    /**
+     * Returns the walk a sensor reads its variable from.
+     *
+     * @param sensor the sensor
+     * @return the walk, {@code null} if the sensor doesn't come from a {@link LazyWalk}
+     */
+    static LazyWalk getWalk(SnmpSensor<?> sensor) {
+        return sensor instanceof LazySensor lazySensor ? lazySensor.walk : null;
+    }
+
+    /**
+     * Returns the variable a sensor is bound to, without generating a value. The variable of a sensor read from a
+     * {@link LazyWalk} is decoded from the mapped file without going through the cache, so that reading every sensor,
+     * e.g. to export them, neither evicts the variables being served nor counts as cache misses.
+     *
+     * @param sensor the sensor
+     * @return the variable of the sensor, {@code null} if it has none or it could not be decoded
+     */
+    static Variable peekVariable(SnmpSensor<Variable> sensor) {
+        return sensor instanceof LazySensor lazySensor ? lazySensor.walk.load(lazySensor.index) : sensor.getVariable();
+    }
+
+    /**
+     * {@link SnmpSensor} whose variable is read from a {@link LazyWalk}, nothing but its index is kept by the sensor.
+     */
+    private static final class LazySensor extends SnmpSensor<Variable> {
+
+        private final LazyWalk walk;
+
+        private final int index;
+
+        private LazySensor(LazyWalk walk, int index) {
+            super(walk.getOid(index), null, tick -> walk.getVariable(index));
+            this.walk = walk;
+            this.index = index;
+        }
+
+        @Override
+        public Variable getVariable() {
+            return walk.getVariable(index);
+        }
+    }
+}
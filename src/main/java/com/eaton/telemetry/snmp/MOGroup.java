@@ -1,8 +1,12 @@
 package com.eaton.telemetry.snmp;
 
+import javax.annotation.Nullable;
 import java.util.Iterator;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.locks.Lock;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
 
 import lombok.extern.slf4j.Slf4j;
 import org.snmp4j.agent.DefaultMOScope;
@@ -32,6 +36,18 @@ public class MOGroup implements GenericManagedObject {
      */
     private final MOScope scope;
 
+    /**
+     * Guards {@link #variableBindings}: requests are served under the read lock while changes of the bindings, see
+     * {@link SnmpAgent#updateBindings(java.util.Map, java.util.Collection)}, are applied under the write lock.
+     */
+    private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+    /**
+     * The metrics recording the generation time of the values, {@code null} if not recorded.
+     */
+    @Nullable
+    private volatile AgentMetrics metrics;
+
     /**
      * Constructs a new instance of this class.
      * <br>
@@ -49,6 +65,20 @@ public class MOGroup implements GenericManagedObject {
         this.variableBindings.put(oid, variable);
     }
 
+    /**
+     * Constructs a group serving a single {@code OID}, its scope not covering the subtree of the {@code OID}, e.g.
+     * because other groups are registered in this subtree.
+     *
+     * @param oid      the {@code OID} of the variable binding
+     * @param variable the variable of the variable binding
+     */
+    MOGroup(OID oid, SnmpSensor<Variable> variable) {
+        this.root = oid;
+        this.scope = new DefaultMOScope(oid, true, oid, true);
+        this.variableBindings = new TreeMap<>();
+        this.variableBindings.put(oid, variable);
+    }
+
     /**
      * Constructs a new instance of this class.
      *
@@ -68,28 +98,36 @@ public class MOGroup implements GenericManagedObject {
 
     @Override
     public OID find(MOScope range) {
-        SortedMap<OID, SnmpSensor<Variable>> tail = variableBindings.tailMap(range.getLowerBound());
-        OID first = tail.firstKey();
-        if (range.getLowerBound().equals(first) && !range.isLowerIncluded()) {
-            if (tail.size() > 1) {
-                Iterator<OID> it = tail.keySet().iterator();
-                it.next();
-                return it.next();
+        lock.readLock().lock();
+        try {
+            SortedMap<OID, SnmpSensor<Variable>> tail = variableBindings.tailMap(range.getLowerBound());
+            if (tail.isEmpty()) {
+                return null;
             }
-        } else {
-            return first;
+            OID first = tail.firstKey();
+            if (range.getLowerBound().equals(first) && !range.isLowerIncluded()) {
+                if (tail.size() > 1) {
+                    Iterator<OID> it = tail.keySet().iterator();
+                    it.next();
+                    return it.next();
+                }
+            } else {
+                return first;
+            }
+            return null;
+        } finally {
+            lock.readLock().unlock();
         }
-        return null;
     }
 
     @Override
     public void get(SubRequest request) {
         OID oid = request.getVariableBinding().getOid();
-        SnmpSensor<Variable> variable = variableBindings.get(oid);
+        SnmpSensor<Variable> variable = getSensor(oid);
         if (variable == null) {
             request.getVariableBinding().setVariable(Null.noSuchInstance);
         } else {
-            Variable newValue = variable.nextValue();
+            Variable newValue = generate(variable);
             if (newValue != null) {
                 request.getVariableBinding().setVariable(newValue);
             } else {
@@ -102,26 +140,36 @@ public class MOGroup implements GenericManagedObject {
     @Override
     public boolean next(SubRequest request) {
         MOScope scope = request.getQuery().getScope();
-        SortedMap<OID, SnmpSensor<Variable>> tail = variableBindings.tailMap(scope.getLowerBound());
-        OID first = tail.firstKey();
-        if (scope.getLowerBound().equals(first) && !scope.isLowerIncluded()) {
-            if (tail.size() > 1) {
-                Iterator<OID> it = tail.keySet().iterator();
-                it.next();
-                first = it.next();
-            } else {
+        OID first;
+        SnmpSensor<Variable> variable;
+        lock.readLock().lock();
+        try {
+            SortedMap<OID, SnmpSensor<Variable>> tail = variableBindings.tailMap(scope.getLowerBound());
+            if (tail.isEmpty()) {
                 return false;
             }
+            first = tail.firstKey();
+            if (scope.getLowerBound().equals(first) && !scope.isLowerIncluded()) {
+                if (tail.size() > 1) {
+                    Iterator<OID> it = tail.keySet().iterator();
+                    it.next();
+                    first = it.next();
+                } else {
+                    return false;
+                }
+            }
+            variable = variableBindings.get(first);
+        } finally {
+            lock.readLock().unlock();
         }
         if (first != null) {
-            SnmpSensor<Variable> variable = variableBindings.get(first);
             // TODO remove try / catch if no more errors occur
             // TODO add configuration check with types though (e.g. UInt32 == UInt32 Modifier?)
             try {
                 if (variable == null) {
                     request.getVariableBinding().setVariable(Null.noSuchInstance);
                 } else {
-                    Variable newValue = variable.nextValue();
+                    Variable newValue = generate(variable);
                     if (newValue != null) {
                         request.getVariableBinding().setVariable(newValue);
                     } else {
@@ -148,7 +196,7 @@ public class MOGroup implements GenericManagedObject {
     @Override
     public void prepare(SubRequest request) {
         OID oid = request.getVariableBinding().getOid();
-        request.setUndoValue(variableBindings.get(oid));
+        request.setUndoValue(getSensor(oid));
         request.getStatus().setPhaseComplete(true);
     }
 
@@ -163,8 +211,11 @@ public class MOGroup implements GenericManagedObject {
     public void commit(SubRequest request) {
         Variable newValue = request.getVariableBinding().getVariable();
         OID oid = request.getVariableBinding().getOid();
-        if (variableBindings.get(oid) != null && variableBindings.get(oid).getVariable().getSyntax() == newValue.getSyntax()) {
-            variableBindings.get(oid).setValue(newValue);
+        SnmpSensor<Variable> sensor = getSensor(oid);
+        // the variable of a lazily loaded sensor is null if its line could not be decoded
+        Variable variable = sensor != null ? sensor.getVariable() : null;
+        if (variable != null && variable.getSyntax() == newValue.getSyntax()) {
+            sensor.setValue(newValue);
         } else {
             request.getStatus().setErrorStatus(SnmpConstants.SNMP_ERROR_INCONSISTENT_VALUE);
         }
@@ -180,9 +231,9 @@ public class MOGroup implements GenericManagedObject {
     @Override
     public void undo(SubRequest request) {
         if (request.getUndoValue() instanceof Variable) {
-            variableBindings.get(request.getVariableBinding().getOid()).setValue((Variable) request.getUndoValue());
+            getSensor(request.getVariableBinding().getOid()).setValue((Variable) request.getUndoValue());
         } else {
-            variableBindings.remove(request.getVariableBinding().getOid());
+            remove(request.getVariableBinding().getOid());
         }
         request.getStatus().setPhaseComplete(true);
     }
@@ -192,6 +243,104 @@ public class MOGroup implements GenericManagedObject {
         // do nothing here
     }
 
+    /**
+     * Generates the next value of a sensor, recording the generation time if metrics are set.
+     *
+     * @param sensor the sensor
+     * @return the value, {@code null} if the sensor has no value
+     */
+    private Variable generate(SnmpSensor<Variable> sensor) {
+        AgentMetrics groupMetrics = metrics;
+        if (groupMetrics == null) {
+            return sensor.nextValue();
+        }
+        long start = System.nanoTime();
+        try {
+            return sensor.nextValue();
+        } finally {
+            groupMetrics.recordGenerator(System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Sets the metrics recording the generation time of the values of this group.
+     *
+     * @param metrics the metrics of the agent
+     */
+    void setMetrics(AgentMetrics metrics) {
+        this.metrics = metrics;
+    }
+
+    /**
+     * Returns the sensor bound to the specified {@code OID}.
+     *
+     * @param oid the {@code OID} of the sensor
+     * @return the sensor or {@code null} if this group doesn't hold such {@code OID}
+     */
+    SnmpSensor<Variable> getSensor(OID oid) {
+        lock.readLock().lock();
+        try {
+            return variableBindings.get(oid);
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Binds a sensor to the specified {@code OID}, replacing the previous one if any.
+     *
+     * @param oid    the {@code OID} of the sensor, should be covered by the {@link #scope} of this group
+     * @param sensor the sensor
+     */
+    void put(OID oid, SnmpSensor<Variable> sensor) {
+        lock.writeLock().lock();
+        try {
+            variableBindings.put(oid, sensor);
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Removes the sensor bound to the specified {@code OID}.
+     *
+     * @param oid the {@code OID} to remove
+     * @return {@code true} if this group is empty after removal
+     */
+    boolean remove(OID oid) {
+        lock.writeLock().lock();
+        try {
+            variableBindings.remove(oid);
+            return variableBindings.isEmpty();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * Returns whether this group has no sensor left, e.g. after removals.
+     *
+     * @return {@code true} if this group is empty
+     */
+    boolean isEmpty() {
+        lock.readLock().lock();
+        try {
+            return variableBindings.isEmpty();
+        } finally {
+            lock.readLock().unlock();
+        }
+    }
+
+    /**
+     * Returns the lock to hold to apply several changes to this group without requests seeing partial results, see
+     * {@link #put(OID, SnmpSensor)} and {@link #remove(OID)}, the lock being reentrant.
+     *
+     * @return the write lock of this group
+     */
+    Lock getUpdateLock() {
+        return lock.writeLock();
+    }
+
     @Override
     public String toString() {
         return "MOGroup[" +
@@ -0,0 +1,83 @@
+package com.eaton.telemetry.snmp;
+
+import java.util.concurrent.ThreadLocalRandom;
+
+import lombok.Getter;
+import lombok.Setter;
+import org.snmp4j.CommandResponderEvent;
+import org.snmp4j.PDU;
+import org.snmp4j.agent.CommandProcessor;
+import org.snmp4j.agent.RequestHandler;
+import org.snmp4j.agent.mo.snmp.CoexistenceInfo;
+import org.snmp4j.agent.request.SnmpRequest;
+import org.snmp4j.smi.Address;
+import org.snmp4j.smi.OctetString;
+
+/**
+ * {@link CommandProcessor} recording the processing time of each request, from its dispatch to a worker thread to the
+ * sending of its response, into {@link AgentMetrics}.
+ * <br>
+ * Responses may also be impaired, see {@link ResponseImpairment}: delayed responses are handed over to the shared
+ * {@link TimingWheel} which sends them when due, the worker thread being released at once.
+ */
+class MeteredCommandProcessor extends CommandProcessor {
+
+    /**
+     * The metrics of the requests processed by this processor.
+     *
+     * @return the metrics
+     */
+    @Getter private final AgentMetrics metrics = new AgentMetrics();
+
+    /**
+     * The impairment of the responses.
+     *
+     * @param impairment the impairment of the responses
+     * @return the impairment of the responses
+     */
+    @Getter @Setter private volatile ResponseImpairment impairment = ResponseImpairment.NONE;
+
+    MeteredCommandProcessor(OctetString contextEngineID) {
+        super(contextEngineID);
+    }
+
+    @Override
+    protected <A extends Address> void processRequest(CommandResponderEvent<A> command,
+                                                      CoexistenceInfo cinfo,
+                                                      RequestHandler<SnmpRequest> handler) {
+        metrics.startRequest();
+        long start = System.nanoTime();
+        try {
+            super.processRequest(command, cinfo, handler);
+        } finally {
+            metrics.recordRequest(command.getPDU().getType(), System.nanoTime() - start);
+        }
+    }
+
+    @Override
+    protected <A extends Address> void sendResponse(CommandResponderEvent<A> requestEvent, PDU response) {
+        ResponseImpairment responseImpairment = impairment;
+        if (responseImpairment == ResponseImpairment.NONE) {
+            super.sendResponse(requestEvent, response);
+            return;
+        }
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        if (random.nextDouble() < responseImpairment.lossRate()) {
+            metrics.recordDroppedResponse();
+            return;
+        }
+        int copies = random.nextDouble() < responseImpairment.duplicationRate() ? 2 : 1;
+        if (copies > 1) {
+            metrics.recordDuplicatedResponse();
+        }
+        for (int i = 0; i < copies; i++) {
+            long delay = responseImpairment.delay().nextDelayNanos(random);
+            if (delay <= 0) {
+                super.sendResponse(requestEvent, response);
+            } else {
+                metrics.recordDelayedResponse();
+                TimingWheel.shared().schedule(() -> super.sendResponse(requestEvent, response), delay);
+            }
+        }
+    }
+}
@@ -0,0 +1,81 @@
+package com.eaton.telemetry.snmp;
+
+import java.time.Duration;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Target rate, in traps per second, of a {@link TrapLoad} over time.
+ * <br>
+ * Profiles can be combined, e.g. a spike on top of a ramp:
+ * <pre>
+ * {@code
+ *     RateProfile profile = RateProfile.ramp(1_000, 100_000, Duration.ofMinutes(1))
+ *             .plus(RateProfile.spike(50_000, Duration.ofSeconds(30), Duration.ofSeconds(2)));
+ * }
+ * </pre>
+ */
+@FunctionalInterface
+public interface RateProfile {
+
+    /**
+     * Returns a constant rate.
+     *
+     * @param rate the rate in traps per second
+     * @return the profile
+     */
+    static RateProfile constant(double rate) {
+        Preconditions.checkArgument(rate >= 0, "rate should not be negative");
+        return elapsedNanos -> rate;
+    }
+
+    /**
+     * Returns a rate growing linearly from {@code from} to {@code to} during {@code duration}, then staying at {@code to}.
+     *
+     * @param from     the initial rate in traps per second
+     * @param to       the final rate in traps per second
+     * @param duration the duration of the ramp
+     * @return the profile
+     */
+    static RateProfile ramp(double from, double to, Duration duration) {
+        Preconditions.checkArgument(from >= 0 && to >= 0, "rates should not be negative");
+        long durationNanos = duration.toNanos();
+        return elapsedNanos -> elapsedNanos >= durationNanos
+                ? to
+                : from + (to - from) * elapsedNanos / durationNanos;
+    }
+
+    /**
+     * Returns a rate of {@code rate} during {@code length} from {@code start}, and of 0 otherwise. This profile is
+     * meant to be added to another one, see {@link #plus(RateProfile)}.
+     *
+     * @param rate   the rate of the spike in traps per second
+     * @param start  the start of the spike since the start of the load
+     * @param length the length of the spike
+     * @return the profile
+     */
+    static RateProfile spike(double rate, Duration start, Duration length) {
+        Preconditions.checkArgument(rate >= 0, "rate should not be negative");
+        long startNanos = start.toNanos();
+        long endNanos = startNanos + length.toNanos();
+        return elapsedNanos -> elapsedNanos >= startNanos && elapsedNanos < endNanos ? rate : 0;
+    }
+
+    /**
+     * Returns the target rate at the given time.
+     *
+     * @param elapsedNanos the time elapsed since the start of the load, in nanoseconds
+     * @return the rate in traps per second
+     */
+    double getRate(long elapsedNanos);
+
+    /**
+     * Returns a profile whose rate is the sum of the rates of this profile and of the given one.
+     *
+     * @param other the profile to add
+     * @return the sum of both profiles
+     */
+    default RateProfile plus(RateProfile other) {
+        return elapsedNanos -> getRate(elapsedNanos) + other.getRate(elapsedNanos);
+    }
+}
@@ -0,0 +1,78 @@
+package com.eaton.telemetry.snmp;
+
+import java.time.Duration;
+import java.util.Random;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Distribution of the delays of the responses of a {@link SnmpAgent}, see {@link ResponseImpairment}.
+ * <pre>
+ * {@code
+ *     ResponseDelay delay = ResponseDelay.logNormal(Duration.ofMillis(20), Duration.ofMillis(400));
+ * }
+ * </pre>
+ */
+@FunctionalInterface
+public interface ResponseDelay {
+
+    /**
+     * Returns a delay of 0: responses are sent as soon as they are ready.
+     *
+     * @return the delay
+     */
+    static ResponseDelay none() {
+        return random -> 0;
+    }
+
+    /**
+     * Returns a constant delay.
+     *
+     * @param delay the delay
+     * @return the delay
+     */
+    static ResponseDelay fixed(Duration delay) {
+        long nanos = delay.toNanos();
+        Preconditions.checkArgument(nanos >= 0, "delay should not be negative");
+        return random -> nanos;
+    }
+
+    /**
+     * Returns a delay uniformly distributed between {@code min} and {@code max}.
+     *
+     * @param min the minimum delay
+     * @param max the maximum delay
+     * @return the delay
+     */
+    static ResponseDelay uniform(Duration min, Duration max) {
+        long minNanos = min.toNanos();
+        long maxNanos = max.toNanos();
+        Preconditions.checkArgument(minNanos >= 0 && maxNanos >= minNanos, "delays should be positive and ordered");
+        return random -> minNanos + (long) (random.nextDouble() * (maxNanos - minNanos));
+    }
+
+    /**
+     * Returns a log-normally distributed delay, as the latencies of real devices: most responses come close to the
+     * median while a long tail of them come much later.
+     *
+     * @param median the median delay
+     * @param p99    the delay 99% of the responses don't exceed
+     * @return the delay
+     */
+    static ResponseDelay logNormal(Duration median, Duration p99) {
+        Preconditions.checkArgument(!median.isNegative() && !median.isZero() && p99.compareTo(median) >= 0,
+                "median should be positive and not greater than p99");
+        double mu = Math.log(median.toNanos());
+        // 2.326 is the 99th percentile of the standard normal distribution
+        double sigma = Math.log((double) p99.toNanos() / median.toNanos()) / 2.326;
+        return random -> (long) Math.exp(mu + sigma * random.nextGaussian());
+    }
+
+    /**
+     * Returns the delay of a response.
+     *
+     * @param random the source of randomness
+     * @return the delay in nanoseconds
+     */
+    long nextDelayNanos(Random random);
+}
@@ -0,0 +1,25 @@
+package com.eaton.telemetry.snmp;
+
+import com.google.common.base.Preconditions;
+
+/**
+ * Impairment of the responses of a {@link SnmpAgent}, to emulate real devices and networks: responses are delayed,
+ * lost or duplicated. See {@link SnmpAgent#setResponseImpairment(ResponseImpairment)}.
+ *
+ * @param delay           the distribution of the delays of the responses
+ * @param lossRate        the probability, between 0 and 1, that a response is not sent
+ * @param duplicationRate the probability, between 0 and 1, that a response is sent twice
+ */
+public record ResponseImpairment(ResponseDelay delay, double lossRate, double duplicationRate) {
+
+    /**
+     * No impairment: responses are sent once, as soon as they are ready.
+     */
+    public static final ResponseImpairment NONE = new ResponseImpairment(ResponseDelay.none(), 0, 0);
+
+    public ResponseImpairment {
+        Preconditions.checkNotNull(delay, "delay may not be null");
+        Preconditions.checkArgument(lossRate >= 0 && lossRate <= 1, "loss rate should be between 0 and 1");
+        Preconditions.checkArgument(duplicationRate >= 0 && duplicationRate <= 1, "duplication rate should be between 0 and 1");
+    }
+}
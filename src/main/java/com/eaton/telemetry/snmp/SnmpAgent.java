@@ -1,20 +1,33 @@
 package com.eaton.telemetry.snmp;
 
+import javax.annotation.Nullable;
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
+import java.lang.management.ManagementFactory;
 import java.lang.reflect.Field;
 import java.net.BindException;
 import java.util.ArrayList;
+import java.util.Collection;
 import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
 import java.util.Set;
 import java.util.SortedMap;
 import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentSkipListMap;
+import java.util.function.IntFunction;
 
 import lombok.extern.slf4j.Slf4j;
 import org.snmp4j.TransportMapping;
 import org.snmp4j.agent.BaseAgent;
-import org.snmp4j.agent.CommandProcessor;
 import org.snmp4j.agent.DefaultMOContextScope;
 import org.snmp4j.agent.DefaultMOQuery;
 import org.snmp4j.agent.DefaultMOServer;
@@ -36,12 +49,14 @@ import org.snmp4j.security.SecurityLevel;
 import org.snmp4j.security.SecurityModel;
 import org.snmp4j.security.USM;
 import org.snmp4j.smi.Address;
+import org.snmp4j.smi.AssignableFromString;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Gauge32;
 import org.snmp4j.smi.GenericAddress;
 import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.Variable;
-import org.snmp4j.smi.VariableBinding;
 import org.snmp4j.transport.TransportMappings;
 import org.snmp4j.util.ThreadPool;
 
@@ -54,13 +69,18 @@ import org.snmp4j.util.ThreadPool;
 @Slf4j
 public class SnmpAgent extends BaseAgent {
 
+    /**
+     * Number of threads processing the requests of an agent.
+     */
+    static final int WORKER_THREADS = 3;
+
     /**
      * Returns the root OIDs of the bindings.
      *
      * @param bindings the variable bindings
      * @return the roots of the specified variable bindings
      */
-    private static List<OID> getRoots(SortedMap<OID, Variable> bindings) {
+    private static List<OID> getRoots(SortedMap<OID, ?> bindings) {
         List<OID> potentialRoots = new ArrayList<>(bindings.size());
 
         OID last = null;
@@ -103,11 +123,33 @@ public class SnmpAgent extends BaseAgent {
     private final Address destination;
 
     /**
-     * The list of managed object groups.
+     * The registered managed object groups, by context and by root {@link OID}: the scopes of the groups of a context
+     * don't overlap, so the group covering an OID is the one with the greatest root not after it.
+     */
+    private final Map<OctetString, NavigableMap<OID, MOGroup>> groups = new HashMap<>();
+
+    /**
+     * The sensors of this agent, sorted by {@link OID}.
+     */
+    private final SortedMap<OID, SnmpSensor<Variable>> bindings = new ConcurrentSkipListMap<>();
+
+    /**
+     * The lazy walks the sensors of this agent are read from, with their number of sensors, updated along the bindings
+     * so that the walks are known without going through the bindings.
+     */
+    private final Map<LazyWalk, Integer> walks = new ConcurrentHashMap<>();
+
+    /**
+     * The request metrics of this agent.
      */
-    private final List<ManagedObject> groups = new ArrayList<>();
+    private final AgentMetrics metrics;
 
-    private Set<SnmpSensor<Variable>> bindings;
+    /**
+     * The root of the subtree serving the metrics of this agent, {@code null} unless {@link #enableMetrics(OID)} was
+     * called.
+     */
+    @Nullable
+    private volatile OID metricsRoot;
 
     /**
      * Initializes a new instance of an SNMP agent.
@@ -127,15 +169,18 @@ public class SnmpAgent extends BaseAgent {
     public SnmpAgent(AgentConfiguration configuration, Set<? extends SnmpSensor<Variable>> sensors) {
         super(new File(configuration.getPersistenceDirectory(), configuration.getName() + ".BC.cfg"),
                 new File(configuration.getPersistenceDirectory(), configuration.getName() + ".Config.cfg"),
-                new CommandProcessor(new OctetString(MPv3.createLocalEngineID())));
-        this.agent.setWorkerPool(ThreadPool.create("RequestPool", 3));
+                new MeteredCommandProcessor(new OctetString(MPv3.createLocalEngineID())));
+        this.agent.setWorkerPool(ThreadPool.create("RequestPool", WORKER_THREADS));
+        this.metrics = ((MeteredCommandProcessor) this.agent).getMetrics();
         this.configuration = configuration;
-        this.bindings = (Set<SnmpSensor<Variable>>) sensors;
+        setBindings(sensors);
         this.destination = GenericAddress.parse("udp:" + configuration.getAddress().getHostName() + "/" + configuration.getAddress().getPort());
     }
 
     public void setBindings(Set<? extends SnmpSensor<Variable>> bindings) {
-        this.bindings = (Set<SnmpSensor<Variable>>) bindings;
+        this.bindings.clear();
+        this.walks.clear();
+        bindings.forEach(sensor -> bind(sensor.getIdentifier(), sensor));
     }
 
     public SnmpAgent addBinding(String oid, Variable variable) {
@@ -144,10 +189,285 @@ public class SnmpAgent extends BaseAgent {
 
     public SnmpAgent addBinding(OID oid, Variable variable) {
         SnmpSensor<Variable> sensor = new SnmpSensor<>(oid, variable, tick -> variable);
-        this.bindings.add(sensor);
+        bind(oid, sensor);
+        return this;
+    }
+
+    private void bind(OID oid, SnmpSensor<Variable> sensor) {
+        track(bindings.put(oid, sensor), sensor);
+    }
+
+    private void unbind(OID oid) {
+        track(bindings.remove(oid), null);
+    }
+
+    /**
+     * Updates the lazy walks of this agent after a binding changed.
+     *
+     * @param previous the sensor previously bound, if any
+     * @param sensor   the sensor now bound, if any
+     */
+    private void track(@Nullable SnmpSensor<?> previous, @Nullable SnmpSensor<?> sensor) {
+        LazyWalk added = sensor != null ? LazyWalk.getWalk(sensor) : null;
+        LazyWalk removed = previous != null ? LazyWalk.getWalk(previous) : null;
+        if (added != null) {
+            walks.merge(added, 1, Integer::sum);
+        }
+        if (removed != null) {
+            walks.computeIfPresent(removed, (walk, count) -> count > 1 ? count - 1 : null);
+        }
+    }
+
+    /**
+     * Returns the lazy walks the sensors of this agent are read from.
+     *
+     * @return the unmodifiable view of the walks
+     */
+    Set<LazyWalk> getLazyWalks() {
+        return Collections.unmodifiableSet(walks.keySet());
+    }
+
+    /**
+     * Returns the sensors of this agent, sorted by {@link OID}.
+     * <br>
+     * The returned map is a live view which may be iterated while bindings are updated.
+     *
+     * @return the unmodifiable view of the sensors of this agent
+     */
+    public SortedMap<OID, SnmpSensor<Variable>> getBindings() {
+        return Collections.unmodifiableSortedMap(bindings);
+    }
+
+    /**
+     * Returns the sensor bound to the specified {@link OID}.
+     *
+     * @param oid the OID of the sensor
+     * @return the sensor or {@code null} if this agent doesn't serve such OID
+     */
+    public SnmpSensor<Variable> getBinding(OID oid) {
+        return bindings.get(oid);
+    }
+
+    /**
+     * Overrides the value of every sensor bound under the specified {@link OID}, or bound to it, by a constant value
+     * of the same syntax. Sensors whose syntax can't be parsed from a string are left untouched.
+     *
+     * @param prefix the OID under which values are overridden
+     * @param value  the new value, as a string, e.g. {@code 42} or {@code up}
+     * @return the number of overridden sensors
+     * @throws IllegalArgumentException if the value can't be parsed with the syntax of a sensor
+     */
+    public int overrideValues(OID prefix, String value) {
+        Map<OID, SnmpSensor<Variable>> overrides = new HashMap<>();
+        for (SnmpSensor<Variable> sensor : bindings.subMap(prefix, prefix.nextPeer()).values()) {
+            if (sensor.getVariable() instanceof AssignableFromString) {
+                Variable variable = (Variable) sensor.getVariable().clone();
+                ((AssignableFromString) variable).setValue(value);
+                overrides.put(sensor.getIdentifier(), new SnmpSensor<>(sensor.getIdentifier(), variable, tick -> variable));
+            }
+        }
+        updateBindings(overrides, List.of());
+        log.info("{} values under {} overridden with \"{}\" for agent \"{}\"", overrides.size(), prefix, value, getName());
+        return overrides.size();
+    }
+
+    /**
+     * Impairs the responses of this agent: they are delayed, lost or duplicated as specified, to emulate real devices.
+     * Delayed responses don't hold the worker threads of the agent, they are sent by a timing wheel shared by the
+     * agents of the JVM. The impairment may be changed while the agent runs.
+     *
+     * @param impairment the impairment, {@link ResponseImpairment#NONE} to send responses as soon as they are ready
+     * @return this to eventually chain configuration
+     */
+    public SnmpAgent setResponseImpairment(ResponseImpairment impairment) {
+        ((MeteredCommandProcessor) this.agent).setImpairment(impairment);
+        return this;
+    }
+
+    /**
+     * Returns the impairment of the responses of this agent.
+     *
+     * @return the impairment, {@link ResponseImpairment#NONE} if the responses are not impaired
+     */
+    public ResponseImpairment getResponseImpairment() {
+        return ((MeteredCommandProcessor) this.agent).getImpairment();
+    }
+
+    /**
+     * Returns the request metrics of this agent, also registered as an MXBean named
+     * {@code com.eaton.telemetry:type=SnmpAgentMetrics,name=<agent name>} while the agent runs.
+     *
+     * @return the metrics
+     */
+    public AgentMetrics getMetrics() {
+        return metrics;
+    }
+
+    /**
+     * Serves the request metrics of this agent under the specified private subtree, so that they can be read with
+     * SNMP tools:
+     * <ul>
+     *     <li>{@code root.1.<type>.1}: the number of requests, as a {@code Counter64}, {@code <type>} being 1 for GET,
+     *     2 for GETNEXT, 3 for GETBULK, 4 for SET and 5 for the other PDU types;</li>
+     *     <li>{@code root.1.<type>.2} to {@code root.1.<type>.5}: the p50, p99, p99.9 and maximum latencies of the
+     *     requests in microseconds, as {@code Gauge32};</li>
+     *     <li>{@code root.2.1}: the number of generated values, as a {@code Counter64};</li>
+     *     <li>{@code root.2.2} to {@code root.2.4}: the p50, p99 and p99.9 generation times in nanoseconds, as
+     *     {@code Gauge32}.</li>
+     * </ul>
+     *
+     * @param root the root of the subtree, which should not overlap the bindings of the agent
+     * @return this to eventually chain configuration
+     */
+    public SnmpAgent enableMetrics(OID root) {
+        Map<OID, SnmpSensor<Variable>> sensors = new HashMap<>();
+        // the indexes of the metrics by PDU type, the last one being AgentMetrics.OTHER
+        for (int i = 0; i < AgentMetrics.PDU_TYPES.length; i++) {
+            int index = i;
+            OID typeRoot = new OID(root).append(1).append(index + 1);
+            addMetric(sensors, new OID(typeRoot).append(1), tick -> new Counter64(metrics.getRequestsAt(index)));
+            addMetric(sensors, new OID(typeRoot).append(2), tick -> toGauge(metrics.getRequestLatencyAt(index).getValueAtPercentile(50) / 1000));
+            addMetric(sensors, new OID(typeRoot).append(3), tick -> toGauge(metrics.getRequestLatencyAt(index).getValueAtPercentile(99) / 1000));
+            addMetric(sensors, new OID(typeRoot).append(4), tick -> toGauge(metrics.getRequestLatencyAt(index).getValueAtPercentile(99.9) / 1000));
+            addMetric(sensors, new OID(typeRoot).append(5), tick -> toGauge(metrics.getRequestLatencyAt(index).getMax() / 1000));
+        }
+        OID generatorRoot = new OID(root).append(2);
+        addMetric(sensors, new OID(generatorRoot).append(1), tick -> new Counter64(metrics.getGeneratorCalls()));
+        addMetric(sensors, new OID(generatorRoot).append(2), tick -> toGauge(metrics.getGeneratorLatencyP50Nanos()));
+        addMetric(sensors, new OID(generatorRoot).append(3), tick -> toGauge(metrics.getGeneratorLatencyP99Nanos()));
+        addMetric(sensors, new OID(generatorRoot).append(4), tick -> toGauge(metrics.getGeneratorLatencyP999Nanos()));
+        updateBindings(sensors, List.of());
+        metricsRoot = root;
         return this;
     }
 
+    /**
+     * Returns the root of the subtree serving the metrics of this agent.
+     *
+     * @return the root, {@code null} if the metrics are not served
+     */
+    @Nullable
+    OID getMetricsRoot() {
+        return metricsRoot;
+    }
+
+    private static void addMetric(Map<OID, SnmpSensor<Variable>> sensors, OID oid, IntFunction<Variable> generator) {
+        sensors.put(oid, new SnmpSensor<>(oid, generator.apply(0), generator));
+    }
+
+    private static Gauge32 toGauge(long value) {
+        return new Gauge32(Math.min(value, 0xFFFFFFFFL));
+    }
+
+    /**
+     * Applies changes of bindings to this agent while it is running, without registering its managed objects again.
+     * <br>
+     * Each registered {@link MOGroup} covering a changed {@link OID} is updated in place, the groups being changed
+     * locked while the changes are applied so that requests see either the previous or the new bindings, and the other
+     * groups still serving requests. An added OID that no group covers gets a new group registered in every context of
+     * the agent, shared by the next added OIDs of its subtree, and a group left empty by removals is unregistered. The
+     * cost is thus proportional to the number of changes rather than to the number of bindings.
+     * <br>
+     * If the agent has not been started yet, only its bindings are changed, they will be registered by {@link #execute()}.
+     *
+     * @param upserts  the sensors to add or replace, by OID
+     * @param removals the OIDs to remove
+     */
+    public synchronized void updateBindings(Map<OID, ? extends SnmpSensor<Variable>> upserts, Collection<OID> removals) {
+        if (getAgentState() == STATE_CREATED) {
+            removals.forEach(this::unbind);
+            upserts.forEach(this::bind);
+            return;
+        }
+        // the OIDs are sorted so that an added OID is processed before the OIDs of its subtree
+        SortedMap<OID, SnmpSensor<Variable>> sortedUpserts = new TreeMap<>(upserts);
+        Map<MOGroup, List<OID>> groupRemovals = new LinkedHashMap<>();
+        Map<MOGroup, Map<OID, SnmpSensor<Variable>>> groupUpserts = new LinkedHashMap<>();
+        Map<MOGroup, OctetString> created = new LinkedHashMap<>();
+        for (OctetString context : getContexts()) {
+            NavigableMap<OID, MOGroup> registered = groups.getOrDefault(context, Collections.emptyNavigableMap());
+            NavigableMap<OID, MOGroup> createdInContext = new TreeMap<>();
+            for (OID oid : removals) {
+                MOGroup group = getCoveringGroup(registered, oid);
+                if (group != null) {
+                    groupRemovals.computeIfAbsent(group, key -> new ArrayList<>()).add(oid);
+                }
+            }
+            for (Map.Entry<OID, SnmpSensor<Variable>> upsert : sortedUpserts.entrySet()) {
+                OID oid = upsert.getKey();
+                MOGroup group = getCoveringGroup(registered, oid);
+                if (group != null) {
+                    groupUpserts.computeIfAbsent(group, key -> new LinkedHashMap<>()).put(oid, upsert.getValue());
+                    continue;
+                }
+                group = getCoveringGroup(createdInContext, oid);
+                if (group != null) {
+                    group.put(oid, upsert.getValue());
+                    continue;
+                }
+                // a group registered under the added OID restricts the new group to the OID itself
+                boolean subtreeFree = registered.subMap(oid, false, oid.nextPeer(), false).isEmpty();
+                group = subtreeFree ? new MOGroup(oid, oid, upsert.getValue()) : new MOGroup(oid, upsert.getValue());
+                createdInContext.put(oid, group);
+                created.put(group, context);
+            }
+        }
+
+        Set<MOGroup> changed = new LinkedHashSet<>(groupRemovals.keySet());
+        changed.addAll(groupUpserts.keySet());
+        List<MOGroup> emptied = new ArrayList<>();
+        changed.forEach(group -> group.getUpdateLock().lock());
+        try {
+            removals.forEach(this::unbind);
+            upserts.forEach(this::bind);
+            groupRemovals.forEach((group, oids) -> oids.forEach(group::remove));
+            groupUpserts.forEach((group, sensors) -> sensors.forEach(group::put));
+            for (MOGroup group : changed) {
+                if (group.isEmpty()) {
+                    emptied.add(group);
+                }
+            }
+        } finally {
+            changed.forEach(group -> group.getUpdateLock().unlock());
+        }
+        // registration is made out of the group locks as the server has its own locking
+        created.forEach(this::registerGroupAndContext);
+        emptied.forEach(this::unregisterGroup);
+        log.debug("applied {} upserts and {} removals to agent \"{}\", {} groups changed, {} groups created, {} groups removed",
+                upserts.size(), removals.size(), configuration.getName(), changed.size(), created.size(), emptied.size());
+    }
+
+    /**
+     * Returns the group covering the specified {@link OID}.
+     *
+     * @param contextGroups the groups of a context, by root
+     * @param oid           the OID
+     * @return the covering group or {@code null} if none covers the OID
+     */
+    @Nullable
+    private static MOGroup getCoveringGroup(NavigableMap<OID, MOGroup> contextGroups, OID oid) {
+        Map.Entry<OID, MOGroup> floor = contextGroups.floorEntry(oid);
+        return floor != null && floor.getValue().getScope().covers(oid) ? floor.getValue() : null;
+    }
+
+    /**
+     * Returns the contexts managed objects are registered in: one per vlan and the default one.
+     *
+     * @return the contexts of this agent
+     */
+    private List<OctetString> getContexts() {
+        List<OctetString> contexts = new ArrayList<>();
+        for (Long vlan : configuration.getDevice().getVlans()) {
+            contexts.add(new OctetString(String.valueOf(vlan)));
+        }
+        contexts.add(new OctetString(""));
+        return contexts;
+    }
+
+    AgentConfiguration getConfiguration() {
+        return configuration;
+    }
+
     /**
      * Returns the name of {@code this} agent.
      * <br>
@@ -178,6 +498,63 @@ public class SnmpAgent extends BaseAgent {
         this.finishInit();
         this.run();
         this.sendColdStartNotification();
+        registerMBean(metrics, getMetricsName());
+    }
+
+    /**
+     * Stops this agent, nothing is done if it is not running, e.g. already stopped.
+     */
+    @Override
+    public void stop() {
+        if (getAgentState() != STATE_CREATED && getAgentState() != STATE_STOPPED) {
+            super.stop();
+        }
+        unregisterMBean(getMetricsName());
+    }
+
+    private ObjectName getMetricsName() {
+        return getObjectName("SnmpAgentMetrics");
+    }
+
+    /**
+     * Returns the JMX name of an MBean of this agent.
+     *
+     * @param type the type of the MBean
+     * @return the name of the MBean
+     */
+    ObjectName getObjectName(String type) {
+        try {
+            return new ObjectName("com.eaton.telemetry:type=" + type + ",name=" + ObjectName.quote(getName()));
+        } catch (JMException e) {
+            throw new IllegalStateException("invalid JMX name for agent \"" + getName() + "\"", e);
+        }
+    }
+
+    /**
+     * Registers an MBean, replacing the MBean already registered with the same name, e.g. by an agent of the same name
+     * not stopped properly.
+     */
+    static void registerMBean(Object mbean, ObjectName name) {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+            mbeanServer.registerMBean(mbean, name);
+        } catch (JMException e) {
+            log.warn("could not register MBean {}", name, e);
+        }
+    }
+
+    static void unregisterMBean(ObjectName name) {
+        MBeanServer mbeanServer = ManagementFactory.getPlatformMBeanServer();
+        try {
+            if (mbeanServer.isRegistered(name)) {
+                mbeanServer.unregisterMBean(name);
+            }
+        } catch (JMException e) {
+            log.warn("could not unregister MBean {}", name, e);
+        }
     }
 
     @Override
@@ -204,30 +581,28 @@ public class SnmpAgent extends BaseAgent {
 
         log.trace("registering managed objects for agent \"{}\"", configuration.getName());
         for (Long vlan : vlans) {
-            SortedMap<OID, Variable> variableBindings = this.getVariableBindings();
+            SortedMap<OID, SnmpSensor<Variable>> variableBindings = this.getVariableBindings();
 
             OctetString context = new OctetString(String.valueOf(vlan));
 
             List<OID> roots = SnmpAgent.getRoots(variableBindings);
             for (OID root : roots) {
                 MOGroup group = createGroup(root, variableBindings);
-                Iterable<VariableBinding> subtree = generateSubtreeBindings(variableBindings, root);
+                SortedMap<OID, SnmpSensor<Variable>> subtree = generateSubtreeBindings(variableBindings, root);
                 DefaultMOContextScope scope = new DefaultMOContextScope(context, root, true, root.nextPeer(), false);
                 ManagedObject mo = server.lookup(new DefaultMOQuery(scope, false));
                 if (mo != null) {
-                    for (VariableBinding variableBinding : subtree) {
-                        group = new MOGroup(variableBinding.getOid(), variableBinding.getOid(), findSensor(variableBinding.getVariable()));
-                        scope = new DefaultMOContextScope(context, variableBinding.getOid(), true, variableBinding.getOid().nextPeer(), false);
+                    for (Map.Entry<OID, SnmpSensor<Variable>> binding : subtree.entrySet()) {
+                        group = new MOGroup(binding.getKey(), binding.getKey(), binding.getValue());
+                        scope = new DefaultMOContextScope(context, binding.getKey(), true, binding.getKey().nextPeer(), false);
                         mo = server.lookup(new DefaultMOQuery(scope, false));
                         if (mo != null) {
-                            log.warn("could not register single OID at {} because ManagedObject {} is already registered.", variableBinding.getOid(), mo);
+                            log.warn("could not register single OID at {} because ManagedObject {} is already registered.", binding.getKey(), mo);
                         } else {
-                            groups.add(group);
                             registerGroupAndContext(group, context);
                         }
                     }
                 } else {
-                    groups.add(group);
                     registerGroupAndContext(group, context);
                 }
             }
@@ -235,32 +610,15 @@ public class SnmpAgent extends BaseAgent {
         createAndRegisterDefaultContext();
     }
 
-    /**
-     * Look fo the sensor generating given variable data into the defined bindings.
-     * @param variable the variable to find the sensor for
-     * @return the found sensor, null if not found, which should not happen
-     */
-    private SnmpSensor<Variable> findSensor(Variable variable) {
-        return this.bindings.stream()
-                .filter(sensor -> System.identityHashCode(sensor.getVariable()) == System.identityHashCode(variable))
-                .findFirst().orElse(null);
-    }
-
-    private MOGroup createGroup(OID root, SortedMap<OID, Variable> variableBindings) {
-        SortedMap<OID, SnmpSensor<Variable>> subtree = new TreeMap<>();
-        variableBindings.entrySet().stream().filter(binding -> binding.getKey().size() >= root.size()).filter(
-                binding -> binding.getKey().leftMostCompare(root.size(), root) == 0).forEach(
-                        binding -> subtree.put(binding.getKey(), findSensor(binding.getValue()))
-        );
-
-        return new MOGroup(root, subtree);
+    private MOGroup createGroup(OID root, SortedMap<OID, SnmpSensor<Variable>> variableBindings) {
+        return new MOGroup(root, generateSubtreeBindings(variableBindings, root));
     }
 
     /**
      * Creates the {@link StaticMOGroup} with all information necessary to register it to the server.
      */
     private void createAndRegisterDefaultContext() {
-        SortedMap<OID, Variable> variableBindings = this.getVariableBindings();
+        SortedMap<OID, SnmpSensor<Variable>> variableBindings = this.getVariableBindings();
         List<OID> roots = SnmpAgent.getRoots(variableBindings);
         for (OID root : roots) {
             MOGroup group = createGroup(root, variableBindings);
@@ -269,18 +627,17 @@ public class SnmpAgent extends BaseAgent {
     }
 
     /**
-     * Creates a list of {@link VariableBinding} out of a mapping of {@link OID} and {@link Variable}.
+     * Extracts the sensors of the subtree starting at the given root.
+     * <br>
+     * The bindings being sorted, the subtree is a contiguous range of the map which is copied as is. A copy is required
+     * since {@link MOGroup} queries the map with OIDs outside of its subtree.
      *
-     * @param variableBindings mapping of {@link OID} and {@link Variable}.
+     * @param variableBindings mapping of {@link OID} and {@link SnmpSensor}.
      * @param root             root SNMP OID.
-     * @return list of {@link VariableBinding}.
+     * @return sorted map of the sensors under the root.
      */
-    private List<VariableBinding> generateSubtreeBindings(SortedMap<OID, Variable> variableBindings, OID root) {
-        return variableBindings.entrySet().stream()
-                .filter(binding -> binding.getKey().size() >= root.size())
-                .filter(binding -> binding.getKey().leftMostCompare(root.size(), root) == 0)
-                .map(binding -> new VariableBinding(binding.getKey(), binding.getValue()))
-                .toList();
+    private SortedMap<OID, SnmpSensor<Variable>> generateSubtreeBindings(SortedMap<OID, SnmpSensor<Variable>> variableBindings, OID root) {
+        return new TreeMap<>(variableBindings.subMap(root, root.nextPeer()));
     }
 
     /**
@@ -289,7 +646,6 @@ public class SnmpAgent extends BaseAgent {
      * @param group {@link ManagedObject} to register.
      */
     private void registerDefaultGroups(MOGroup group) {
-        groups.add(group);
         registerGroupAndContext(group, new OctetString(""));
     }
 
@@ -300,6 +656,7 @@ public class SnmpAgent extends BaseAgent {
      * @param context community context.
      */
     private void registerGroupAndContext(MOGroup group, OctetString context) {
+        group.setMetrics(metrics);
         try {
             if (context == null || context.toString().isEmpty()) {
                 MOContextScope contextScope = new DefaultMOContextScope(new OctetString(), group.getScope());
@@ -312,15 +669,35 @@ public class SnmpAgent extends BaseAgent {
                 contextScope = new DefaultMOContextScope(null, group.getScope());
                 other = server.lookup(new DefaultMOQuery(contextScope, false));
                 if (other != null) {
-                    registerHard(group);
-                    return;
+                    if (!registerHard(group)) {
+                        return;
+                    }
+                } else {
+                    this.server.register(group, new OctetString());
                 }
-                this.server.register(group, new OctetString());
             } else {
                 this.server.register(group, context);
             }
         } catch (DuplicateRegistrationException e) {
             log.error("duplicate registrations are not allowed", e);
+            return;
+        }
+        // only the registered groups are indexed, so that changes of bindings never go to a group no request sees
+        groups.computeIfAbsent(context == null ? new OctetString("") : context, key -> new TreeMap<>())
+                .put(group.getScope().getLowerBound(), group);
+    }
+
+    /**
+     * Unregisters a group from the server and from the index of the groups.
+     *
+     * @param group the registered group
+     */
+    private void unregisterGroup(MOGroup group) {
+        for (Map.Entry<OctetString, NavigableMap<OID, MOGroup>> contextGroups : groups.entrySet()) {
+            if (contextGroups.getValue().remove(group.getScope().getLowerBound(), group)) {
+                server.unregister(group, contextGroups.getKey());
+                return;
+            }
         }
     }
 
@@ -330,8 +707,9 @@ public class SnmpAgent extends BaseAgent {
      * If there is any possibility to avoid this, then replace!
      *
      * @param group {@link ManagedObject} to register.
+     * @return {@code true} if the group was registered
      */
-    private void registerHard(MOGroup group) {
+    private boolean registerHard(MOGroup group) {
         try {
             Field registry = server.getClass().getDeclaredField("registry");
             registry.setAccessible(true);
@@ -339,8 +717,10 @@ public class SnmpAgent extends BaseAgent {
             DefaultMOContextScope contextScope = new DefaultMOContextScope(new OctetString(""), group.getScope());
             reg.put(contextScope, group);
             registry.set(server, reg);
+            return true;
         } catch (NoSuchFieldException | IllegalAccessException e) {
             log.warn("could not set server registry", e);
+            return false;
         }
     }
 
@@ -359,25 +739,25 @@ public class SnmpAgent extends BaseAgent {
     }
 
     /**
+     * Sensors are indexed by their {@link OID} only, their {@link SnmpSensor#getVariable() variable} is not read
+     * during registration so that lazily loaded sensors (see {@link LazyWalk}) don't get decoded.
+     *
      * @return the variable bindings
      */
-    @SuppressWarnings("unchecked")
-    private SortedMap<OID, Variable> getVariableBindings() {
+    private SortedMap<OID, SnmpSensor<Variable>> getVariableBindings() {
         log.trace("get variable bindings for agent \"{}\"", configuration.getName());
-        SortedMap<OID, Variable> result = new TreeMap<>();
-        for (SnmpSensor<Variable> binding : bindings) {
-            log.trace("created modified variable for OID {}", binding.getIdentifier());
-            result.put(binding.getIdentifier(), binding.getVariable());
-        }
-        return result;
+        return new TreeMap<>(bindings);
     }
 
     @Override
     protected void unregisterManagedObjects() {
         log.trace("unregistered managed objects for agent \"{}\"", agent);
-        for (ManagedObject mo : groups) {
-            server.unregister(mo, null);
+        for (NavigableMap<OID, MOGroup> contextGroups : groups.values()) {
+            for (ManagedObject mo : contextGroups.values()) {
+                server.unregister(mo, null);
+            }
         }
+        groups.clear();
     }
 
     @Override
@@ -0,0 +1,69 @@
+package com.eaton.telemetry.snmp;
+
+/**
+ * JMX management of a {@link SnmpAgent} of a {@link SnmpApplication}, registered as
+ * {@code com.eaton.telemetry:type=SnmpAgent,name=<agent name>}. The request metrics of the agent are registered
+ * separately, see {@link AgentMetricsMXBean}.
+ */
+public interface SnmpAgentMXBean {
+
+    String getName();
+
+    /**
+     * Returns the state of the agent.
+     *
+     * @return one of {@code CREATED}, {@code INIT_STARTED}, {@code INIT_FINISHED}, {@code RUNNING} or {@code STOPPED}
+     */
+    String getState();
+
+    int getBindingCount();
+
+    long getRequests();
+
+    /**
+     * Returns the rate of the requests since the previous call, computed over at least one second.
+     *
+     * @return the number of requests per second
+     */
+    double getRequestRate();
+
+    int getWorkerThreads();
+
+    /**
+     * Returns the average ratio of busy worker threads since the previous call, computed over at least one second, 1
+     * meaning that the workers were busy all the time and that requests had to wait for a worker.
+     *
+     * @return the saturation of the worker pool, between 0 and 1
+     */
+    double getWorkerPoolSaturation();
+
+    /**
+     * Returns the number of cache hits of the lazily loaded walks of the agent, see {@link LazyWalk}.
+     *
+     * @return the number of hits, 0 if the agent has no lazy walk
+     */
+    long getCacheHits();
+
+    long getCacheMisses();
+
+    long getCacheEvictions();
+
+    /**
+     * Stops the agent, it keeps being listed by the application.
+     */
+    void stop();
+
+    /**
+     * Replaces the agent by a new one with the same configuration and bindings, and starts it.
+     */
+    void restart();
+
+    /**
+     * Overrides the value of every sensor under an OID, see {@link SnmpAgent#overrideValues(org.snmp4j.smi.OID, String)}.
+     *
+     * @param oidPrefix the OID under which values are overridden, e.g. {@code 1.3.6.1.2.1.2.2.1.8}
+     * @param value     the new value
+     * @return the number of overridden sensors
+     */
+    int overrideValues(String oidPrefix, String value);
+}
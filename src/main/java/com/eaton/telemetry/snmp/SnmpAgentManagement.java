@@ -0,0 +1,129 @@
+package com.eaton.telemetry.snmp;
+
+import org.snmp4j.agent.BaseAgent;
+import org.snmp4j.smi.OID;
+
+/**
+ * {@link SnmpAgentMXBean} of an agent of an application. The agent is looked up by name on each call, so that the
+ * MBean keeps managing the agent after a restart.
+ */
+class SnmpAgentManagement implements SnmpAgentMXBean {
+
+    private final SnmpApplication application;
+
+    private final String name;
+
+    private long lastRequests;
+
+    private long lastRateNanos = System.nanoTime();
+
+    private double requestRate;
+
+    private long lastBusyNanos;
+
+    private long lastSaturationNanos = System.nanoTime();
+
+    private double saturation;
+
+    SnmpAgentManagement(SnmpApplication application, String name) {
+        this.application = application;
+        this.name = name;
+    }
+
+    private SnmpAgent agent() {
+        SnmpAgent agent = application.getAgent(name);
+        if (agent == null) {
+            throw new IllegalStateException("agent \"" + name + "\" was removed");
+        }
+        return agent;
+    }
+
+    @Override
+    public String getName() {
+        return name;
+    }
+
+    @Override
+    public String getState() {
+        return switch (agent().getAgentState()) {
+            case BaseAgent.STATE_CREATED -> "CREATED";
+            case BaseAgent.STATE_INIT_STARTED -> "INIT_STARTED";
+            case BaseAgent.STATE_INIT_FINISHED -> "INIT_FINISHED";
+            case BaseAgent.STATE_RUNNING -> "RUNNING";
+            case BaseAgent.STATE_STOPPED -> "STOPPED";
+            default -> String.valueOf(agent().getAgentState());
+        };
+    }
+
+    @Override
+    public int getBindingCount() {
+        return agent().getBindings().size();
+    }
+
+    @Override
+    public long getRequests() {
+        return agent().getMetrics().getRequests();
+    }
+
+    @Override
+    public synchronized double getRequestRate() {
+        long now = System.nanoTime();
+        if (now - lastRateNanos >= 1_000_000_000L) {
+            long requests = getRequests();
+            // the metrics restart from 0 with a restarted agent
+            requestRate = Math.max(0, requests - lastRequests) * 1e9 / (now - lastRateNanos);
+            lastRequests = requests;
+            lastRateNanos = now;
+        }
+        return requestRate;
+    }
+
+    @Override
+    public int getWorkerThreads() {
+        return SnmpAgent.WORKER_THREADS;
+    }
+
+    @Override
+    public synchronized double getWorkerPoolSaturation() {
+        long now = System.nanoTime();
+        if (now - lastSaturationNanos >= 1_000_000_000L) {
+            long busyNanos = agent().getMetrics().getBusyNanos();
+            // the metrics restart from 0 with a restarted agent
+            double busy = Math.max(0, busyNanos - lastBusyNanos);
+            saturation = Math.min(1, busy / ((now - lastSaturationNanos) * (double) SnmpAgent.WORKER_THREADS));
+            lastBusyNanos = busyNanos;
+            lastSaturationNanos = now;
+        }
+        return saturation;
+    }
+
+    @Override
+    public long getCacheHits() {
+        return agent().getLazyWalks().stream().mapToLong(LazyWalk::getCacheHits).sum();
+    }
+
+    @Override
+    public long getCacheMisses() {
+        return agent().getLazyWalks().stream().mapToLong(LazyWalk::getCacheMisses).sum();
+    }
+
+    @Override
+    public long getCacheEvictions() {
+        return agent().getLazyWalks().stream().mapToLong(LazyWalk::getCacheEvictions).sum();
+    }
+
+    @Override
+    public void stop() {
+        application.stopAgent(name);
+    }
+
+    @Override
+    public void restart() {
+        application.restartAgent(name);
+    }
+
+    @Override
+    public int overrideValues(String oidPrefix, String value) {
+        return agent().overrideValues(new OID(oidPrefix), value);
+    }
+}
@@ -1,18 +1,27 @@
 package com.eaton.telemetry.snmp;
 
+import javax.management.JMException;
+import javax.management.ObjectName;
 import java.io.File;
 import java.io.IOException;
 import java.util.Arrays;
 import java.util.Collections;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.fasterxml.jackson.dataformat.yaml.YAMLFactory;
 import com.google.common.base.Preconditions;
-import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.snmp4j.agent.BaseAgent;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
 
 /**
  * This is the library interface for SnmpApplication.
@@ -36,7 +45,12 @@ import org.snmp4j.agent.BaseAgent;
  * The configuration {@code YAML} file defines a list of all agents that should be simulated by the {@code SnmpApplication}.
  */
 @Slf4j
-public class SnmpApplication {
+public class SnmpApplication implements SnmpApplicationMXBean {
+
+    /**
+     * Identifies the applications of the JVM in the names of their MBeans.
+     */
+    private static final AtomicInteger APPLICATION_IDS = new AtomicInteger();
 
     /**
      * Creates an {@code SnmpApplication} instance by the specified configuration in the {@code configurationFile} and starts all agents.
@@ -79,17 +93,36 @@ public class SnmpApplication {
      * @throws InitializationException thrown if any agent, as specified in the configuration, could not be started
      */
     public static SnmpApplication start(List<SnmpAgent> agents) {
-        SnmpApplication snmpApplication = new SnmpApplication(Collections.unmodifiableList(agents));
+        SnmpApplication snmpApplication = new SnmpApplication(agents);
         snmpApplication.start();
         return snmpApplication;
     }
 
     /**
-     * Returns the list of SNMP agents for {@code this} instance.
+     * Creates a {@code SnmpApplication} instance without agent, agents are expected to be added with {@link #addAgent(SnmpAgent)}.
      *
-     * @return the list of SNMP agents
+     * @return the {@code SnmpApplication} instance
+     */
+    static SnmpApplication create() {
+        SnmpApplication snmpApplication = new SnmpApplication(List.of());
+        SnmpAgent.registerMBean(snmpApplication, snmpApplication.objectName);
+        return snmpApplication;
+    }
+
+    /**
+     * The SNMP agents of {@code this} instance, agents may be added while the application is running.
      */
-    @Getter private final List<SnmpAgent> agents;
+    private final List<SnmpAgent> agents;
+
+    /**
+     * The SNMP agents of {@code this} instance by name, the first agent of a name being kept if names are duplicated.
+     */
+    private final Map<String, SnmpAgent> agentsByName = new ConcurrentHashMap<>();
+
+    /**
+     * The JMX name of {@code this} instance.
+     */
+    private final ObjectName objectName;
 
     /**
      * Constructs an instance by the specified list of agents.
@@ -97,11 +130,32 @@ public class SnmpApplication {
      * @param agents the agents for {@code this} instance
      */
     private SnmpApplication(List<SnmpAgent> agents) {
-        this.agents = agents;
+        this.agents = new CopyOnWriteArrayList<>(agents);
+        agents.forEach(agent -> agentsByName.putIfAbsent(agent.getName(), agent));
+        try {
+            this.objectName = new ObjectName("com.eaton.telemetry:type=SnmpApplication,id=" + APPLICATION_IDS.incrementAndGet());
+        } catch (JMException e) {
+            throw new IllegalStateException(e);
+        }
     }
 
+    /**
+     * Returns the list of SNMP agents for {@code this} instance.
+     *
+     * @return the unmodifiable list of SNMP agents
+     */
+    public List<SnmpAgent> getAgents() {
+        return Collections.unmodifiableList(agents);
+    }
+
+    /**
+     * Returns the agent of the specified name.
+     *
+     * @param name the name of the agent
+     * @return the agent or {@code null} if there is no agent of this name
+     */
     public SnmpAgent getAgent(String name) {
-        return agents.stream().filter(agent -> agent.getName().equals(name)).findFirst().orElse(null);
+        return agentsByName.get(name);
     }
 
     /**
@@ -112,17 +166,45 @@ public class SnmpApplication {
     private void start() {
         log.debug("starting to load agents");
         for (SnmpAgent agent : agents) {
-            try {
-                agent.execute();
-            } catch (IOException e) {
-                throw new InitializationException("failed to start agent \"" + agent.getName() + "\"", e);
-            }
+            execute(agent);
         }
         log.debug("all agents initialized");
         agents.forEach(this::checkStatus);
+        SnmpAgent.registerMBean(this, objectName);
+        agentsByName.values().forEach(this::registerMBean);
         log.info("all agents are running");
     }
 
+    /**
+     * Adds an agent to {@code this} running instance and starts it.
+     * <br>
+     * A call of this method is blocking until the agent is running.
+     *
+     * @param agent the agent to add
+     * @throws InitializationException thrown if the agent could not be started
+     */
+    public void addAgent(SnmpAgent agent) {
+        execute(agent);
+        checkStatus(agent);
+        agents.add(agent);
+        if (agentsByName.putIfAbsent(agent.getName(), agent) == null) {
+            registerMBean(agent);
+        }
+        log.debug("agent \"{}\" added", agent.getName());
+    }
+
+    private void registerMBean(SnmpAgent agent) {
+        SnmpAgent.registerMBean(new SnmpAgentManagement(this, agent.getName()), agent.getObjectName("SnmpAgent"));
+    }
+
+    private void execute(SnmpAgent agent) {
+        try {
+            agent.execute();
+        } catch (IOException e) {
+            throw new InitializationException("failed to start agent \"" + agent.getName() + "\"", e);
+        }
+    }
+
     /**
      * Wait until specified agent is started.
      * <br>
@@ -145,7 +227,87 @@ public class SnmpApplication {
     }
 
     /** Stops all agents as defined in {@link #agents}. */
+    @Override
     public void stop() {
         agents.forEach(SnmpAgent::stop);
+        agentsByName.values().forEach(agent -> SnmpAgent.unregisterMBean(agent.getObjectName("SnmpAgent")));
+        SnmpAgent.unregisterMBean(objectName);
+    }
+
+    @Override
+    public int getAgentCount() {
+        return agents.size();
+    }
+
+    @Override
+    public int getRunningAgentCount() {
+        return (int) agents.stream().filter(agent -> agent.getAgentState() == BaseAgent.STATE_RUNNING).count();
+    }
+
+    @Override
+    public long getRequests() {
+        return agents.stream().mapToLong(agent -> agent.getMetrics().getRequests()).sum();
+    }
+
+    @Override
+    public String[] getAgentNames() {
+        return agents.stream().map(SnmpAgent::getName).toArray(String[]::new);
+    }
+
+    /**
+     * Stops the agent of the specified name, it keeps being listed by {@code this} instance.
+     *
+     * @param name the name of the agent
+     * @throws IllegalArgumentException if there is no agent of this name
+     */
+    @Override
+    public void stopAgent(String name) {
+        getExistingAgent(name).stop();
+        log.info("agent \"{}\" stopped", name);
+    }
+
+    /**
+     * Replaces the agent of the specified name by a new agent with the same configuration and bindings, and starts it.
+     * The new agent serves its own metrics under the subtree of the metrics of the replaced agent, if any, and its
+     * responses are impaired as the ones of the replaced agent.
+     * <br>
+     * A call of this method is blocking until the new agent is running.
+     *
+     * @param name the name of the agent
+     * @throws IllegalArgumentException if there is no agent of this name
+     * @throws InitializationException  if the new agent could not be started
+     */
+    @Override
+    public synchronized void restartAgent(String name) {
+        SnmpAgent agent = getExistingAgent(name);
+        if (agent.getAgentState() != BaseAgent.STATE_STOPPED) {
+            agent.stop();
+        }
+        // the sensors of the metrics read the metrics of the replaced agent
+        OID metricsRoot = agent.getMetricsRoot();
+        Set<SnmpSensor<Variable>> sensors = new LinkedHashSet<>();
+        for (SnmpSensor<Variable> sensor : agent.getBindings().values()) {
+            if (metricsRoot == null || !sensor.getIdentifier().startsWith(metricsRoot)) {
+                sensors.add(sensor);
+            }
+        }
+        SnmpAgent restarted = new SnmpAgent(agent.getConfiguration(), sensors);
+        restarted.setResponseImpairment(agent.getResponseImpairment());
+        if (metricsRoot != null) {
+            restarted.enableMetrics(metricsRoot);
+        }
+        execute(restarted);
+        checkStatus(restarted);
+        agents.set(agents.indexOf(agent), restarted);
+        agentsByName.put(name, restarted);
+        log.info("agent \"{}\" restarted", name);
+    }
+
+    private SnmpAgent getExistingAgent(String name) {
+        SnmpAgent agent = agentsByName.get(name);
+        if (agent == null) {
+            throw new IllegalArgumentException("no agent named \"" + name + "\"");
+        }
+        return agent;
     }
 }
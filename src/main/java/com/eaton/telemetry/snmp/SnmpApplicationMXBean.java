@@ -0,0 +1,40 @@
+package com.eaton.telemetry.snmp;
+
+/**
+ * JMX management of a {@link SnmpApplication}, registered as {@code com.eaton.telemetry:type=SnmpApplication,id=<n>}
+ * while the application runs. Each agent of the application has its own {@link SnmpAgentMXBean}.
+ */
+public interface SnmpApplicationMXBean {
+
+    int getAgentCount();
+
+    int getRunningAgentCount();
+
+    /**
+     * Returns the total number of requests served by the agents.
+     *
+     * @return the number of requests
+     */
+    long getRequests();
+
+    String[] getAgentNames();
+
+    /**
+     * Stops an agent, it keeps being listed by the application.
+     *
+     * @param name the name of the agent
+     */
+    void stopAgent(String name);
+
+    /**
+     * Replaces an agent by a new one with the same configuration and bindings, and starts it.
+     *
+     * @param name the name of the agent
+     */
+    void restartAgent(String name);
+
+    /**
+     * Stops all the agents.
+     */
+    void stop();
+}
@@ -2,39 +2,65 @@ package com.eaton.telemetry.snmp;
 
 import javax.annotation.Nullable;
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.InetAddress;
-import java.net.SocketException;
+import java.net.InetSocketAddress;
 import java.net.UnknownHostException;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
 import java.time.Duration;
+import java.util.ArrayList;
 import java.util.Date;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
 import java.util.function.IntFunction;
 
+import com.eaton.telemetry.LatencyHistogram;
 import com.eaton.telemetry.Sensor;
 import lombok.extern.slf4j.Slf4j;
 import org.snmp4j.CommunityTarget;
 import org.snmp4j.PDU;
 import org.snmp4j.Snmp;
-import org.snmp4j.event.ResponseEvent;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BEROutputStream;
 import org.snmp4j.mp.SnmpConstants;
 import org.snmp4j.smi.Address;
 import org.snmp4j.smi.GenericAddress;
+import org.snmp4j.smi.Integer32;
 import org.snmp4j.smi.IpAddress;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.UdpAddress;
 import org.snmp4j.smi.Variable;
 import org.snmp4j.smi.VariableBinding;
-import org.snmp4j.transport.DefaultUdpTransportMapping;
 
 @Slf4j
 public class SnmpTrapAgent {
 
-    private Snmp snmpSession;
+    /**
+     * Number of the mandatory variable bindings of a notification: {@code sysUpTime}, {@code snmpTrapOID} and
+     * {@code snmpTrapAddress}.
+     */
+    private static final int HEADER_SIZE = 3;
+
+    /**
+     * Capacity of the queue of traps waiting to be sent in load mode.
+     */
+    private static final int LOAD_QUEUE_CAPACITY = 65536;
+
+    private final Snmp snmpSession;
 
     private static InetAddress getLocalHost() {
         try {
@@ -46,16 +72,94 @@ public class SnmpTrapAgent {
 
     private final ScheduledExecutorService executorService;
 
-    private final ExecutorService senderService = Executors.newFixedThreadPool(3);
+    private final ExecutorService senderService;
+
+    /**
+     * The threads and sockets used by this agent, possibly shared with other agents.
+     */
+    private final TrapRuntime runtime;
+
+    /**
+     * Whether the runtime was created for this agent only, and is closed with it.
+     */
+    private final boolean ownsRuntime;
+
+    /**
+     * The socket of the runtime used by this agent.
+     */
+    private final int slot;
+
+    /**
+     * The periodic sending of the traps, {@code null} until {@link #start()} is called.
+     */
+    @Nullable
+    private ScheduledFuture<?> sendTask;
+
+    /**
+     * The loads started by {@link #startLoad(RateProfile, boolean, int)}, stopped with this agent.
+     */
+    private final List<TrapLoad> loads = new CopyOnWriteArrayList<>();
+
+    private volatile boolean stopped;
+
     private final Set<Sensor<Variable, OID>> sensors;
+
+    /**
+     * Sensors with their own period, only used by {@link #startLoad(RateProfile, boolean, int)}.
+     */
+    private final Map<Sensor<Variable, OID>, Duration> scheduledSensors = new LinkedHashMap<>();
+
+    /**
+     * Triggers of the change-driven traps, by OID, see {@link #update(OID, Variable)}.
+     */
+    private final Map<OID, Trigger> triggers = new ConcurrentHashMap<>();
+
+    /**
+     * Sensors whose values are generated on each tick and sent only when their trigger fires, see
+     * {@link #addSensor(OID, IntFunction, TrapTrigger)}.
+     */
+    private final List<Sensor<Variable, OID>> triggeredSensors = new CopyOnWriteArrayList<>();
+
     private final Address destination;
     private final InetAddress sourceAddress;
 
     private final String community;
 
+    /**
+     * The target of the traps, built once for all the traps.
+     */
+    private final CommunityTarget target;
+
     private Duration initialDelay;
     private Duration period;
 
+    /**
+     * The notification OID of the traps batching several sensors, {@code null} if batching is disabled.
+     */
+    @Nullable
+    private OID batchNotificationOid;
+
+    /**
+     * The maximum size, in bytes, of the SNMP messages batching several sensors.
+     */
+    private int maxMessageSize;
+
+    /**
+     * The destinations of the traps, the first one being the destination given at construction.
+     */
+    private final List<Destination> destinations = new CopyOnWriteArrayList<>();
+
+    /**
+     * Request IDs of the traps encoded by this agent, only used when traps are sent to several destinations.
+     */
+    private final AtomicInteger requestId = new AtomicInteger();
+
+    /**
+     * Sends the notifications as INFORMs, {@code null} if they are sent as traps.
+     */
+    @Nullable
+    private InformSender informSender;
+
     /**
      * Basic constructor that creates a Snmp Trap sender Agent without sensor.
      * Sensors can be added later with {@link #addSensor(OID, IntFunction)}
@@ -88,18 +192,63 @@ public class SnmpTrapAgent {
                          Set<? extends Sensor<Variable, OID>> sensors,
                          Duration initialDelay,
                          Duration period) {
-        this.executorService = Executors.newScheduledThreadPool(1);
+        this(destination, sourceAddress, community, sensors, initialDelay, period, new TrapRuntime(3, 1, false), true);
+    }
+
+    /**
+     * Creates a Snmp Trap sender Agent sharing the threads and sockets of a runtime with other agents, see
+     * {@link TrapRuntime}. The runtime is not closed when this agent is stopped.
+     *
+     * @param configuration agent configuration
+     * @param sensors the sensors of the agent
+     * @param initialDelay initial delay before sending traps after {@link #start()} is called
+     * @param period time laps between each trap sending, generate a "tick" for each sensor
+     * @param runtime the runtime shared by the agents
+     */
+    public SnmpTrapAgent(AgentConfiguration configuration,
+                         Set<? extends Sensor<Variable, OID>> sensors,
+                         Duration initialDelay,
+                         Duration period,
+                         TrapRuntime runtime) {
+        this(GenericAddress.parse("udp:"
+                        + configuration.getAddress().getHostName()
+                        + "/" + configuration.getAddress().getPort()),
+                getLocalHost(),
+                configuration.getCommunity(),
+                sensors,
+                initialDelay,
+                period,
+                runtime,
+                false);
+    }
+
+    private SnmpTrapAgent(Address destination,
+                          InetAddress sourceAddress,
+                          @Nullable String community,
+                          Set<? extends Sensor<Variable, OID>> sensors,
+                          Duration initialDelay,
+                          Duration period,
+                          TrapRuntime runtime,
+                          boolean ownsRuntime) {
+        this.runtime = runtime;
+        this.ownsRuntime = ownsRuntime;
+        this.slot = runtime.nextSlot();
+        this.executorService = runtime.getScheduler();
+        this.senderService = runtime.getSenders();
+        this.snmpSession = runtime.getSession(slot);
         this.sensors = (Set<Sensor<Variable, OID>>) sensors;
         this.destination = destination;
         this.community = community;
         this.sourceAddress = sourceAddress;
-        try {
-            this.snmpSession = new Snmp(new DefaultUdpTransportMapping());
-        } catch (SocketException e) {
-            throw new RuntimeException(e);
-        }
         this.initialDelay = initialDelay;
         this.period = period;
+        this.target = new CommunityTarget();
+        target.setCommunity(new OctetString(Optional.ofNullable(community).orElse("public")));
+        target.setAddress(destination);
+        target.setVersion(SnmpConstants.version2c);
+        target.setTimeout(100); // milliseconds
+        target.setRetries(2);
+        this.destinations.add(new Destination(destination));
     }
 
     /**
@@ -115,65 +264,504 @@ public class SnmpTrapAgent {
         return this;
     }
 
+    /**
+     * Adds a {@link Sensor} with its own period to this agent, such sensor is only used by the load mode, see
+     * {@link #startLoad(RateProfile, boolean, int)}.
+     * This action must be made before calling {@link #startLoad(RateProfile, boolean, int)}
+     *
+     * @param oid the Oid of the sensor
+     * @param valueGenerator the generator of the values
+     * @param period time laps between each trap sending for this sensor
+     * @return this to eventually chain sensor addition
+     */
+    public SnmpTrapAgent addSensor(OID oid, IntFunction<Variable> valueGenerator, Duration period) {
+        scheduledSensors.put(new Sensor<>(oid, valueGenerator), period);
+        return this;
+    }
+
+    /**
+     * Adds a {@link Sensor} driving a change-driven trap to this agent: its value is generated on each tick, see
+     * {@link #start()}, and a trap is sent only when the trigger fires on the new value.
+     * This action must be made before calling {@link #start()}
+     *
+     * @param oid the Oid of the sensor
+     * @param valueGenerator the generator of the values
+     * @param trigger the condition to send a trap
+     * @return this to eventually chain sensor addition
+     */
+    public SnmpTrapAgent addSensor(OID oid, IntFunction<Variable> valueGenerator, TrapTrigger trigger) {
+        addTrigger(oid, trigger);
+        triggeredSensors.add(new Sensor<>(oid, valueGenerator));
+        return this;
+    }
+
+    /**
+     * Adds a change-driven trap to this agent: a trap is sent only when the trigger fires on a new value of the OID
+     * reported with {@link #update(OID, Variable)}. Such traps are not sent periodically by {@link #start()}, only the
+     * OIDs whose value is updated are evaluated, so that large fleets of sensors cost nothing while they are stable.
+     *
+     * @param oid     the Oid of the sensor
+     * @param trigger the condition to send a trap
+     * @return this to eventually chain configuration
+     */
+    public SnmpTrapAgent addTrigger(OID oid, TrapTrigger trigger) {
+        triggers.put(oid, new Trigger(trigger));
+        return this;
+    }
+
+    /**
+     * Reports a new value of a sensor with a trigger and sends a trap with this value if the trigger fires. The trap is
+     * sent asynchronously.
+     *
+     * @param oid   the Oid of the sensor
+     * @param value the new value of the sensor
+     * @return {@code true} if a trap is sent
+     * @throws IllegalArgumentException if no trigger was added for the OID
+     */
+    public boolean update(OID oid, Variable value) {
+        Trigger trigger = triggers.get(oid);
+        if (trigger == null) {
+            throw new IllegalArgumentException("no trigger for OID " + oid);
+        }
+        if (!trigger.update(value, System.nanoTime())) {
+            return false;
+        }
+        PDU pdu = createPDU(oid);
+        pdu.add(new VariableBinding(oid, value));
+        submit(pdu);
+        return true;
+    }
+
+    /**
+     * Enables batching: on each tick, the values of all the sensors are packed into as few notifications as possible
+     * instead of one notification per sensor. A notification holds as many sensor values as fit in
+     * {@code maxMessageSize} bytes once encoded, so that the number of traps sent doesn't grow linearly with the
+     * number of sensors.
+     * <br>
+     * As a notification has a single {@code snmpTrapOID}, batched notifications are sent with the given one, each sensor
+     * value being a variable binding of the notification.
+     * This action must be made before calling {@link #start()}
+     *
+     * @param notificationOid the {@code snmpTrapOID} of the batched notifications
+     * @param maxMessageSize  the maximum size of an SNMP message, e.g. 1472 to fit in an Ethernet frame
+     * @return this to eventually chain configuration
+     */
+    public SnmpTrapAgent enableBatching(OID notificationOid, int maxMessageSize) {
+        this.batchNotificationOid = notificationOid;
+        this.maxMessageSize = maxMessageSize;
+        return this;
+    }
+
+    /**
+     * Adds a destination to the traps of this agent, on top of the destination given at construction.
+     * <br>
+     * Once there are several destinations, each trap is encoded once and the same bytes are sent to every destination
+     * through a single datagram channel: the cost of a trap is almost the same whatever the number of destinations.
+     *
+     * @param destination the UDP address of the destination
+     * @return this to eventually chain configuration
+     * @throws IllegalArgumentException if the destination, or the one given at construction, is not an UDP address
+     */
+    public SnmpTrapAgent addDestination(Address destination) {
+        for (Address address : List.of(destinations.get(0).address, destination)) {
+            if (!(address instanceof UdpAddress)) {
+                throw new IllegalArgumentException("traps may only be sent to several UDP destinations, " + address + " is not");
+            }
+        }
+        try {
+            runtime.openChannel(slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        destinations.add(new Destination(destination));
+        return this;
+    }
+
+    /**
+     * Sends the notifications as INFORMs, acknowledged by the receivers, rather than as traps.
+     * <br>
+     * INFORMs are sent asynchronously: up to {@code maxInFlight} INFORMs may wait for their acknowledgement without
+     * blocking any thread, their retries being driven by the timer of the SNMP session, and the INFORMs sent while the
+     * window is full are dropped. See {@link InformSender}.
+     * This action must be made before calling {@link #start()}
+     *
+     * @param maxInFlight the maximum number of INFORMs waiting for their acknowledgement, e.g. 50000
+     * @param timeout     the delay to wait for the acknowledgement of an INFORM before sending it again
+     * @param retries     the number of times an INFORM is sent again before giving up
+     * @return this to eventually chain configuration
+     */
+    public SnmpTrapAgent enableInforms(int maxInFlight, Duration timeout, int retries) {
+        InformSender sender = new InformSender(snmpSession, maxInFlight, timeout, retries);
+        // acknowledgements are received on the transport of the session
+        try {
+            runtime.listen(slot);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        this.informSender = sender;
+        return this;
+    }
+
+    /**
+     * Returns the statistics of the INFORMs sent by this agent.
+     *
+     * @return the statistics, empty if notifications are sent as traps
+     */
+    public Optional<InformSender.Statistics> getInformStatistics() {
+        return Optional.ofNullable(informSender).map(InformSender::getStatistics);
+    }
+
+    /**
+     * Returns the latencies between the sending of the INFORMs of this agent and their acknowledgement.
+     *
+     * @return the histogram of the latencies, empty if notifications are sent as traps
+     */
+    public Optional<LatencyHistogram> getInformLatency() {
+        return Optional.ofNullable(informSender).map(InformSender::getLatency);
+    }
+
+    /**
+     * Returns the number of traps sent to each destination, in the order the destinations were added.
+     *
+     * @return the number of sent traps by destination
+     */
+    public Map<Address, Long> getSendCounts() {
+        Map<Address, Long> sendCounts = new LinkedHashMap<>();
+        destinations.forEach(destination -> sendCounts.merge(destination.address, destination.sent.get(), Long::sum));
+        return sendCounts;
+    }
+
+    /**
+     * Returns the number of traps which could not be sent to each destination, in the order the destinations were added.
+     *
+     * @return the number of failed traps by destination
+     */
+    public Map<Address, Long> getFailureCounts() {
+        Map<Address, Long> failureCounts = new LinkedHashMap<>();
+        destinations.forEach(destination -> failureCounts.merge(destination.address, destination.failed.get(), Long::sum));
+        return failureCounts;
+    }
+
     /**
      * Starts this agent and sends trap values (coming from sensors) to the destination.
      */
     public void start() {
-        executorService.scheduleAtFixedRate(
-                new PDUSendTask(snmpSession),
+        sendTask = executorService.scheduleAtFixedRate(
+                new PDUSendTask(),
                 initialDelay.toMillis(), period.toMillis(), TimeUnit.MILLISECONDS);
     }
 
-    private class PDUSendTask implements Runnable {
-        private final Snmp snmpSession;
+    /**
+     * Stops this agent: the periodic sending and the loads are stopped, and the traps not sent yet are discarded. The
+     * threads and sockets of the agent are released, unless they are shared with other agents through a
+     * {@link TrapRuntime}.
+     */
+    public void stop() {
+        stopped = true;
+        if (sendTask != null) {
+            sendTask.cancel(false);
+        }
+        loads.forEach(TrapLoad::stop);
+        loads.clear();
+        if (ownsRuntime) {
+            runtime.close();
+        }
+    }
+
+    /**
+     * Starts this agent in load mode: traps are sent at the rate of the given profile rather than every period.
+     * <br>
+     * Sensors added without period share the rate of the profile, one trap being sent for one sensor after the other,
+     * and sensors added with a period are sent at their own period. See {@link TrapLoad} for the details.
+     *
+     * @param profile the target rate over time
+     * @param poissonArrivals {@code true} to send traps following a Poisson process of the rate of the profile,
+     *                        {@code false} to send them evenly
+     * @param senderThreads the maximum number of sender threads of the runtime of this agent sending the traps of the
+     *                      load at once, see {@link TrapRuntime}
+     * @return the running load, to get its statistics and stop it
+     */
+    public TrapLoad startLoad(RateProfile profile, boolean poissonArrivals, int senderThreads) {
+        TrapLoad load = new TrapLoad(profile, poissonArrivals, new ArrayList<>(sensors), scheduledSensors, this::sendTrap,
+                runtime, senderThreads, LOAD_QUEUE_CAPACITY);
+        loads.add(load);
+        load.start();
+        return load;
+    }
+
+    /**
+     * Sends a trap with the next value of the specified sensor.
+     *
+     * @param sensor the sensor
+     * @return {@code false} if the sensor has no value to send
+     */
+    private boolean sendTrap(Sensor<Variable, OID> sensor) {
+        Variable value = sensor.nextValue();
+        // null value is considered as a marker to not send the trap
+        if (value == null) {
+            return false;
+        }
+        PDU pdu = createPDU(sensor.getIdentifier());
+        pdu.add(new VariableBinding(sensor.getIdentifier(), value));
+        try {
+            send(pdu);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+        return true;
+    }
+
+    /**
+     * Sends a notification to the destinations of this agent.
+     *
+     * @param pdu the notification
+     * @throws IOException if the notification could not be sent to any destination
+     */
+    private void send(PDU pdu) throws IOException {
+        InformSender sender = informSender;
+        if (sender != null) {
+            IOException failure = null;
+            int failures = 0;
+            for (Destination destination : destinations) {
+                try {
+                    if (sender.send(pdu, destination.address, target.getCommunity(), destination.failed::incrementAndGet)) {
+                        destination.sent.incrementAndGet();
+                    } else {
+                        destination.failed.incrementAndGet();
+                    }
+                } catch (IOException e) {
+                    destination.failed.incrementAndGet();
+                    log.debug("could not send INFORM to {}", destination.address, e);
+                    failure = e;
+                    failures++;
+                }
+            }
+            if (failures == destinations.size()) {
+                throw failure;
+            }
+            return;
+        }
+        if (destinations.size() == 1) {
+            Destination destination = destinations.get(0);
+            try {
+                snmpSession.send(pdu, target);
+            } catch (IOException e) {
+                destination.failed.incrementAndGet();
+                throw e;
+            }
+            destination.sent.incrementAndGet();
+            return;
+        }
 
-        public PDUSendTask(Snmp snmpSession) {
-            this.snmpSession = snmpSession;
+        ByteBuffer message = encode(pdu);
+        DatagramChannel channel = runtime.getChannel(slot);
+        IOException failure = null;
+        int failures = 0;
+        for (Destination destination : destinations) {
+            message.rewind();
+            try {
+                channel.send(message, destination.socketAddress);
+                destination.sent.incrementAndGet();
+            } catch (IOException e) {
+                destination.failed.incrementAndGet();
+                log.debug("could not send trap to {}", destination.address, e);
+                failure = e;
+                failures++;
+            }
         }
+        if (failures == destinations.size()) {
+            throw failure;
+        }
+    }
+
+    /**
+     * Encodes a notification into a SNMPv2c message.
+     *
+     * @param pdu the notification, its request ID is set
+     * @return the encoded message, ready to be sent
+     * @throws IOException if the notification could not be encoded
+     */
+    private ByteBuffer encode(PDU pdu) throws IOException {
+        pdu.setRequestID(new Integer32(requestId.incrementAndGet() & Integer.MAX_VALUE));
+        Integer32 version = new Integer32(SnmpConstants.version2c);
+        OctetString communityString = target.getCommunity();
+        int payloadLength = version.getBERLength() + communityString.getBERLength() + pdu.getBERLength();
+        ByteBuffer message = ByteBuffer.allocate(1 + BER.getBERLengthOfLength(payloadLength) + payloadLength);
+        BEROutputStream out = new BEROutputStream(message);
+        BER.encodeHeader(out, BER.SEQUENCE, payloadLength);
+        version.encodeBER(out);
+        communityString.encodeBER(out);
+        pdu.encodeBER(out);
+        message.flip();
+        return message;
+    }
+
+
+    /**
+     * Creates a notification holding only the mandatory variable bindings.
+     *
+     * @param notificationOid the {@code snmpTrapOID} of the notification
+     * @return the notification
+     */
+    private PDU createPDU(OID notificationOid) {
+        PDU pdu = new PDU();
+        // need to specify the system up time
+        pdu.add(new VariableBinding(SnmpConstants.sysUpTime, new OctetString(new Date().toString())));
+        pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, notificationOid));
+        pdu.add(new VariableBinding(SnmpConstants.snmpTrapAddress, new IpAddress(sourceAddress)));
+        pdu.setType(PDU.NOTIFICATION);
+        return pdu;
+    }
+
+    private class PDUSendTask implements Runnable {
 
         @Override
         public void run() {
+            triggeredSensors.forEach(sensor -> {
+                Variable value = sensor.nextValue();
+                // null value is considered as a marker to not send the trap
+                if (value != null) {
+                    update(sensor.getIdentifier(), value);
+                }
+            });
+            if (batchNotificationOid != null) {
+                sendBatches();
+                return;
+            }
             // each sensor will receive a "tick" for which t generate the value. This acts as a clock tick or counter.
             sensors.forEach(sensor -> {
                 log.info("Sending trap for sensor " + sensor.getIdentifier());
                 Variable value = sensor.nextValue();
                 // null value is considered as a marker to not send the trap
                 if (value != null) {
-                    CommunityTarget target = new CommunityTarget();
-                    target.setCommunity(new OctetString(community));
-                    target.setAddress(destination);
                     log.debug("Sending traps to " + target.getAddress());
-                    target.setVersion(SnmpConstants.version2c);
-                    target.setTimeout(100); // milliseconds
-                    target.setRetries(2);
 
                     PDU pdu;
                     try {
-                        pdu = new PDU();
-                        // need to specify the system up time
-                        pdu.add(new VariableBinding(SnmpConstants.sysUpTime, new OctetString(new Date().toString())));
-                        pdu.add(new VariableBinding(SnmpConstants.snmpTrapOID, sensor.getIdentifier()));
-                        pdu.add(new VariableBinding(SnmpConstants.snmpTrapAddress, new IpAddress(sourceAddress)));
+                        pdu = createPDU(sensor.getIdentifier());
                         pdu.add(new VariableBinding(sensor.getIdentifier(), value));
-                        pdu.setType(PDU.NOTIFICATION);
                     } catch (RuntimeException e) {
                         log.error("Error while creating PDU", e);
                         return;
                     }
 
-                    senderService.submit(() -> {
-                        try {
-                            return sendTrap(pdu, target);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
+                    submit(pdu);
                 }
             });
         }
 
-        private ResponseEvent<?> sendTrap(PDU pdu, CommunityTarget target) throws IOException {
-            return this.snmpSession.send(pdu, target);
+        /**
+         * Sends the values of all sensors packed into as few notifications as {@link #maxMessageSize} allows.
+         */
+        private void sendBatches() {
+            PDU pdu = createPDU(batchNotificationOid);
+            int headerLength = PDU.getBERLength(pdu.getVariableBindings());
+            int payloadLength = headerLength;
+            for (Sensor<Variable, OID> sensor : sensors) {
+                Variable value = sensor.nextValue();
+                // null value is considered as a marker to not send the trap
+                if (value == null) {
+                    continue;
+                }
+                VariableBinding variableBinding = new VariableBinding(sensor.getIdentifier(), value);
+                int length = variableBinding.getBERLength();
+                if (pdu.size() > HEADER_SIZE && getMessageLength(payloadLength + length) > maxMessageSize) {
+                    submit(pdu);
+                    pdu = createPDU(batchNotificationOid);
+                    payloadLength = headerLength;
+                }
+                pdu.add(variableBinding);
+                payloadLength += length;
+            }
+            if (pdu.size() > HEADER_SIZE) {
+                submit(pdu);
+            }
+        }
+
+        /**
+         * Returns the length of the SNMP message holding a notification, an upper bound of the length of its variable
+         * bindings sequence being given.
+         *
+         * @param variableBindingsLength the length of the variable bindings of the notification
+         * @return the length of the encoded message
+         */
+        private int getMessageLength(int variableBindingsLength) {
+            // request id, error status and error index, at most 6 bytes each, then the variable bindings sequence
+            int pduPayloadLength = 18 + 1 + BER.getBERLengthOfLength(variableBindingsLength) + variableBindingsLength;
+            int pduLength = 1 + BER.getBERLengthOfLength(pduPayloadLength) + pduPayloadLength;
+            // version then community
+            int communityLength = target.getCommunity().length();
+            int messagePayloadLength = 3 + 1 + BER.getBERLengthOfLength(communityLength) + communityLength + pduLength;
+            return 1 + BER.getBERLengthOfLength(messagePayloadLength) + messagePayloadLength;
+        }
+
+    }
+
+    /**
+     * Sends a notification asynchronously.
+     *
+     * @param pdu the notification
+     */
+    private void submit(PDU pdu) {
+        senderService.submit(() -> {
+            if (stopped) {
+                return;
+            }
+            try {
+                send(pdu);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    /**
+     * A {@link TrapTrigger} with the last value of its sensor.
+     */
+    private static final class Trigger {
+
+        private final TrapTrigger condition;
+
+        @Nullable
+        private Variable value;
+
+        private long valueNanos;
+
+        private Trigger(TrapTrigger condition) {
+            this.condition = condition;
+        }
+
+        private synchronized boolean update(Variable newValue, long nanos) {
+            boolean fires = condition.fires(value, valueNanos, newValue, nanos);
+            value = newValue;
+            valueNanos = nanos;
+            return fires;
+        }
+    }
+
+    /**
+     * A destination of the traps, with its counters.
+     */
+    private static final class Destination {
+
+        private final Address address;
+
+        /**
+         * The socket address the encoded traps are sent to, {@code null} if the address is not an UDP address, in
+         * which case the traps are only sent through the SNMP session, see {@link #addDestination(Address)}.
+         */
+        @Nullable
+        private final InetSocketAddress socketAddress;
+
+        private final AtomicLong sent = new AtomicLong();
+
+        private final AtomicLong failed = new AtomicLong();
+
+        private Destination(Address address) {
+            this.address = address;
+            this.socketAddress = address instanceof UdpAddress udpAddress
+                    ? new InetSocketAddress(udpAddress.getInetAddress(), udpAddress.getPort())
+                    : null;
         }
     }
 }
@@ -0,0 +1,183 @@
+package com.eaton.telemetry.snmp;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.locks.LockSupport;
+import java.util.function.BooleanSupplier;
+
+import lombok.extern.slf4j.Slf4j;
+
+/**
+ * Hashed timing wheel running delayed and periodic tasks on a single daemon thread, with a resolution of 1 millisecond.
+ * <br>
+ * Scheduling only adds the task to a lock-free queue, the timer thread moving the queued tasks into the slots of the
+ * wheel on each tick: the cost of a pending task is a few objects, so that hundreds of thousands of tasks may be
+ * pending without holding any other thread. Tasks should be short, they delay the next ones otherwise.
+ * <br>
+ * Deadlines are absolute ticks since the start of the wheel: a task is never run before its delay, and a periodic
+ * task is rescheduled from its previous deadline, so that it doesn't drift.
+ */
+@Slf4j
+final class TimingWheel {
+
+    /**
+     * Duration of a tick, and of a slot of the wheel.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Number of slots of the wheel, a power of 2.
+     */
+    private static final int WHEEL_SIZE = 512;
+
+    private static volatile TimingWheel shared;
+
+    /**
+     * Returns the timing wheel shared by the agents of the JVM, started on first use.
+     *
+     * @return the shared timing wheel
+     */
+    static TimingWheel shared() {
+        TimingWheel wheel = shared;
+        if (wheel == null) {
+            synchronized (TimingWheel.class) {
+                wheel = shared;
+                if (wheel == null) {
+                    wheel = new TimingWheel("TimingWheel");
+                    shared = wheel;
+                }
+            }
+        }
+        return wheel;
+    }
+
+    /**
+     * Tasks scheduled since the last tick.
+     */
+    private final Queue<Timeout> inbox = new ConcurrentLinkedQueue<>();
+
+    /**
+     * The slots of the wheel, only used by the timer thread.
+     */
+    private final List<List<Timeout>> slots = new ArrayList<>(WHEEL_SIZE);
+
+    private final AtomicInteger pending = new AtomicInteger();
+
+    private final long start = System.nanoTime();
+
+    private TimingWheel(String name) {
+        for (int i = 0; i < WHEEL_SIZE; i++) {
+            slots.add(new ArrayList<>());
+        }
+        Thread thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Schedules a task.
+     *
+     * @param task       the task
+     * @param delayNanos the delay before running the task, in nanoseconds
+     */
+    void schedule(Runnable task, long delayNanos) {
+        pending.incrementAndGet();
+        inbox.add(new Timeout(() -> {
+            task.run();
+            return false;
+        }, deadlineTick(delayNanos), 0));
+    }
+
+    /**
+     * Schedules a periodic task, first run after one period.
+     *
+     * @param task        the task, returning {@code false} once it should not run anymore
+     * @param periodNanos the period of the task in nanoseconds, rounded up to the resolution of the wheel
+     */
+    void scheduleAtFixedRate(BooleanSupplier task, long periodNanos) {
+        long periodTicks = Math.max(1, (periodNanos + TICK_NANOS - 1) / TICK_NANOS);
+        pending.incrementAndGet();
+        inbox.add(new Timeout(task, deadlineTick(periodNanos), periodTicks));
+    }
+
+    private long deadlineTick(long delayNanos) {
+        return (System.nanoTime() + Math.max(0, delayNanos) - start + TICK_NANOS - 1) / TICK_NANOS;
+    }
+
+    /**
+     * Returns the number of tasks waiting to be run.
+     *
+     * @return the number of pending tasks
+     */
+    int getPending() {
+        return pending.get();
+    }
+
+    private void run() {
+        long tick = 0;
+        while (true) {
+            long deadline = start + (tick + 1) * TICK_NANOS;
+            long wait = deadline - System.nanoTime();
+            if (wait > 0) {
+                LockSupport.parkNanos(wait);
+                continue;
+            }
+            tick++;
+            Timeout timeout;
+            while ((timeout = inbox.poll()) != null) {
+                add(timeout, tick);
+            }
+            List<Timeout> slot = slots.get((int) (tick & (WHEEL_SIZE - 1)));
+            if (!slot.isEmpty()) {
+                List<Timeout> due = new ArrayList<>();
+                long currentTick = tick;
+                slot.removeIf(candidate -> {
+                    if (candidate.deadlineTick > currentTick) {
+                        return false;
+                    }
+                    due.add(candidate);
+                    return true;
+                });
+                due.forEach(candidate -> expire(candidate, currentTick));
+            }
+        }
+    }
+
+    private void add(Timeout timeout, long tick) {
+        if (timeout.deadlineTick <= tick) {
+            expire(timeout, tick);
+        } else {
+            slots.get((int) (timeout.deadlineTick & (WHEEL_SIZE - 1))).add(timeout);
+        }
+    }
+
+    private void expire(Timeout timeout, long tick) {
+        boolean again;
+        try {
+            again = timeout.task.getAsBoolean();
+        } catch (RuntimeException e) {
+            log.warn("delayed task failed", e);
+            again = true;
+        }
+        if (again && timeout.periodTicks > 0) {
+            // a late periodic task skips the deadlines it missed rather than running in a burst
+            long next = timeout.deadlineTick + timeout.periodTicks;
+            if (next <= tick) {
+                next += (tick - next) / timeout.periodTicks * timeout.periodTicks + timeout.periodTicks;
+            }
+            add(new Timeout(timeout.task, next, timeout.periodTicks), tick);
+        } else {
+            pending.decrementAndGet();
+        }
+    }
+
+    /**
+     * A task and its deadline, with the period of the task in ticks, 0 if it runs once.
+     */
+    private record Timeout(BooleanSupplier task, long deadlineTick, long periodTicks) {
+    }
+}
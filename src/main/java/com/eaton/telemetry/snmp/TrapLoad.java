@@ -0,0 +1,326 @@
+package com.eaton.telemetry.snmp;
+
+import javax.annotation.Nullable;
+import java.time.Duration;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.Random;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Predicate;
+
+import com.eaton.telemetry.Sensor;
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Sends traps of a {@link SnmpTrapAgent} at a paced rate, to load-test trap receivers.
+ * <br>
+ * Two kinds of sensors are handled:
+ * <ul>
+ *     <li>sensors without schedule share the rate given by a {@link RateProfile}, they are picked in turn each time a
+ *     trap may be sent. Pacing comes from a token bucket refilled at the rate of the profile, or, with Poisson arrivals,
+ *     from a number of traps drawn from a Poisson distribution on each pacing tick;</li>
+ *     <li>sensors with their own period are scheduled on the {@link TimingWheel} shared by the agents, first sent
+ *     after one period.</li>
+ * </ul>
+ * A pacing task, run on each tick by the scheduler of the {@link TrapRuntime} of the agent, decides which traps of the
+ * sensors sharing the rate are due and queues them, the timing wheel queues the traps of the scheduled sensors, and the
+ * sender threads of the runtime generate and send them, a limited number of them at once. No thread is created by a
+ * load. Traps which can't be queued because the senders lag behind are counted as dropped, see
+ * {@link #getStatistics()}.
+ * <br>
+ * Instances are created by {@link SnmpTrapAgent#startLoad(RateProfile, boolean, int)}.
+ */
+@Slf4j
+public class TrapLoad {
+
+    /**
+     * Duration of a pacing tick.
+     */
+    private static final long TICK_NANOS = TimeUnit.MILLISECONDS.toNanos(1);
+
+    /**
+     * Maximum time worth of traps the token bucket may hold.
+     */
+    private static final long BUCKET_NANOS = TimeUnit.MILLISECONDS.toNanos(10);
+
+    /**
+     * Interval of the computation of the actual rate and of its report in logs.
+     */
+    private static final long REPORT_NANOS = TimeUnit.SECONDS.toNanos(1);
+
+    /**
+     * Maximum number of traps sent by a sender task before it yields its thread to the other agents of the runtime.
+     */
+    private static final int DRAIN_BATCH = 256;
+
+    private final RateProfile profile;
+
+    private final boolean poissonArrivals;
+
+    /**
+     * Sensors sharing the rate of the profile.
+     */
+    private final List<Sensor<Variable, OID>> sensors;
+
+    /**
+     * Sensors with their own period.
+     */
+    private final Map<Sensor<Variable, OID>, Duration> scheduledSensors;
+
+    /**
+     * Sends the trap of a sensor, returns {@code false} if the sensor had no value to send.
+     */
+    private final Predicate<Sensor<Variable, OID>> sender;
+
+    /**
+     * Traps waiting to be sent.
+     */
+    private final Queue<Sensor<Variable, OID>> sendQueue;
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ExecutorService senders;
+
+    /**
+     * Maximum number of sender threads of the runtime sending the traps of this load at once.
+     */
+    private final int parallelism;
+
+    /**
+     * Number of sender tasks of this load submitted to the runtime and not finished yet.
+     */
+    private final AtomicInteger activeSenders = new AtomicInteger();
+
+    /**
+     * The periodic pacing task, {@code null} until {@link #start()} is called.
+     */
+    @Nullable
+    private volatile ScheduledFuture<?> pacingTask;
+
+    private final Random random = new Random();
+
+    private final AtomicLong sent = new AtomicLong();
+
+    private final AtomicLong dropped = new AtomicLong();
+
+    private final AtomicLong failed = new AtomicLong();
+
+    private volatile boolean running = true;
+
+    private volatile double targetRate;
+
+    private volatile double actualRate;
+
+    /**
+     * Index of the next sensor sharing the rate of the profile, only used by the pacing task.
+     */
+    private int nextSensor;
+
+    /**
+     * Tokens of the bucket, only used by the pacing task.
+     */
+    private double tokens;
+
+    /**
+     * Times of the start of the load, of the previous tick and of the previous report, and number of traps sent at the
+     * previous report, only used by the pacing task.
+     */
+    private long start;
+
+    private long last;
+
+    private long lastReport;
+
+    private long sentAtLastReport;
+
+    TrapLoad(RateProfile profile,
+             boolean poissonArrivals,
+             List<Sensor<Variable, OID>> sensors,
+             Map<Sensor<Variable, OID>, Duration> scheduledSensors,
+             Predicate<Sensor<Variable, OID>> sender,
+             TrapRuntime runtime,
+             int parallelism,
+             int queueCapacity) {
+        Preconditions.checkArgument(parallelism > 0, "there should be at least one sender thread");
+        this.profile = profile;
+        this.poissonArrivals = poissonArrivals;
+        this.sensors = List.copyOf(sensors);
+        this.scheduledSensors = Map.copyOf(scheduledSensors);
+        this.sender = sender;
+        this.sendQueue = new ArrayBlockingQueue<>(queueCapacity);
+        this.scheduler = runtime.getScheduler();
+        this.senders = runtime.getSenders();
+        this.parallelism = parallelism;
+    }
+
+    void start() {
+        start = System.nanoTime();
+        last = start;
+        lastReport = start;
+        pacingTask = scheduler.scheduleAtFixedRate(this::pace, TICK_NANOS, TICK_NANOS, TimeUnit.NANOSECONDS);
+        scheduledSensors.forEach((sensor, period) -> TimingWheel.shared().scheduleAtFixedRate(() -> {
+            if (running) {
+                enqueue(sensor);
+            }
+            return running;
+        }, period.toNanos()));
+    }
+
+    /**
+     * Stops sending traps, queued traps are discarded.
+     */
+    public void stop() {
+        running = false;
+        ScheduledFuture<?> task = pacingTask;
+        if (task != null) {
+            task.cancel(false);
+        }
+        sendQueue.clear();
+    }
+
+    /**
+     * Returns the current statistics of this load.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(targetRate, actualRate, sendQueue.size(), sent.get(), dropped.get(), failed.get());
+    }
+
+    /**
+     * Queues the traps due since the previous tick, run on each tick by the scheduler of the runtime.
+     */
+    private void pace() {
+        if (!running) {
+            return;
+        }
+        try {
+            long now = System.nanoTime();
+            long elapsed = now - start;
+            double rate = profile.getRate(elapsed);
+            targetRate = rate;
+
+            int due;
+            if (poissonArrivals) {
+                due = nextPoisson(rate * (now - last) / 1e9);
+            } else {
+                tokens = Math.min(tokens + rate * (now - last) / 1e9, Math.max(1, rate * BUCKET_NANOS / 1e9));
+                due = (int) tokens;
+                tokens -= due;
+            }
+            if (!sensors.isEmpty()) {
+                for (int i = 0; i < due; i++) {
+                    enqueue(sensors.get(nextSensor));
+                    nextSensor = (nextSensor + 1) % sensors.size();
+                }
+            }
+            last = now;
+
+            if (now - lastReport >= REPORT_NANOS) {
+                long sentNow = sent.get();
+                actualRate = (sentNow - sentAtLastReport) * 1e9 / (now - lastReport);
+                sentAtLastReport = sentNow;
+                lastReport = now;
+                log.info("trap load: {}", getStatistics());
+            }
+        } catch (RuntimeException e) {
+            // the scheduler would not run the task anymore
+            log.warn("trap load pacing failed", e);
+        }
+    }
+
+    private void enqueue(Sensor<Variable, OID> sensor) {
+        if (!sendQueue.offer(sensor)) {
+            dropped.incrementAndGet();
+            return;
+        }
+        submitSender();
+    }
+
+    /**
+     * Submits a sender task to the runtime, unless {@link #parallelism} of them are already running.
+     */
+    private void submitSender() {
+        int active;
+        while ((active = activeSenders.get()) < parallelism) {
+            if (activeSenders.compareAndSet(active, active + 1)) {
+                try {
+                    senders.execute(this::send);
+                } catch (RejectedExecutionException e) {
+                    // the runtime is closed
+                    activeSenders.decrementAndGet();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Sends queued traps, up to {@link #DRAIN_BATCH} of them so that the agents sharing the runtime get their turn.
+     */
+    private void send() {
+        Sensor<Variable, OID> sensor;
+        int count = 0;
+        while (running && count++ < DRAIN_BATCH && (sensor = sendQueue.poll()) != null) {
+            try {
+                if (sender.test(sensor)) {
+                    sent.incrementAndGet();
+                }
+            } catch (RuntimeException e) {
+                failed.incrementAndGet();
+                log.debug("could not send trap", e);
+            }
+        }
+        activeSenders.decrementAndGet();
+        // traps queued while this task was finishing would not be sent otherwise
+        if (running && !sendQueue.isEmpty()) {
+            submitSender();
+        }
+    }
+
+    /**
+     * Draws a number of arrivals from a Poisson distribution, approximated by a normal distribution for large means.
+     *
+     * @param mean the mean number of arrivals
+     * @return the number of arrivals
+     */
+    private int nextPoisson(double mean) {
+        if (mean <= 0) {
+            return 0;
+        } else if (mean > 30) {
+            return (int) Math.max(0, Math.round(mean + Math.sqrt(mean) * random.nextGaussian()));
+        }
+        double limit = Math.exp(-mean);
+        double product = random.nextDouble();
+        int count = 0;
+        while (product > limit) {
+            product *= random.nextDouble();
+            count++;
+        }
+        return count;
+    }
+
+    /**
+     * Statistics of a {@link TrapLoad}.
+     *
+     * @param targetRate the current rate of the profile, in traps per second
+     * @param actualRate the rate of sent traps over the last report interval, in traps per second
+     * @param queueDepth the number of traps waiting to be sent
+     * @param sent       the number of sent traps
+     * @param dropped    the number of traps dropped because the send queue was full
+     * @param failed     the number of traps whose sending failed
+     */
+    public record Statistics(double targetRate, double actualRate, int queueDepth, long sent, long dropped, long failed) {
+    }
+}
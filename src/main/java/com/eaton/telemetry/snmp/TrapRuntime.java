@@ -0,0 +1,191 @@
+package com.eaton.telemetry.snmp;
+
+import java.io.IOException;
+import java.nio.channels.DatagramChannel;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.Snmp;
+import org.snmp4j.transport.DefaultUdpTransportMapping;
+
+/**
+ * Threads and sockets shared by {@link SnmpTrapAgent}s, so that the cost of an agent doesn't depend on the number of
+ * agents: a single scheduler runs the periodic sending of all the agents, a fixed pool of sender threads sends their
+ * traps, and the traps go out through a few UDP sockets, each agent being assigned one of them. The loads started by
+ * the agents, see {@link TrapLoad}, are paced by the same scheduler and sent by the same sender threads.
+ * <br>
+ * Agents created without runtime have their own small runtime, closed with them: its threads are not daemon threads, so
+ * that the JVM keeps running while such an agent runs, as with a single agent. A shared runtime is closed by its
+ * creator once its agents are stopped, its threads are daemon threads.
+ * <pre>
+ * {@code
+ *     try (TrapRuntime runtime = new TrapRuntime(4, 2)) {
+ *         List<SnmpTrapAgent> agents = ...; // new SnmpTrapAgent(..., runtime)
+ *         agents.forEach(SnmpTrapAgent::start);
+ *         ...
+ *         agents.forEach(SnmpTrapAgent::stop);
+ *     }
+ * }
+ * </pre>
+ */
+@Slf4j
+public class TrapRuntime implements AutoCloseable {
+
+    private final ScheduledExecutorService scheduler;
+
+    private final ExecutorService senders;
+
+    private final Snmp[] sessions;
+
+    private final DatagramChannel[] channels;
+
+    private final boolean[] listening;
+
+    /**
+     * Assigns the sockets to the agents in turn.
+     */
+    private final AtomicInteger nextSlot = new AtomicInteger();
+
+    /**
+     * Creates a runtime with as many sender threads as available processors and a single socket.
+     */
+    public TrapRuntime() {
+        this(Runtime.getRuntime().availableProcessors(), 1);
+    }
+
+    /**
+     * Creates a runtime.
+     *
+     * @param senderThreads the number of threads sending the traps of all the agents
+     * @param sockets       the number of UDP sockets the traps are sent from
+     * @throws InitializationException if a socket could not be opened
+     */
+    public TrapRuntime(int senderThreads, int sockets) {
+        this(senderThreads, sockets, true);
+    }
+
+    /**
+     * Creates a runtime.
+     *
+     * @param senderThreads the number of threads sending the traps of all the agents
+     * @param sockets       the number of UDP sockets the traps are sent from
+     * @param daemon        whether the threads of the runtime are daemon threads
+     * @throws InitializationException if a socket could not be opened
+     */
+    TrapRuntime(int senderThreads, int sockets, boolean daemon) {
+        Preconditions.checkArgument(senderThreads > 0, "there should be at least one sender thread");
+        Preconditions.checkArgument(sockets > 0, "there should be at least one socket");
+        this.scheduler = Executors.newSingleThreadScheduledExecutor(threads("TrapRuntime-scheduler", daemon));
+        this.senders = Executors.newFixedThreadPool(senderThreads, threads("TrapRuntime-sender", daemon));
+        this.sessions = new Snmp[sockets];
+        this.channels = new DatagramChannel[sockets];
+        this.listening = new boolean[sockets];
+        try {
+            for (int i = 0; i < sockets; i++) {
+                sessions[i] = new Snmp(new DefaultUdpTransportMapping());
+            }
+        } catch (IOException e) {
+            close();
+            throw new InitializationException("could not open the sockets of the trap runtime", e);
+        }
+    }
+
+    private static ThreadFactory threads(String name, boolean daemon) {
+        AtomicInteger count = new AtomicInteger();
+        return runnable -> {
+            Thread thread = new Thread(runnable, name + "-" + count.getAndIncrement());
+            thread.setDaemon(daemon);
+            return thread;
+        };
+    }
+
+    ScheduledExecutorService getScheduler() {
+        return scheduler;
+    }
+
+    ExecutorService getSenders() {
+        return senders;
+    }
+
+    /**
+     * Assigns a socket to an agent.
+     *
+     * @return the index of the socket
+     */
+    int nextSlot() {
+        return Math.floorMod(nextSlot.getAndIncrement(), sessions.length);
+    }
+
+    Snmp getSession(int slot) {
+        return sessions[slot];
+    }
+
+    /**
+     * Returns the datagram channel of a socket, used to send the same encoded traps to several destinations.
+     *
+     * @param slot the index of the socket
+     * @return the channel, {@code null} until {@link #openChannel(int)} is called
+     */
+    DatagramChannel getChannel(int slot) {
+        return channels[slot];
+    }
+
+    /**
+     * Opens the datagram channel of a socket, only needed by agents sending traps to several destinations.
+     *
+     * @param slot the index of the socket
+     * @throws IOException if the channel could not be opened
+     */
+    synchronized void openChannel(int slot) throws IOException {
+        if (channels[slot] == null) {
+            channels[slot] = DatagramChannel.open();
+        }
+    }
+
+    /**
+     * Listens to the responses received on a socket, needed by INFORMs.
+     *
+     * @param slot the index of the socket
+     * @throws IOException if the socket could not listen
+     */
+    synchronized void listen(int slot) throws IOException {
+        if (!listening[slot]) {
+            sessions[slot].listen();
+            listening[slot] = true;
+        }
+    }
+
+    /**
+     * Stops the threads and closes the sockets of this runtime, traps not sent yet are discarded.
+     */
+    @Override
+    public void close() {
+        scheduler.shutdownNow();
+        senders.shutdownNow();
+        for (int i = 0; i < sessions.length; i++) {
+            try {
+                if (sessions[i] != null) {
+                    sessions[i].close();
+                }
+                if (channels[i] != null) {
+                    channels[i].close();
+                }
+            } catch (IOException e) {
+                log.warn("could not close socket of the trap runtime", e);
+            }
+        }
+        try {
+            if (!senders.awaitTermination(1, TimeUnit.SECONDS)) {
+                log.warn("trap senders did not stop in time");
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package com.eaton.telemetry.snmp;
+
+import javax.annotation.Nullable;
+import java.util.concurrent.TimeUnit;
+
+import com.google.common.base.Preconditions;
+import com.google.common.primitives.UnsignedLong;
+import org.snmp4j.smi.Counter64;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.UnsignedInteger32;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Condition on the successive values of a sensor deciding whether a trap is sent, see
+ * {@link SnmpTrapAgent#addTrigger(org.snmp4j.smi.OID, TrapTrigger)}.
+ * <br>
+ * A trigger is evaluated each time a new value of its sensor is reported, with the previous value: only the sensors
+ * whose value changes are evaluated. The values are either reported with {@link SnmpTrapAgent#update(org.snmp4j.smi.OID,
+ * Variable)}, or generated on each tick of the agent for the sensors added with
+ * {@link SnmpTrapAgent#addSensor(org.snmp4j.smi.OID, java.util.function.IntFunction, TrapTrigger)}. Triggers can be combined, e.g. an alarm sent on threshold crossings and on fast
+ * variations:
+ * <pre>
+ * {@code
+ *     TrapTrigger trigger = TrapTrigger.crossing(80).or(TrapTrigger.rateOfChange(10));
+ * }
+ * </pre>
+ */
+@FunctionalInterface
+public interface TrapTrigger {
+
+    /**
+     * Returns a trigger firing each time the value is different from the previous one, e.g. for a state.
+     *
+     * @return the trigger
+     */
+    static TrapTrigger stateChange() {
+        return (previous, previousNanos, current, currentNanos) -> previous != null && !previous.equals(current);
+    }
+
+    /**
+     * Returns a trigger firing each time the value crosses the threshold, upwards or downwards. Non-numeric values
+     * never fire.
+     *
+     * @param threshold the threshold
+     * @return the trigger
+     */
+    static TrapTrigger crossing(double threshold) {
+        return (previous, previousNanos, current, currentNanos) -> isNumber(previous) && isNumber(current)
+                && (toDouble(previous) >= threshold) != (toDouble(current) >= threshold);
+    }
+
+    /**
+     * Returns a trigger firing each time the value rises to or above the threshold.
+     *
+     * @param threshold the threshold
+     * @return the trigger
+     */
+    static TrapTrigger risingAbove(double threshold) {
+        return (previous, previousNanos, current, currentNanos) -> isNumber(previous) && isNumber(current)
+                && toDouble(previous) < threshold && toDouble(current) >= threshold;
+    }
+
+    /**
+     * Returns a trigger firing each time the value falls below the threshold.
+     *
+     * @param threshold the threshold
+     * @return the trigger
+     */
+    static TrapTrigger fallingBelow(double threshold) {
+        return (previous, previousNanos, current, currentNanos) -> isNumber(previous) && isNumber(current)
+                && toDouble(previous) >= threshold && toDouble(current) < threshold;
+    }
+
+    /**
+     * Returns a trigger firing each time the value changed faster than the specified rate since the previous value,
+     * upwards or downwards.
+     *
+     * @param maxRatePerSecond the highest rate of change not firing, in units per second
+     * @return the trigger
+     */
+    static TrapTrigger rateOfChange(double maxRatePerSecond) {
+        Preconditions.checkArgument(maxRatePerSecond >= 0, "rate should not be negative");
+        return (previous, previousNanos, current, currentNanos) -> {
+            if (!isNumber(previous) || !isNumber(current)) {
+                return false;
+            }
+            double change = Math.abs(toDouble(current) - toDouble(previous));
+            double elapsedSeconds = Math.max(currentNanos - previousNanos, 1) / (double) TimeUnit.SECONDS.toNanos(1);
+            return change / elapsedSeconds > maxRatePerSecond;
+        };
+    }
+
+    private static boolean isNumber(@Nullable Variable variable) {
+        return variable instanceof Integer32 || variable instanceof UnsignedInteger32 || variable instanceof Counter64;
+    }
+
+    /**
+     * Returns the value of a number, {@link Counter64} values being unsigned: {@link Variable#toLong()} would return
+     * negative values from 2^63 on.
+     */
+    private static double toDouble(Variable number) {
+        return number instanceof Counter64 ? UnsignedLong.fromLongBits(number.toLong()).doubleValue() : number.toLong();
+    }
+
+    /**
+     * Returns whether a trap should be sent for the current value of a sensor.
+     *
+     * @param previous      the previous value of the sensor, {@code null} for its first value
+     * @param previousNanos the time of the previous value, from {@link System#nanoTime()}
+     * @param current       the current value of the sensor
+     * @param currentNanos  the time of the current value, from {@link System#nanoTime()}
+     * @return {@code true} to send a trap with the current value
+     */
+    boolean fires(@Nullable Variable previous, long previousNanos, Variable current, long currentNanos);
+
+    /**
+     * Returns a trigger firing when this trigger or the given one fires.
+     *
+     * @param other the other trigger
+     * @return the combined trigger
+     */
+    default TrapTrigger or(TrapTrigger other) {
+        return (previous, previousNanos, current, currentNanos) -> fires(previous, previousNanos, current, currentNanos)
+                || other.fires(previous, previousNanos, current, currentNanos);
+    }
+}
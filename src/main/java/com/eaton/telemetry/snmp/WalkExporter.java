@@ -0,0 +1,247 @@
+package com.eaton.telemetry.snmp;
+
+import javax.annotation.Nullable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.function.Function;
+
+import com.google.common.base.Preconditions;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Exports what {@link SnmpAgent}s serve as walk files that can be read back with {@link Walks#readWalk(java.io.File)}.
+ * <br>
+ * Bindings are written in {@link OID} order, one at a time, through a fixed size buffer: the memory used by an export
+ * doesn't depend on the number of bindings of the agent. The value of each sensor is the variable it is bound to, see
+ * {@link SnmpSensor#getVariable()}: no value is generated, so exporting a running agent leaves the state of its
+ * generators, e.g. counters, and the cache of its lazily loaded walks untouched.
+ * <br>
+ * The values generated by the sensors are exported by the methods taking a "tick": the value of each sensor is then
+ * the one it generates for that tick, see {@link com.eaton.telemetry.Sensor#getValue(int)}, the tick counter of the
+ * sensors being left as is. The sensors of lazily loaded walks still bypass the cache.
+ * <pre>
+ * {@code
+ *     WalkExporter exporter = new WalkExporter();
+ *     exporter.export(agent, Path.of("agent.walk"));
+ *     exporter.export(agent, Path.of("agent-42.walk"), 42);
+ *     exporter.exportAll(application, Path.of("walks"), 4);
+ * }
+ * </pre>
+ */
+@Slf4j
+public class WalkExporter {
+
+    /**
+     * Default size of the buffer of an export.
+     */
+    private static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private static final byte[] LINE_SEPARATOR = "\n".getBytes(StandardCharsets.UTF_8);
+
+    /**
+     * The size of the buffer of an export.
+     */
+    private final int bufferSize;
+
+    /**
+     * Creates an exporter with a buffer of 64 KiB per export.
+     */
+    public WalkExporter() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    /**
+     * Creates an exporter.
+     *
+     * @param bufferSize the size of the buffer of an export
+     */
+    public WalkExporter(int bufferSize) {
+        Preconditions.checkArgument(bufferSize > 0, "buffer size should be positive");
+        this.bufferSize = bufferSize;
+    }
+
+    /**
+     * Exports the bindings of an agent into a walk file, the file is replaced if it already exists.
+     *
+     * @param agent the agent to export
+     * @param walk  the walk file to write
+     * @return the number of exported bindings
+     * @throws IOException if the file could not be written
+     */
+    public int export(SnmpAgent agent, Path walk) throws IOException {
+        try (FileChannel channel = open(walk)) {
+            return export(agent, channel);
+        }
+    }
+
+    /**
+     * Exports the values generated by the sensors of an agent for a tick into a walk file, the file is replaced if it
+     * already exists.
+     *
+     * @param agent the agent to export
+     * @param walk  the walk file to write
+     * @param tick  the tick for which values are generated
+     * @return the number of exported bindings
+     * @throws IOException if the file could not be written
+     */
+    public int export(SnmpAgent agent, Path walk, int tick) throws IOException {
+        try (FileChannel channel = open(walk)) {
+            return export(agent, channel, tick);
+        }
+    }
+
+    /**
+     * Exports the bindings of an agent into a channel, the channel is not closed.
+     * <br>
+     * Bindings whose value is {@code null} or can't be represented in a walk are skipped.
+     *
+     * @param agent   the agent to export
+     * @param channel the channel to write the walk to
+     * @return the number of exported bindings
+     * @throws IOException if the channel could not be written
+     */
+    public int export(SnmpAgent agent, WritableByteChannel channel) throws IOException {
+        return export(agent, channel, LazyWalk::peekVariable);
+    }
+
+    /**
+     * Exports the values generated by the sensors of an agent for a tick into a channel, the channel is not closed.
+     * <br>
+     * Bindings whose value is {@code null} or can't be represented in a walk are skipped.
+     *
+     * @param agent   the agent to export
+     * @param channel the channel to write the walk to
+     * @param tick    the tick for which values are generated
+     * @return the number of exported bindings
+     * @throws IOException if the channel could not be written
+     */
+    public int export(SnmpAgent agent, WritableByteChannel channel, int tick) throws IOException {
+        return export(agent, channel, sensor -> LazyWalk.getWalk(sensor) != null ? LazyWalk.peekVariable(sensor) : sensor.getValue(tick));
+    }
+
+    private int export(SnmpAgent agent, WritableByteChannel channel, Function<SnmpSensor<Variable>, Variable> values) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate(bufferSize);
+        int count = 0;
+        for (Map.Entry<OID, SnmpSensor<Variable>> binding : agent.getBindings().entrySet()) {
+            Variable value = values.apply(binding.getValue());
+            String line = value != null ? Walks.formatVariableBinding(binding.getKey(), value) : null;
+            if (line == null) {
+                log.debug("OID {} of agent \"{}\" has no value to export", binding.getKey(), agent.getName());
+                continue;
+            }
+            write(channel, buffer, line.getBytes(StandardCharsets.UTF_8));
+            write(channel, buffer, LINE_SEPARATOR);
+            count++;
+        }
+        flush(channel, buffer);
+        log.debug("exported {} bindings of agent \"{}\"", count, agent.getName());
+        return count;
+    }
+
+    /**
+     * Exports the bindings of every agent of an application, concurrently, into one walk file per agent.
+     * <br>
+     * Walk files are named after the agents, characters other than letters, digits, dots, dashes and underscores
+     * being replaced by underscores, e.g. {@code 127.0.0.1_10000.txt}.
+     *
+     * @param application the application to export
+     * @param directory   the directory to write the walk files into, created if needed
+     * @param parallelism the maximum number of agents exported concurrently
+     * @return the walk files, in the order of the agents of the application
+     * @throws IOException if a walk file could not be written
+     */
+    public List<Path> exportAll(SnmpApplication application, Path directory, int parallelism) throws IOException {
+        return exportAgents(application, directory, null, parallelism);
+    }
+
+    /**
+     * Exports the values generated by the sensors of every agent of an application for a tick, concurrently, into one
+     * walk file per agent, named as by {@link #exportAll(SnmpApplication, Path, int)}.
+     *
+     * @param application the application to export
+     * @param directory   the directory to write the walk files into, created if needed
+     * @param tick        the tick for which values are generated
+     * @param parallelism the maximum number of agents exported concurrently
+     * @return the walk files, in the order of the agents of the application
+     * @throws IOException if a walk file could not be written
+     */
+    public List<Path> exportAll(SnmpApplication application, Path directory, int tick, int parallelism) throws IOException {
+        return exportAgents(application, directory, tick, parallelism);
+    }
+
+    private List<Path> exportAgents(SnmpApplication application, Path directory, @Nullable Integer tick, int parallelism) throws IOException {
+        Preconditions.checkArgument(parallelism > 0, "parallelism should be positive");
+        Files.createDirectories(directory);
+        ExecutorService exportService = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<Future<Path>> exports = new ArrayList<>();
+            for (SnmpAgent agent : application.getAgents()) {
+                Path walk = directory.resolve(agent.getName().replaceAll("[^A-Za-z0-9._-]", "_") + ".txt");
+                exports.add(exportService.submit(() -> {
+                    if (tick != null) {
+                        export(agent, walk, tick);
+                    } else {
+                        export(agent, walk);
+                    }
+                    return walk;
+                }));
+            }
+            List<Path> walks = new ArrayList<>(exports.size());
+            for (Future<Path> export : exports) {
+                walks.add(export.get());
+            }
+            return walks;
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof IOException ioException) {
+                throw ioException;
+            }
+            throw new IllegalStateException("could not export agents into " + directory, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("export of agents into " + directory + " was interrupted", e);
+        } finally {
+            exportService.shutdownNow();
+        }
+    }
+
+    private static FileChannel open(Path walk) throws IOException {
+        return FileChannel.open(walk, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    private static void write(WritableByteChannel channel, ByteBuffer buffer, byte[] bytes) throws IOException {
+        if (bytes.length > buffer.remaining()) {
+            flush(channel, buffer);
+            if (bytes.length > buffer.capacity()) {
+                ByteBuffer large = ByteBuffer.wrap(bytes);
+                while (large.hasRemaining()) {
+                    channel.write(large);
+                }
+                return;
+            }
+        }
+        buffer.put(bytes);
+    }
+
+    private static void flush(WritableByteChannel channel, ByteBuffer buffer) throws IOException {
+        buffer.flip();
+        while (buffer.hasRemaining()) {
+            channel.write(buffer);
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,189 @@
+package com.eaton.telemetry.snmp;
+
+import java.io.IOException;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+import java.util.stream.Stream;
+
+import com.eaton.telemetry.Device;
+import com.eaton.telemetry.Sensor;
+import com.google.common.base.Preconditions;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.MoreFiles;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Loads a fleet of {@link SnmpAgent}s from a directory holding one walk file per device.
+ * <br>
+ * Walk files are read and parsed on a bounded pool while the agents whose walk is ready are started, one after the
+ * other, into a {@link SnmpApplication}: startup of the first agents overlaps the parsing of the next walks. Walks with
+ * the same content, compared by their SHA-256, are parsed once and their variables shared by the agents.
+ * <pre>
+ * {@code
+ *     SnmpApplication fleet = new WalkFleetLoader(8, "*.{txt,gz}")
+ *             .load(Path.of("walks"), WalkFleetLoader.sequentialPorts("127.0.0.1", 10000));
+ * }
+ * </pre>
+ */
+@Slf4j
+public class WalkFleetLoader {
+
+    /**
+     * Returns a configuration factory binding the agents on the specified IP, the first walk on the specified port
+     * and the next ones on the following ports. Agents are named after their walk file.
+     *
+     * @param ip        the IP the agents should bind to
+     * @param firstPort the port of the first agent
+     * @return the configuration factory
+     */
+    public static Function<Path, AgentConfiguration> sequentialPorts(String ip, int firstPort) {
+        AtomicInteger port = new AtomicInteger(firstPort);
+        return walk -> {
+            String name = walk.getFileName().toString();
+            return new AgentConfiguration(name, new Device(name, Set.of(), List.of()), ip, port.getAndIncrement(), null);
+        };
+    }
+
+    /**
+     * The maximum number of walks read and parsed concurrently.
+     *
+     * @return the parallelism of the loader
+     */
+    @Getter private final int parallelism;
+
+    /**
+     * Selects the walk files of the directory by their name.
+     */
+    private final PathMatcher walkMatcher;
+
+    /**
+     * Creates a loader parsing as many walks as available processors concurrently and considering every file of the
+     * directory as a walk.
+     */
+    public WalkFleetLoader() {
+        this(Runtime.getRuntime().availableProcessors(), "*");
+    }
+
+    /**
+     * Creates a loader.
+     *
+     * @param parallelism the maximum number of walks read and parsed concurrently
+     * @param glob        the glob pattern selecting the walk files by their name, e.g. {@code *.{txt,gz}}
+     */
+    public WalkFleetLoader(int parallelism, String glob) {
+        Preconditions.checkArgument(parallelism > 0, "parallelism should be positive");
+        this.parallelism = parallelism;
+        this.walkMatcher = FileSystems.getDefault().getPathMatcher("glob:" + glob);
+    }
+
+    /**
+     * Loads the walks of the specified directory and starts one agent per walk.
+     *
+     * @param directory      the directory holding the walks, sub directories are ignored
+     * @param configurations creates the configuration of the agent serving a walk, called in walk name order
+     * @return the application running the agents
+     * @throws IOException             if the directory could not be listed
+     * @throws InitializationException if a walk could not be read or an agent could not be started
+     */
+    public SnmpApplication load(Path directory, Function<Path, AgentConfiguration> configurations) throws IOException {
+        List<Path> walks;
+        try (Stream<Path> files = Files.list(directory)) {
+            walks = files.filter(Files::isRegularFile)
+                    .filter(file -> walkMatcher.matches(file.getFileName()))
+                    .sorted()
+                    .toList();
+        }
+        log.info("loading {} walks from {}", walks.size(), directory);
+
+        Map<HashCode, CompletableFuture<Map<OID, Variable>>> parsedWalks = new ConcurrentHashMap<>();
+        ExecutorService parserService = Executors.newFixedThreadPool(parallelism);
+        CompletionService<SnmpAgent> agents = new ExecutorCompletionService<>(parserService);
+        SnmpApplication application = SnmpApplication.create();
+        try {
+            for (Path walk : walks) {
+                AgentConfiguration configuration = configurations.apply(walk);
+                agents.submit(() -> createAgent(configuration, walk, parsedWalks));
+            }
+            for (int i = 0; i < walks.size(); i++) {
+                application.addAgent(agents.take().get());
+            }
+        } catch (ExecutionException e) {
+            application.stop();
+            throw new InitializationException("could not load walks from " + directory, e.getCause());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            application.stop();
+            throw new InitializationException("loading of walks from " + directory + " was interrupted", e);
+        } catch (InitializationException e) {
+            application.stop();
+            throw e;
+        } finally {
+            parserService.shutdownNow();
+        }
+        log.info("{} agents loaded from {} distinct walks", walks.size(), parsedWalks.size());
+        return application;
+    }
+
+    /**
+     * Reads the specified walk, parses it unless a walk with the same content has already been parsed, and creates
+     * the agent serving it.
+     */
+    private SnmpAgent createAgent(AgentConfiguration configuration, Path walk,
+                                  Map<HashCode, CompletableFuture<Map<OID, Variable>>> parsedWalks) throws IOException {
+        // the walk is hashed and then parsed while streamed, neither pass holding the whole file in memory
+        HashCode hash = MoreFiles.asByteSource(walk).hash(Hashing.sha256());
+        CompletableFuture<Map<OID, Variable>> parsing = new CompletableFuture<>();
+        CompletableFuture<Map<OID, Variable>> parsed = parsedWalks.putIfAbsent(hash, parsing);
+        Map<OID, Variable> bindings;
+        if (parsed != null) {
+            log.debug("walk {} has the same content as a walk already parsed", walk);
+            bindings = parsed.join();
+        } else {
+            try {
+                bindings = Walks.readWalk(walk.toFile());
+                parsing.complete(bindings);
+            } catch (IOException | RuntimeException e) {
+                parsing.completeExceptionally(e);
+                throw e;
+            }
+        }
+
+        // the modifiers of the device are added last so that they take precedence over the walk
+        Set<SnmpSensor<Variable>> sensors = new LinkedHashSet<>(bindings.size() * 4 / 3 + 1);
+        bindings.forEach((oid, variable) -> sensors.add(new SnmpSensor<>(oid, variable, tick -> variable)));
+        for (Sensor<?, ?> modifier : configuration.getDevice().getModifiers()) {
+            if (modifier instanceof SnmpSensor<?> sensor) {
+                sensors.add(asVariableSensor(sensor));
+            }
+        }
+        return new SnmpAgent(configuration, sensors);
+    }
+
+    /**
+     * Views a sensor of any {@link Variable} type as a sensor of {@link Variable}s, as served by {@link SnmpAgent}.
+     */
+    @SuppressWarnings("unchecked")
+    private static SnmpSensor<Variable> asVariableSensor(SnmpSensor<?> sensor) {
+        // its values are only read as variables, and only set by SET requests of the same syntax, see MOGroup#commit
+        return (SnmpSensor<Variable>) sensor;
+    }
+}
@@ -0,0 +1,248 @@
+package com.eaton.telemetry.snmp;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.Path;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.Variable;
+
+/**
+ * Watches walk files and applies their changes to running {@link SnmpAgent}s.
+ * <br>
+ * When a watched walk is modified, only this walk is read again and compared, {@link OID} by {@link OID}, to the
+ * bindings it previously provided. The added, removed and changed bindings are then applied to the agent with
+ * {@link SnmpAgent#updateBindings(Map, java.util.Collection)}, the agent keeps running and the other sensors, for
+ * instance counters, keep their state.
+ * <br>
+ * Only the bindings created by this watcher are changed or removed: an {@link OID} bound by the agent to another sensor,
+ * e.g. a generator of the {@link com.eaton.telemetry.Device}, is left untouched.
+ * <pre>
+ * {@code
+ *     WalkWatcher watcher = new WalkWatcher();
+ *     watcher.watch(agent, new File("device.walk"));
+ *     agent.execute();
+ *     watcher.start();
+ * }
+ * </pre>
+ */
+@Slf4j
+public class WalkWatcher {
+
+    /**
+     * Default delay between the last modification of a file and its reload.
+     */
+    private static final Duration DEFAULT_SETTLE_DELAY = Duration.ofMillis(500);
+
+    /**
+     * The watched walks, by absolute path.
+     */
+    private final Map<Path, WatchedWalk> walks = new ConcurrentHashMap<>();
+
+    /**
+     * The pending reloads, by absolute path.
+     */
+    private final Map<Path, ScheduledFuture<?>> pendingReloads = new ConcurrentHashMap<>();
+
+    private final ScheduledExecutorService reloadService = Executors.newSingleThreadScheduledExecutor(runnable -> {
+        Thread thread = new Thread(runnable, "WalkWatcher");
+        thread.setDaemon(true);
+        return thread;
+    });
+
+    /**
+     * Delay to wait after a modification event before reloading, several events being emitted while a file is written.
+     */
+    private final Duration settleDelay;
+
+    private final WatchService watchService;
+
+    /**
+     * Creates a watcher with a default settle delay of 500 milliseconds.
+     */
+    public WalkWatcher() {
+        this(DEFAULT_SETTLE_DELAY);
+    }
+
+    /**
+     * Creates a watcher.
+     *
+     * @param settleDelay delay to wait after the last modification of a walk before reloading it
+     */
+    public WalkWatcher(Duration settleDelay) {
+        this.settleDelay = settleDelay;
+        try {
+            this.watchService = FileSystems.getDefault().newWatchService();
+        } catch (IOException e) {
+            throw new InitializationException("could not create the walk watch service", e);
+        }
+    }
+
+    /**
+     * Reads the specified walk, binds its content to the agent and watches it for changes.
+     *
+     * @param agent the agent serving the walk
+     * @param walk  the walk file
+     * @throws IOException if the walk could not be read or watched
+     */
+    public void watch(SnmpAgent agent, File walk) throws IOException {
+        Path path = walk.toPath().toAbsolutePath();
+        WatchedWalk watchedWalk = new WatchedWalk(agent, walk);
+        watchedWalk.apply(Walks.readWalk(walk));
+        path.getParent().register(watchService, StandardWatchEventKinds.ENTRY_CREATE, StandardWatchEventKinds.ENTRY_MODIFY);
+        walks.put(path, watchedWalk);
+    }
+
+    /**
+     * Starts watching the walks in a dedicated daemon thread.
+     */
+    public void start() {
+        Thread thread = new Thread(this::poll, "WalkWatcher-poll");
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /**
+     * Stops watching the walks, pending reloads are cancelled.
+     */
+    public void stop() {
+        reloadService.shutdownNow();
+        try {
+            watchService.close();
+        } catch (IOException e) {
+            log.warn("could not close the walk watch service", e);
+        }
+    }
+
+    private void poll() {
+        try {
+            while (true) {
+                WatchKey key = watchService.take();
+                Path directory = (Path) key.watchable();
+                for (WatchEvent<?> event : key.pollEvents()) {
+                    if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                        walks.keySet().stream().filter(path -> path.getParent().equals(directory)).forEach(this::scheduleReload);
+                    } else {
+                        Path path = directory.resolve((Path) event.context());
+                        if (walks.containsKey(path)) {
+                            scheduleReload(path);
+                        }
+                    }
+                }
+                key.reset();
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ClosedWatchServiceException e) {
+            log.debug("walk watch service closed");
+        }
+    }
+
+    /**
+     * Schedules the reload of a walk, replacing the pending one if any so that a file being written is reloaded once.
+     */
+    private void scheduleReload(Path path) {
+        ScheduledFuture<?> reload = reloadService.schedule(() -> reload(path), settleDelay.toMillis(), TimeUnit.MILLISECONDS);
+        ScheduledFuture<?> previous = pendingReloads.put(path, reload);
+        if (previous != null) {
+            previous.cancel(false);
+        }
+    }
+
+    /**
+     * Reads again the walk at the specified path and applies its changes to its agent.
+     *
+     * @param path the path of the walk
+     */
+    void reload(Path path) {
+        pendingReloads.remove(path);
+        WatchedWalk watchedWalk = walks.get(path);
+        try {
+            watchedWalk.apply(Walks.readWalk(path.toFile()));
+        } catch (IOException e) {
+            log.warn("could not reload walk {}, agent \"{}\" keeps its previous bindings", path, watchedWalk.agent.getName(), e);
+        }
+    }
+
+    /**
+     * A walk bound to an agent, with the sensors it provides to the agent.
+     */
+    private static final class WatchedWalk {
+
+        private final SnmpAgent agent;
+
+        private final File file;
+
+        /**
+         * The sensors created from the walk, by OID.
+         */
+        private final Map<OID, SnmpSensor<Variable>> sensors = new HashMap<>();
+
+        private WatchedWalk(SnmpAgent agent, File file) {
+            this.agent = agent;
+            this.file = file;
+        }
+
+        /**
+         * Applies the difference between the specified walk content and the previous one to the agent.
+         * <br>
+         * The walk is compared to the previous content in place: only the added, changed and removed bindings are
+         * looked up in the agent and applied to it, the unchanged ones keep their sensor.
+         *
+         * @param walk the new content of the walk
+         */
+        private synchronized void apply(Map<OID, Variable> walk) {
+            Map<OID, SnmpSensor<Variable>> upserts = new HashMap<>();
+            List<OID> removals = new ArrayList<>();
+            for (Map.Entry<OID, Variable> binding : walk.entrySet()) {
+                OID oid = binding.getKey();
+                SnmpSensor<Variable> previous = sensors.get(oid);
+                if (previous != null && previous.getVariable().equals(binding.getValue())) {
+                    continue;
+                }
+                SnmpSensor<Variable> live = agent.getBinding(oid);
+                if (live == null || live == previous) {
+                    Variable variable = binding.getValue();
+                    upserts.put(oid, new SnmpSensor<>(oid, variable, tick -> variable));
+                } else if (previous != null) {
+                    // bound to another sensor since, the walk no longer provides it
+                    sensors.remove(oid);
+                }
+            }
+            Iterator<Map.Entry<OID, SnmpSensor<Variable>>> previousSensors = sensors.entrySet().iterator();
+            while (previousSensors.hasNext()) {
+                Map.Entry<OID, SnmpSensor<Variable>> previous = previousSensors.next();
+                if (!walk.containsKey(previous.getKey())) {
+                    previousSensors.remove();
+                    if (agent.getBinding(previous.getKey()) == previous.getValue()) {
+                        removals.add(previous.getKey());
+                    }
+                }
+            }
+            sensors.putAll(upserts);
+            if (!upserts.isEmpty() || !removals.isEmpty()) {
+                agent.updateBindings(upserts, removals);
+                log.info("walk {} reloaded for agent \"{}\": {} bindings added or changed, {} removed",
+                        file, agent.getName(), upserts.size(), removals.size());
+            }
+        }
+    }
+}
@@ -1,17 +1,30 @@
 package com.eaton.telemetry.snmp;
 
+import java.io.BufferedInputStream;
 import java.io.BufferedReader;
 import java.io.File;
 import java.io.FileInputStream;
 import java.io.FileNotFoundException;
+import java.io.FilterInputStream;
 import java.io.IOException;
+import java.io.InputStream;
 import java.io.InputStreamReader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
 import java.nio.charset.Charset;
 import java.nio.charset.StandardCharsets;
+import java.nio.file.NoSuchFileException;
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
 
 import com.google.common.primitives.UnsignedLong;
 import lombok.extern.slf4j.Slf4j;
@@ -23,6 +36,7 @@ import org.snmp4j.smi.IpAddress;
 import org.snmp4j.smi.OID;
 import org.snmp4j.smi.OctetString;
 import org.snmp4j.smi.TimeTicks;
+import org.snmp4j.smi.UnsignedInteger32;
 import org.snmp4j.smi.Variable;
 
 /**
@@ -34,24 +48,41 @@ public class Walks {
     /**
      * The default charset for files being read.
      */
-    private static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
+    static final Charset DEFAULT_CHARSET = StandardCharsets.UTF_8;
 
     /**
      * The pattern of variable bindings in a walk file.
      */
-    private static final Pattern VARIABLE_BINDING_PATTERN = Pattern.compile("(((iso)?\\.[0-9]+)+) = ((([a-zA-Z0-9-]+): (.*)$)|(\"\"$))");
+    static final Pattern VARIABLE_BINDING_PATTERN = Pattern.compile("(((iso)?\\.[0-9]+)+) = ((([a-zA-Z0-9-]+): (.*)$)|(\"\"$))");
 
     /**
      * The pattern of a Hex-STRING continuation line in a walk file.
      */
     private static final Pattern HEX_STRING_PATTERN = Pattern.compile("([0-9a-fA-F]{2})( [0-9a-fA-F]{2})* *");
 
+    /**
+     * The size of the buffers reading the walks, see {@link #BUFFER_POOL}.
+     */
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    /**
+     * The size of the buffers of the decompressing streams.
+     */
+    private static final int DECOMPRESSION_BUFFER_SIZE = 8 * 1024;
+
+    /**
+     * Pool of the buffers reading the walks, so that loading many walks doesn't allocate a buffer for each of them.
+     */
+    private static final BlockingQueue<byte[]> BUFFER_POOL = new ArrayBlockingQueue<>(Runtime.getRuntime().availableProcessors() * 2);
+
     private Walks() {
 
     }
 
     /**
      * Reads a walk from a file.
+     * <br>
+     * The file may be compressed, see {@link #readWalk(InputStream, String)}.
      *
      * @param walk the walk file to read.
      * @return the map of oid to variable binding from the file.
@@ -59,10 +90,8 @@ public class Walks {
      */
     public static Map<OID, Variable> readWalk(File walk) throws IOException {
         log.debug("Reading walk from file {}", walk);
-        try (BufferedReader reader = new BufferedReader(new InputStreamReader(new FileInputStream(walk), DEFAULT_CHARSET))) {
-            Map<OID, Variable> result = readVariableBindings(walk, reader);
-            log.debug("Walk contains {} variable bindings", result.size());
-            return result;
+        try (InputStream input = new FileInputStream(walk)) {
+            return readWalk(input, walk.getAbsolutePath());
         } catch (FileNotFoundException e) {
             log.error("walk file {} not found", walk.getAbsolutePath());
             throw e;
@@ -72,13 +101,118 @@ public class Walks {
         }
     }
 
+    /**
+     * Reads a walk from a channel, the channel is not closed.
+     *
+     * @param channel the channel to read the walk from.
+     * @param source  the name of the walk used in logs, e.g. its path or URL.
+     * @return the map of oid to variable binding from the channel.
+     * @throws IOException if the channel could not be read.
+     * @see #readWalk(InputStream, String)
+     */
+    public static Map<OID, Variable> readWalk(ReadableByteChannel channel, String source) throws IOException {
+        return readWalk(Channels.newInputStream(channel), source);
+    }
+
+    /**
+     * Reads a walk from a stream, the stream is not closed.
+     * <br>
+     * The content is decompressed while being parsed if it is compressed in a format the JDK can read: gzip, zlib or
+     * zip (first entry of the archive). The format is detected from the first bytes of the content, so compressed
+     * walks never need to be staged on disk.
+     *
+     * @param input  the stream to read the walk from.
+     * @param source the name of the walk used in logs, e.g. its path or URL.
+     * @return the map of oid to variable binding from the stream.
+     * @throws IOException if the stream could not be read.
+     */
+    public static Map<OID, Variable> readWalk(InputStream input, String source) throws IOException {
+        PooledBufferedInputStream buffered = new PooledBufferedInputStream(new UncloseableInputStream(input));
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(decompress(buffered, source), DEFAULT_CHARSET))) {
+            Map<OID, Variable> result = readVariableBindings(source, reader);
+            log.debug("Walk contains {} variable bindings", result.size());
+            return result;
+        } finally {
+            buffered.close();
+        }
+    }
+
+    /**
+     * Wraps the specified stream into the decompressing stream matching its magic number, if any.
+     *
+     * @param input  the stream, it should support mark
+     * @param source the name of the walk used in logs
+     * @return the decompressing stream or the specified stream if its content is not compressed
+     * @throws IOException if the stream could not be read
+     */
+    private static InputStream decompress(InputStream input, String source) throws IOException {
+        input.mark(4);
+        int first = input.read();
+        int second = input.read();
+        int third = input.read();
+        int fourth = input.read();
+        input.reset();
+        if (first == 0x1f && second == 0x8b) {
+            log.debug("walk {} is gzip compressed", source);
+            return new GZIPInputStream(input, DECOMPRESSION_BUFFER_SIZE);
+        } else if (first == 'P' && second == 'K' && third == 3 && fourth == 4) {
+            log.debug("walk {} is a zip archive", source);
+            ZipInputStream zip = new ZipInputStream(input);
+            ZipEntry entry = zip.getNextEntry();
+            while (entry != null && entry.isDirectory()) {
+                entry = zip.getNextEntry();
+            }
+            if (entry == null) {
+                throw new IOException("zip archive " + source + " does not contain any walk");
+            }
+            return zip;
+        } else if (first == 0x78 && (first * 256 + second) % 31 == 0) {
+            log.debug("walk {} is zlib compressed", source);
+            Inflater inflater = new Inflater();
+            // an inflater given to the stream is not ended by it, its native memory would be held until collected
+            return new InflaterInputStream(input, inflater, DECOMPRESSION_BUFFER_SIZE) {
+                @Override
+                public void close() throws IOException {
+                    try {
+                        super.close();
+                    } finally {
+                        inflater.end();
+                    }
+                }
+            };
+        }
+        return input;
+    }
+
+    /**
+     * Maps a walk file in memory, its variables being decoded on first access rather than upfront.
+     *
+     * @param walk      the walk file to map.
+     * @param cacheSize the maximum number of decoded variables kept in memory.
+     * @return the lazy walk, see {@link LazyWalk#getSensors()} to serve it from an agent.
+     * @throws IOException if the file could not be read.
+     */
+    public static LazyWalk mapWalk(File walk, int cacheSize) throws IOException {
+        log.debug("Mapping walk from file {}", walk);
+        try {
+            return new LazyWalk(walk, cacheSize);
+        } catch (FileNotFoundException | NoSuchFileException e) {
+            log.error("walk file {} not found", walk.getAbsolutePath());
+            throw e;
+        } catch (IOException e) {
+            log.error("could not map walk file " + walk.getAbsolutePath(), e);
+            throw e;
+        }
+    }
+
     /**
      * Reads all variable bindings using {@link #VARIABLE_BINDING_PATTERN}.
      *
+     * @param walk   the name of the walk used in logs.
      * @param reader the reader to read the bindings from.
      * @return the map of oid to variable binding.
      */
-    private static Map<OID, Variable> readVariableBindings(File walk, BufferedReader reader) throws IOException {
+    static Map<OID, Variable> readVariableBindings(String walk, BufferedReader reader) throws IOException {
         Map<OID, Variable> bindings = new HashMap<>();
         OID lastOid = null;
         String lastType = null;
@@ -106,7 +240,7 @@ public class Walks {
                     bindings.put(oid, variable);
                     log.trace("added binding from line {} with oid \"{}\" and variable \"{}\"", lineNumber, oid, variable);
                 } catch (Exception e) {
-                    log.warn("could not parse line {} with \"{}\" of walk file {} with exception: {}", lineNumber, line, walk.getCanonicalPath(), e.getMessage());
+                    log.warn("could not parse line {} with \"{}\" of walk file {} with exception: {}", lineNumber, line, walk, e.getMessage());
                 }
             }
 
@@ -126,7 +260,7 @@ public class Walks {
                     bindings.put(lastOid, new OctetString(combined));
                 } else {
                     log.warn("Could not find the previous octet string of OID {} in walk file {} at line {}",
-                            lastOid, walk.getAbsolutePath(), lineNumber);
+                            lastOid, walk, lineNumber);
                 }
             }
 
@@ -145,13 +279,13 @@ public class Walks {
                         bindings.put(lastOid, new OctetString(combined));
                     } else {
                         log.warn("Could not find the previous octet string of OID {} in walk file {} at line {}",
-                                lastOid, walk.getAbsolutePath(), lineNumber);
+                                lastOid, walk, lineNumber);
                     }
                 }
             }
 
             if (!match) {
-                log.warn("Could not parse line number {} with content \"{}\" of walk file {}", lineNumber, line, walk.getAbsolutePath());
+                log.warn("Could not parse line number {} with content \"{}\" of walk file {}", lineNumber, line, walk);
             }
         }
         return bindings;
@@ -206,4 +340,79 @@ public class Walks {
                 throw new IllegalArgumentException("illegal type \"" + type + "\" in walk detected");
         }
     }
+
+    /**
+     * Formats a variable binding as a line of a walk file, the opposite of {@link #getVariable(String, String)}.
+     * <br>
+     * Printable octet strings are written as {@code STRING}, with continuation lines if they contain line breaks, and
+     * other octet strings as {@code Hex-STRING}.
+     *
+     * @param oid      the OID of the binding
+     * @param variable the variable of the binding
+     * @return the line, without line terminator, or {@code null} if the variable has no representation in a walk
+     */
+    static String formatVariableBinding(OID oid, Variable variable) {
+        String prefix = "." + oid.toDottedString() + " = ";
+        if (variable instanceof Counter64 counter64) {
+            return prefix + "Counter64: " + UnsignedLong.fromLongBits(counter64.getValue());
+        } else if (variable instanceof Counter32 counter32) {
+            return prefix + "Counter32: " + counter32.getValue();
+        } else if (variable instanceof TimeTicks timeTicks) {
+            return prefix + "Timeticks: (" + timeTicks.getValue() + ") " + timeTicks;
+        } else if (variable instanceof UnsignedInteger32 unsignedInteger32) {
+            // Gauge32 and Unsigned32 share the same encoding
+            return prefix + "Gauge32: " + unsignedInteger32.getValue();
+        } else if (variable instanceof Integer32 integer32) {
+            return prefix + "INTEGER: " + integer32.getValue();
+        } else if (variable instanceof IpAddress ipAddress) {
+            return prefix + "IpAddress: " + ipAddress;
+        } else if (variable instanceof OID value) {
+            return prefix + "OID: ." + value.toDottedString();
+        } else if (variable instanceof OctetString octetString) {
+            if (octetString.length() == 0) {
+                return prefix + "\"\"";
+            } else if (octetString.isPrintable()) {
+                return prefix + "STRING: \"" + octetString + "\"";
+            }
+            return prefix + "Hex-STRING: " + octetString.toHexString(' ').toUpperCase();
+        }
+        return null;
+    }
+
+    /**
+     * {@link BufferedInputStream} borrowing its buffer from {@link #BUFFER_POOL} and giving it back on close.
+     */
+    private static final class PooledBufferedInputStream extends BufferedInputStream {
+
+        private PooledBufferedInputStream(InputStream input) {
+            super(input, 1);
+            byte[] buffer = BUFFER_POOL.poll();
+            this.buf = buffer != null ? buffer : new byte[BUFFER_SIZE];
+        }
+
+        @Override
+        public void close() throws IOException {
+            byte[] buffer = buf;
+            super.close();
+            // the buffer may have been replaced by a larger one to honor a mark
+            if (buffer != null && buffer.length == BUFFER_SIZE) {
+                BUFFER_POOL.offer(buffer);
+            }
+        }
+    }
+
+    /**
+     * Stream that doesn't close the stream it wraps, the callers of {@link #readWalk(InputStream, String)} own it.
+     */
+    private static final class UncloseableInputStream extends FilterInputStream {
+
+        private UncloseableInputStream(InputStream input) {
+            super(input);
+        }
+
+        @Override
+        public void close() {
+            // the wrapped stream is closed by its owner
+        }
+    }
 }
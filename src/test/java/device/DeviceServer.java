@@ -0,0 +1,23 @@
+package device;
+
+import java.io.File;
+
+import com.eaton.telemetry.device.MultiProtocolDevice;
+
+/**
+ * Runs the device of a device file, {@code src/test/resources/ups-device.yaml} by default, over SNMP and Modbus until
+ * interrupted, printing its values every 10 ticks.
+ */
+public class DeviceServer {
+
+    public static void main(String[] args) throws InterruptedException {
+        File deviceFile = new File(args.length > 0 ? args[0] : "src/test/resources/ups-device.yaml");
+        try (MultiProtocolDevice device = MultiProtocolDevice.start(deviceFile)) {
+            while (!Thread.currentThread().isInterrupted()) {
+                Thread.sleep(10_000);
+                System.out.printf("tick %d: output voltage %.1f V, output load %.1f %%%n",
+                        device.getTick(), device.getValue("outputVoltage"), device.getValue("outputLoad"));
+            }
+        }
+    }
+}
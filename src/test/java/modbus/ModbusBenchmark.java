@@ -0,0 +1,133 @@
+package modbus;
+
+import java.io.File;
+import java.io.FileReader;
+import java.io.FileWriter;
+import java.io.IOException;
+import java.io.Reader;
+import java.io.Writer;
+import java.math.BigInteger;
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Properties;
+
+import com.eaton.telemetry.modbus.ModbusAgent;
+import com.eaton.telemetry.modbus.ModbusRuntime;
+import com.eaton.telemetry.modbus.ModbusSensor;
+
+/**
+ * Benchmark suite of the Modbus TCP path: runs a {@link ModbusLoadGenerator} against a local {@link ModbusAgent} for
+ * a set of scenarios, from a single connection with one transaction in flight to hundreds of pipelining connections
+ * with writes, and reports the throughput and the p50/p99 latencies of each one.
+ * <br>
+ * Given a baseline file, the results are compared to it, and the suite exits with status 1 if a scenario lost more than
+ * 20% of its throughput, more than doubled its p99 latency, or got exception responses: the baseline is written on the
+ * first run, on the machine it is compared on. Arguments, all optional: the duration of a scenario in seconds, the
+ * baseline file and {@code inline} to generate the values on each read rather than in snapshots.
+ */
+public class ModbusBenchmark {
+
+    private static final String[] SCENARIOS = {
+            "1 x 1 3:100",
+            "1 x 16 3:100",
+            "16 x 1 3:100",
+            "16 x 16 3:70,4:20,1:10",
+            "16 x 16 3:60,16:20,6:10,23:10",
+            "256 x 4 3:100",
+    };
+
+    private static final double MIN_THROUGHPUT_RATIO = 0.8;
+
+    private static final double MAX_P99_RATIO = 2;
+
+    private static final Duration WARM_UP = Duration.ofSeconds(2);
+
+    private static final int SPAN = 1000;
+
+    public static void main(String[] args) throws Exception {
+        Duration duration = Duration.ofSeconds(args.length > 0 ? Long.parseLong(args[0]) : 3);
+        File baselineFile = args.length > 1 ? new File(args[1]) : null;
+        boolean inline = args.length > 2 && "inline".equals(args[2]);
+
+        int threads = Runtime.getRuntime().availableProcessors();
+        ModbusRuntime runtime = new ModbusRuntime(threads);
+        ModbusAgent agent = new ModbusAgent("benchmark", new InetSocketAddress("127.0.0.1", 0), new HashSet<>(), runtime);
+        agent.addSensor(ModbusSensor.holding(1, 0, SPAN, tick -> new short[SPAN]));
+        agent.addSensor(ModbusSensor.input(1, 0, SPAN, tick -> new short[]{(short) tick}));
+        agent.addSensor(ModbusSensor.coils(1, 0, SPAN, tick -> BigInteger.valueOf(tick)));
+        if (!inline) {
+            agent.enableSnapshots(Duration.ofSeconds(1));
+        }
+        agent.start();
+        InetSocketAddress target = new InetSocketAddress("127.0.0.1", agent.getPort());
+
+        Properties baseline = new Properties();
+        if (baselineFile != null && baselineFile.exists()) {
+            try (Reader reader = new FileReader(baselineFile)) {
+                baseline.load(reader);
+            }
+        }
+        Properties results = new Properties();
+        List<String> regressions = new ArrayList<>();
+
+        System.out.printf("%-32s %12s %10s %10s %10s %10s%n", "scenario", "tps", "p50 us", "p99 us", "max us", "exceptions");
+        for (String scenario : SCENARIOS) {
+            ModbusLoadGenerator.Profile profile = parse(scenario);
+            ModbusLoadGenerator.Statistics statistics;
+            try (ModbusLoadGenerator generator = new ModbusLoadGenerator(target, profile, threads)) {
+                Thread.sleep(WARM_UP.toMillis());
+                generator.reset();
+                Thread.sleep(duration.toMillis());
+                statistics = generator.getStatistics();
+            }
+            System.out.printf("%-32s %12.0f %10.1f %10.1f %10.1f %10d%n", scenario, statistics.throughput(),
+                    statistics.p50(), statistics.p99(), statistics.max(), statistics.exceptions());
+
+            String key = scenario.replace(' ', '_');
+            results.setProperty(key + ".tps", String.format("%.0f", statistics.throughput()));
+            results.setProperty(key + ".p99", String.format("%.1f", statistics.p99()));
+            if (statistics.exceptions() > 0) {
+                regressions.add(scenario + ": " + statistics.exceptions() + " exception responses");
+            }
+            if (baseline.containsKey(key + ".tps")) {
+                double tps = Double.parseDouble(baseline.getProperty(key + ".tps"));
+                double p99 = Double.parseDouble(baseline.getProperty(key + ".p99"));
+                if (statistics.throughput() < tps * MIN_THROUGHPUT_RATIO) {
+                    regressions.add(String.format("%s: %.0f transactions/s, baseline %.0f", scenario, statistics.throughput(), tps));
+                }
+                if (statistics.p99() > p99 * MAX_P99_RATIO) {
+                    regressions.add(String.format("%s: p99 %.1f us, baseline %.1f us", scenario, statistics.p99(), p99));
+                }
+            }
+        }
+        System.out.printf("agent: %d requests, %d errors, %d bytes received, %d bytes sent%n",
+                agent.getRequests(), agent.getErrors(), agent.getBytesReceived(), agent.getBytesSent());
+        agent.stop();
+        runtime.close();
+
+        if (baselineFile != null && baseline.isEmpty()) {
+            writeBaseline(baselineFile, results);
+            System.out.println("baseline written to " + baselineFile.getAbsolutePath());
+        }
+        regressions.forEach(regression -> System.out.println("REGRESSION " + regression));
+        System.exit(regressions.isEmpty() ? 0 : 1);
+    }
+
+    /**
+     * Parses a scenario: the number of connections, {@code x}, the number of transactions in flight per connection and
+     * the function mix, requests covering 10 entries of the first 1000 addresses of unit 1.
+     */
+    private static ModbusLoadGenerator.Profile parse(String scenario) {
+        String[] parts = scenario.split(" ");
+        return new ModbusLoadGenerator.Profile(Integer.parseInt(parts[0]), Integer.parseInt(parts[2]), parts[3], 1, 0, SPAN, 10);
+    }
+
+    private static void writeBaseline(File file, Properties results) throws IOException {
+        try (Writer writer = new FileWriter(file)) {
+            results.store(writer, "ModbusBenchmark baseline: transactions per second and p99 latency in microseconds");
+        }
+    }
+}
@@ -0,0 +1,98 @@
+package modbus;
+
+import java.lang.management.ManagementFactory;
+import java.math.BigInteger;
+import java.time.Duration;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import com.eaton.telemetry.modbus.ModbusAgent;
+import com.eaton.telemetry.modbus.ModbusSensor;
+import io.netty.buffer.ByteBuf;
+import io.netty.buffer.PooledByteBufAllocator;
+import io.netty.buffer.Unpooled;
+
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_HOLDING_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_INPUT_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_MULTIPLE_REGISTERS;
+
+/**
+ * Measures the requests per second per core of the request handling of {@link ModbusAgent}, i.e. the work done on a
+ * Netty I/O thread for each request from the decoded frame to the encoded response, without the network.
+ * <br>
+ * Arguments, all optional: the duration in seconds, the number of threads, the number of registers per read and
+ * {@code snapshot} to generate the values in the background rather than on each read, leaving only the encoding of the
+ * responses, which should not allocate.
+ */
+public class ModbusHandlerBenchmark {
+
+    public static void main(String[] args) throws Exception {
+        Duration duration = Duration.ofSeconds(args.length > 0 ? Long.parseLong(args[0]) : 5);
+        int threads = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        int count = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+        boolean snapshot = args.length > 3 && "snapshot".equals(args[3]);
+
+        ModbusAgent agent = new ModbusAgent(0);
+        for (int unitId = 1; unitId <= 10; unitId++) {
+            agent.addSensor(ModbusSensor.holding(unitId, 0, 100, tick -> new short[]{(short) tick, 1, 2, 3}));
+            agent.addSensor(ModbusSensor.input(unitId, 0, 100, tick -> new short[]{(short) tick}));
+            agent.addSensor(ModbusSensor.coils(unitId, 0, 16, tick -> BigInteger.valueOf(tick)));
+        }
+        if (snapshot) {
+            agent.enableSnapshots(Duration.ofSeconds(1));
+        }
+        int[] unitIds = {1, 2, 3, 4, 5, 42};
+        ByteBuf[] requests = {
+                Unpooled.buffer().writeByte(READ_HOLDING_REGISTERS).writeShort(0).writeShort(count),
+                Unpooled.buffer().writeByte(READ_INPUT_REGISTERS).writeShort(10).writeShort(count),
+                Unpooled.buffer().writeByte(READ_COILS).writeShort(0).writeShort(16),
+                Unpooled.buffer().writeByte(READ_HOLDING_REGISTERS).writeShort(200).writeShort(count),
+                Unpooled.buffer().writeByte(WRITE_MULTIPLE_REGISTERS).writeShort(300).writeShort(3).writeByte(6)
+                        .writeShort(1).writeShort(2).writeShort(3),
+                // absent unit, answered with a gateway exception
+                Unpooled.buffer().writeByte(READ_HOLDING_REGISTERS).writeShort(0).writeShort(count),
+        };
+
+        com.sun.management.ThreadMXBean threadBean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        AtomicBoolean stopped = new AtomicBoolean();
+        AtomicLong handled = new AtomicLong();
+        AtomicLong cpuNanos = new AtomicLong();
+        AtomicLong allocated = new AtomicLong();
+        CountDownLatch done = new CountDownLatch(threads);
+        for (int t = 0; t < threads; t++) {
+            Thread thread = new Thread(() -> {
+                long cpuBefore = threadBean.getCurrentThreadCpuTime();
+                long allocatedBefore = threadBean.getThreadAllocatedBytes(Thread.currentThread().getId());
+                ByteBuf[] threadRequests = new ByteBuf[requests.length];
+                for (int i = 0; i < requests.length; i++) {
+                    threadRequests[i] = requests[i].copy();
+                }
+                ByteBuf response = PooledByteBufAllocator.DEFAULT.directBuffer(260);
+                long requestCount = 0;
+                while (!stopped.get()) {
+                    for (int i = 0; i < requests.length; i++) {
+                        agent.handle(unitIds[i], threadRequests[i].readerIndex(0), response.clear());
+                    }
+                    requestCount += requests.length;
+                }
+                response.release();
+                handled.addAndGet(requestCount);
+                cpuNanos.addAndGet(threadBean.getCurrentThreadCpuTime() - cpuBefore);
+                allocated.addAndGet(threadBean.getThreadAllocatedBytes(Thread.currentThread().getId()) - allocatedBefore);
+                done.countDown();
+            }, "handler-" + t);
+            thread.start();
+        }
+        Thread.sleep(duration.toMillis());
+        stopped.set(true);
+        done.await();
+
+        double seconds = duration.toNanos() / 1e9;
+        System.out.printf("%d threads, %d registers per read%s: %.0f requests/s, %.0f requests/s per core, %.0f ns CPU and %.0f B allocated per request, %.1f%% errors%n",
+                threads, count, snapshot ? " from snapshots" : "", handled.get() / seconds, handled.get() / (cpuNanos.get() / 1e9),
+                (double) cpuNanos.get() / handled.get(), (double) allocated.get() / handled.get(), agent.getErrors() * 100.0 / handled.get());
+        System.exit(0);
+    }
+}
@@ -0,0 +1,331 @@
+package modbus;
+
+import java.net.InetSocketAddress;
+import java.time.Duration;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+import com.eaton.telemetry.LatencyHistogram;
+import io.netty.bootstrap.Bootstrap;
+import io.netty.buffer.ByteBuf;
+import io.netty.channel.Channel;
+import io.netty.channel.ChannelFuture;
+import io.netty.channel.ChannelHandlerContext;
+import io.netty.channel.ChannelInitializer;
+import io.netty.channel.ChannelOption;
+import io.netty.channel.EventLoopGroup;
+import io.netty.channel.SimpleChannelInboundHandler;
+import io.netty.channel.nio.NioEventLoopGroup;
+import io.netty.channel.socket.SocketChannel;
+import io.netty.channel.socket.nio.NioSocketChannel;
+import io.netty.handler.codec.LengthFieldBasedFrameDecoder;
+import io.netty.util.concurrent.DefaultThreadFactory;
+
+import static com.eaton.telemetry.modbus.ModbusCodes.EXCEPTION_FLAG;
+import static com.eaton.telemetry.modbus.ModbusCodes.MASK_WRITE_REGISTER;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_BITS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_READ_WRITE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_WRITE_BITS;
+import static com.eaton.telemetry.modbus.ModbusCodes.MAX_WRITE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_DISCRETE_INPUTS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_HOLDING_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_INPUT_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_WRITE_MULTIPLE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_MULTIPLE_COILS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_MULTIPLE_REGISTERS;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_SINGLE_COIL;
+import static com.eaton.telemetry.modbus.ModbusCodes.WRITE_SINGLE_REGISTER;
+
+/**
+ * Modbus TCP load generator: keeps a number of transactions in flight on each of its connections, drawing the function
+ * of each request from a weighted mix and its range at random in a window of addresses, and records the latency of
+ * each transaction from the write of its request to the read of its response.
+ * <br>
+ * Run standalone against any Modbus TCP server with, all arguments but the first two being optional: the host, the
+ * port, the duration in seconds, the number of connections, the number of transactions in flight per connection, the
+ * function mix, the unit id, the first address, the number of addresses and the number of entries per request.
+ */
+public class ModbusLoadGenerator implements AutoCloseable {
+
+    /**
+     * Profile of the generated load.
+     *
+     * @param connections the number of connections
+     * @param depth       the number of transactions in flight on each connection, at most 256
+     * @param mix         the function codes and their weights, such as {@code 3:70,4:20,16:10}
+     * @param unitId      the unit id of the requests
+     * @param address     the first address of the requested ranges
+     * @param span        the number of addresses the requested ranges are drawn in
+     * @param count       the number of entries of each request, clamped to the limit of its function
+     */
+    public record Profile(int connections, int depth, String mix, int unitId, int address, int span, int count) {
+
+        public Profile {
+            if (connections < 1 || depth < 1 || depth > 256 || count < 1 || span < count) {
+                throw new IllegalArgumentException("invalid profile " + connections + "x" + depth + ", " + count + " in " + span);
+            }
+        }
+
+        @Override
+        public String toString() {
+            return connections + " x " + depth + " " + mix;
+        }
+    }
+
+    /**
+     * Statistics of the transactions completed since the start or the last reset.
+     *
+     * @param transactions the number of responses
+     * @param exceptions   the number of exception responses
+     * @param seconds      the duration of the measure
+     * @param p50          the median latency in microseconds
+     * @param p99          the 99th percentile of the latency in microseconds
+     * @param max          the maximum latency in microseconds
+     */
+    public record Statistics(long transactions, long exceptions, double seconds, double p50, double p99, double max) {
+
+        public double throughput() {
+            return transactions / seconds;
+        }
+    }
+
+    private static final int SLOT_BITS = 8;
+
+    private final Profile profile;
+
+    private final int[] functions;
+
+    private final EventLoopGroup group;
+
+    private final List<Channel> channels = new ArrayList<>();
+
+    private final LatencyHistogram latencies = new LatencyHistogram();
+
+    private final LongAdder transactions = new LongAdder();
+
+    private final LongAdder exceptions = new LongAdder();
+
+    private volatile boolean stopped;
+
+    private volatile long since = System.nanoTime();
+
+    /**
+     * Connects to a server and starts generating the load.
+     *
+     * @param target  the address of the server
+     * @param profile the profile of the load
+     * @param threads the number of event loops of the client
+     */
+    public ModbusLoadGenerator(InetSocketAddress target, Profile profile, int threads) {
+        this.profile = profile;
+        this.functions = parseMix(profile.mix());
+        this.group = new NioEventLoopGroup(threads, new DefaultThreadFactory("ModbusLoadGenerator", true));
+        Bootstrap bootstrap = new Bootstrap()
+                .group(group)
+                .channel(NioSocketChannel.class)
+                .option(ChannelOption.TCP_NODELAY, true)
+                .handler(new ChannelInitializer<SocketChannel>() {
+                    @Override
+                    protected void initChannel(SocketChannel ch) {
+                        ch.pipeline().addLast(new LengthFieldBasedFrameDecoder(260, 4, 2), new Connection());
+                    }
+                });
+        for (int i = 0; i < profile.connections(); i++) {
+            ChannelFuture connect = bootstrap.connect(target).awaitUninterruptibly();
+            if (!connect.isSuccess()) {
+                close();
+                throw new IllegalStateException("could not connect to " + target, connect.cause());
+            }
+            channels.add(connect.channel());
+        }
+    }
+
+    /**
+     * Returns the statistics since the start or the last reset.
+     *
+     * @return the statistics
+     */
+    public Statistics getStatistics() {
+        return new Statistics(transactions.sum(), exceptions.sum(), (System.nanoTime() - since) / 1e9,
+                latencies.getValueAtPercentile(50) / 1e3, latencies.getValueAtPercentile(99) / 1e3, latencies.getMax() / 1e3);
+    }
+
+    /**
+     * Resets the statistics, typically after a warm-up.
+     */
+    public void reset() {
+        transactions.reset();
+        exceptions.reset();
+        latencies.reset();
+        since = System.nanoTime();
+    }
+
+    /**
+     * Stops sending requests and closes the connections.
+     */
+    @Override
+    public void close() {
+        stopped = true;
+        channels.forEach(Channel::close);
+        group.shutdownGracefully(0, 1, TimeUnit.SECONDS).syncUninterruptibly();
+    }
+
+    /**
+     * Parses a function mix into a table of 100 function codes, each function appearing as many times as its share of
+     * the total weight.
+     */
+    private static int[] parseMix(String mix) {
+        List<int[]> weights = new ArrayList<>();
+        int total = 0;
+        for (String entry : mix.split(",")) {
+            String[] parts = entry.trim().split(":");
+            int weight = parts.length > 1 ? Integer.parseInt(parts[1].trim()) : 1;
+            weights.add(new int[]{Integer.parseInt(parts[0].trim()), weight});
+            total += weight;
+        }
+        int[] table = new int[100];
+        int index = 0;
+        int cumulated = 0;
+        for (int[] weight : weights) {
+            cumulated += weight[1];
+            int end = Math.round(cumulated * 100f / total);
+            while (index < end) {
+                table[index++] = weight[0];
+            }
+        }
+        return table;
+    }
+
+    /**
+     * Writes a request of a function at random in the window of the profile, the length field of its MBAP header
+     * being set afterwards.
+     */
+    private void writeRequest(ByteBuf out, int transactionId) {
+        ThreadLocalRandom random = ThreadLocalRandom.current();
+        int function = functions[random.nextInt(functions.length)];
+        int count = Math.min(profile.count(), switch (function) {
+            case READ_COILS, READ_DISCRETE_INPUTS -> MAX_READ_BITS;
+            case READ_HOLDING_REGISTERS, READ_INPUT_REGISTERS -> MAX_READ_REGISTERS;
+            case WRITE_MULTIPLE_COILS -> MAX_WRITE_BITS;
+            case WRITE_MULTIPLE_REGISTERS -> MAX_WRITE_REGISTERS;
+            case READ_WRITE_MULTIPLE_REGISTERS -> MAX_READ_WRITE_REGISTERS;
+            default -> 1;
+        });
+        int address = profile.address() + random.nextInt(profile.span() - count + 1);
+        int start = out.writerIndex();
+        out.writeShort(transactionId).writeShort(0).writeShort(0).writeByte(profile.unitId()).writeByte(function);
+        switch (function) {
+            case READ_COILS, READ_DISCRETE_INPUTS, READ_HOLDING_REGISTERS, READ_INPUT_REGISTERS ->
+                    out.writeShort(address).writeShort(count);
+            case WRITE_SINGLE_COIL -> out.writeShort(address).writeShort(random.nextBoolean() ? 0xFF00 : 0);
+            case WRITE_SINGLE_REGISTER -> out.writeShort(address).writeShort(random.nextInt(1 << 16));
+            case WRITE_MULTIPLE_COILS -> {
+                out.writeShort(address).writeShort(count).writeByte((count + 7) / 8);
+                for (int i = 0; i < (count + 7) / 8; i++) {
+                    out.writeByte(random.nextInt(256));
+                }
+            }
+            case WRITE_MULTIPLE_REGISTERS -> {
+                out.writeShort(address).writeShort(count).writeByte(count * 2);
+                for (int i = 0; i < count; i++) {
+                    out.writeShort(random.nextInt(1 << 16));
+                }
+            }
+            case MASK_WRITE_REGISTER -> out.writeShort(address).writeShort(random.nextInt(1 << 16)).writeShort(random.nextInt(1 << 16));
+            case READ_WRITE_MULTIPLE_REGISTERS -> {
+                out.writeShort(address).writeShort(count).writeShort(address).writeShort(count).writeByte(count * 2);
+                for (int i = 0; i < count; i++) {
+                    out.writeShort(random.nextInt(1 << 16));
+                }
+            }
+            default -> out.writeShort(address).writeShort(count);
+        }
+        out.setShort(start + 4, out.writerIndex() - start - 6);
+    }
+
+    /**
+     * Handler of a connection: the transaction id of a request is its slot in the window of the connection in its low
+     * bits, and a sequence number in its high bits, so that out of order responses are matched as well.
+     */
+    private final class Connection extends SimpleChannelInboundHandler<ByteBuf> {
+
+        private final long[] sentAt = new long[1 << SLOT_BITS];
+
+        private final int[] transactionIds = new int[1 << SLOT_BITS];
+
+        private int sequence;
+
+        @Override
+        public void channelActive(ChannelHandlerContext ctx) {
+            for (int slot = 0; slot < profile.depth(); slot++) {
+                send(ctx, slot);
+            }
+            ctx.flush();
+        }
+
+        @Override
+        protected void channelRead0(ChannelHandlerContext ctx, ByteBuf frame) {
+            long now = System.nanoTime();
+            int transactionId = frame.getUnsignedShort(frame.readerIndex());
+            int slot = transactionId & ((1 << SLOT_BITS) - 1);
+            if (slot >= profile.depth() || transactionIds[slot] != transactionId) {
+                throw new IllegalStateException("unexpected transaction " + transactionId);
+            }
+            latencies.record(now - sentAt[slot]);
+            transactions.increment();
+            if ((frame.getUnsignedByte(frame.readerIndex() + 7) & EXCEPTION_FLAG) != 0) {
+                exceptions.increment();
+            }
+            if (!stopped) {
+                send(ctx, slot);
+            }
+        }
+
+        @Override
+        public void channelReadComplete(ChannelHandlerContext ctx) {
+            ctx.flush();
+        }
+
+        @Override
+        public void exceptionCaught(ChannelHandlerContext ctx, Throwable cause) {
+            if (!stopped) {
+                System.err.println("Closing " + ctx.channel() + ": " + cause);
+            }
+            ctx.close();
+        }
+
+        private void send(ChannelHandlerContext ctx, int slot) {
+            int transactionId = ((sequence++ << SLOT_BITS) | slot) & 0xFFFF;
+            ByteBuf request = ctx.alloc().directBuffer(260);
+            writeRequest(request, transactionId);
+            transactionIds[slot] = transactionId;
+            sentAt[slot] = System.nanoTime();
+            ctx.write(request, ctx.voidPromise());
+        }
+    }
+
+    public static void main(String[] args) throws Exception {
+        InetSocketAddress target = new InetSocketAddress(args[0], Integer.parseInt(args[1]));
+        Duration duration = Duration.ofSeconds(args.length > 2 ? Long.parseLong(args[2]) : 10);
+        Profile profile = new Profile(
+                args.length > 3 ? Integer.parseInt(args[3]) : 1,
+                args.length > 4 ? Integer.parseInt(args[4]) : 1,
+                args.length > 5 ? args[5] : "3:100",
+                args.length > 6 ? Integer.parseInt(args[6]) : 1,
+                args.length > 7 ? Integer.parseInt(args[7]) : 0,
+                args.length > 8 ? Integer.parseInt(args[8]) : 100,
+                args.length > 9 ? Integer.parseInt(args[9]) : 10);
+        try (ModbusLoadGenerator generator = new ModbusLoadGenerator(target, profile, Runtime.getRuntime().availableProcessors())) {
+            Thread.sleep(duration.toMillis());
+            Statistics statistics = generator.getStatistics();
+            System.out.printf("%s: %.0f transactions/s, %d exceptions, p50 %.1f us, p99 %.1f us, max %.1f us%n", profile,
+                    statistics.throughput(), statistics.exceptions(), statistics.p50(), statistics.p99(), statistics.max());
+        }
+        System.exit(0);
+    }
+}
@@ -0,0 +1,95 @@
+package modbus;
+
+import java.io.DataInputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.Socket;
+import java.nio.ByteBuffer;
+import java.time.Duration;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.locks.LockSupport;
+
+import com.eaton.telemetry.modbus.ModbusAgent;
+import com.eaton.telemetry.modbus.ModbusSensor;
+
+import static com.eaton.telemetry.modbus.ModbusCodes.READ_HOLDING_REGISTERS;
+
+/**
+ * Measures the throughput of one connection to a {@link ModbusAgent} according to the number of transactions the
+ * client keeps in flight, from 1 (one request, wait for its response) to 64.
+ * <br>
+ * Arguments, all optional: the duration in seconds of each depth, the pipelining depth of the agent (1 to handle the
+ * requests on the event loop) and the time in microseconds a sensor takes to generate its values.
+ */
+public class ModbusPipelineBenchmark {
+
+    private static final int[] DEPTHS = {1, 2, 4, 8, 16, 32, 64};
+
+    public static void main(String[] args) throws Exception {
+        Duration duration = Duration.ofSeconds(args.length > 0 ? Long.parseLong(args[0]) : 2);
+        int agentDepth = args.length > 1 ? Integer.parseInt(args[1]) : 1;
+        long generationNanos = (args.length > 2 ? Long.parseLong(args[2]) : 0) * 1000;
+
+        ModbusAgent agent = new ModbusAgent(0).setPipeliningDepth(agentDepth);
+        agent.addSensor(ModbusSensor.holding(1, 0, 10, tick -> {
+            if (generationNanos > 0) {
+                LockSupport.parkNanos(generationNanos);
+            }
+            return new short[]{(short) tick};
+        }));
+        agent.start();
+
+        System.out.printf("agent depth %d, %d us per generation%n", agentDepth, generationNanos / 1000);
+        for (int depth : DEPTHS) {
+            try (Socket socket = new Socket("127.0.0.1", agent.getPort())) {
+                socket.setTcpNoDelay(true);
+                long responses = run(socket, depth, duration);
+                System.out.printf("in flight %3d: %,10.0f transactions/s%n", depth, responses / (duration.toNanos() / 1e9));
+            }
+        }
+        agent.stop();
+        System.exit(0);
+    }
+
+    private static long run(Socket socket, int depth, Duration duration) throws Exception {
+        Semaphore window = new Semaphore(depth);
+        AtomicBoolean stopped = new AtomicBoolean();
+        OutputStream out = socket.getOutputStream();
+        Thread writer = new Thread(() -> {
+            ByteBuffer request = ByteBuffer.allocate(12);
+            int transactionId = 0;
+            try {
+                while (!stopped.get()) {
+                    window.acquire();
+                    request.clear();
+                    request.putShort((short) transactionId++).putShort((short) 0).putShort((short) 6).put((byte) 1)
+                            .put((byte) READ_HOLDING_REGISTERS).putShort((short) 0).putShort((short) 10);
+                    out.write(request.array());
+                }
+            } catch (InterruptedException | IOException e) {
+                // stopped
+            }
+        }, "writer");
+        writer.start();
+
+        DataInputStream in = new DataInputStream(socket.getInputStream());
+        byte[] frame = new byte[260];
+        long deadline = System.nanoTime() + duration.toNanos();
+        long responses = 0;
+        int expected = 0;
+        while (System.nanoTime() < deadline) {
+            in.readFully(frame, 0, 6);
+            int transactionId = ((frame[0] & 0xFF) << 8) | (frame[1] & 0xFF);
+            if (transactionId != (expected++ & 0xFFFF)) {
+                throw new IllegalStateException("response " + transactionId + " out of order");
+            }
+            in.readFully(frame, 6, ((frame[4] & 0xFF) << 8) | (frame[5] & 0xFF));
+            window.release();
+            responses++;
+        }
+        stopped.set(true);
+        writer.interrupt();
+        return responses;
+    }
+}
@@ -0,0 +1,120 @@
+package snmp;
+
+import java.lang.management.ManagementFactory;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import com.eaton.telemetry.Device;
+import com.eaton.telemetry.snmp.AgentConfiguration;
+import com.eaton.telemetry.snmp.RateProfile;
+import com.eaton.telemetry.snmp.SnmpTrapAgent;
+import com.eaton.telemetry.snmp.TrapLoad;
+import com.eaton.telemetry.snmp.TrapRuntime;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+
+/**
+ * Measures the traps {@link SnmpTrapAgent} actually delivers to a local {@link TrapSink}, at increasing rates and
+ * sensor counts, and reports the highest rate sustained, the CPU time and the memory allocated per trap.
+ * <br>
+ * Arguments, all optional: the duration of a step in seconds, the number of sender threads of the {@link TrapRuntime},
+ * the sensor counts separated by commas and the rates separated by commas.
+ */
+public class TrapBenchmark {
+
+    /**
+     * A step is sustained if at least this ratio of the target rate is delivered.
+     */
+    private static final double SUSTAINED_RATIO = 0.95;
+
+    public static void main(String[] args) throws Exception {
+        Duration step = Duration.ofSeconds(args.length > 0 ? Long.parseLong(args[0]) : 3);
+        int senderThreads = args.length > 1 ? Integer.parseInt(args[1]) : 4;
+        int[] sensorCounts = parse(args.length > 2 ? args[2] : "10,1000");
+        int[] rates = parse(args.length > 3 ? args[3] : "5000,10000,20000,50000,100000,200000");
+
+        com.sun.management.OperatingSystemMXBean os =
+                (com.sun.management.OperatingSystemMXBean) ManagementFactory.getOperatingSystemMXBean();
+        com.sun.management.ThreadMXBean threads = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+
+        System.out.printf("%8s %8s %10s %10s %8s %8s %10s %10s %12s %12s%n",
+                "sensors", "target", "sent/s", "recv/s", "loss%", "reorder", "jitter ms", "drops", "cpu us/trap", "alloc B/trap");
+        for (int sensorCount : sensorCounts) {
+            int saturation = 0;
+            for (int rate : rates) {
+                try (TrapSink sink = new TrapSink(); TrapRuntime runtime = new TrapRuntime(senderThreads, 1)) {
+                    AgentConfiguration configuration = new AgentConfiguration("benchmark",
+                            new Device("benchmark", Set.of(), List.of()), "127.0.0.1", sink.getPort(), "public");
+                    SnmpTrapAgent agent = new SnmpTrapAgent(configuration, new LinkedHashSet<>(), Duration.ZERO,
+                            Duration.ofSeconds(1), runtime);
+                    for (int i = 0; i < sensorCount; i++) {
+                        agent.addSensor(new OID("1.3.6.1.4.1.99999.1." + i), Integer32::new);
+                    }
+
+                    Map<Long, Long> allocatedBefore = allocatedBytes(threads);
+                    long cpuBefore = os.getProcessCpuTime();
+                    TrapLoad load = agent.startLoad(RateProfile.constant(rate), false, senderThreads);
+                    Thread.sleep(step.toMillis());
+                    long allocated = allocatedSince(threads, allocatedBefore);
+                    TrapLoad.Statistics statistics = load.getStatistics();
+                    agent.stop();
+                    long cpu = os.getProcessCpuTime() - cpuBefore;
+                    // lets the sink drain its socket
+                    Thread.sleep(200);
+
+                    double seconds = step.toNanos() / 1e9;
+                    long sent = statistics.sent();
+                    // duplicated samples are not deliveries
+                    long delivered = sink.getSamples() - sink.getDuplicated();
+                    double lossRatio = sent == 0 ? 0 : Math.max(0, sent - delivered) * 100.0 / sent;
+                    double received = sink.getSamples() / seconds;
+                    System.out.printf("%8d %8d %10.0f %10.0f %8.2f %8d %10.3f %10d %12.2f %12.0f%n",
+                            sensorCount, rate, sent / seconds, received, lossRatio, sink.getReordered(),
+                            sink.getJitterMillis(), statistics.dropped(),
+                            sent == 0 ? 0 : cpu / 1e3 / sent, sent == 0 ? 0 : (double) allocated / sent);
+                    if (received >= rate * SUSTAINED_RATIO) {
+                        saturation = rate;
+                    }
+                }
+            }
+            System.out.printf("%d sensors: highest sustained rate %d traps/s%n", sensorCount, saturation);
+        }
+        System.exit(0);
+    }
+
+    private static int[] parse(String values) {
+        String[] split = values.split(",");
+        int[] parsed = new int[split.length];
+        for (int i = 0; i < split.length; i++) {
+            parsed[i] = Integer.parseInt(split[i].trim());
+        }
+        return parsed;
+    }
+
+    private static Map<Long, Long> allocatedBytes(com.sun.management.ThreadMXBean threads) {
+        long[] ids = threads.getAllThreadIds();
+        long[] bytes = threads.getThreadAllocatedBytes(ids);
+        Map<Long, Long> allocated = new HashMap<>();
+        for (int i = 0; i < ids.length; i++) {
+            allocated.put(ids[i], bytes[i]);
+        }
+        return allocated;
+    }
+
+    /**
+     * Returns the bytes allocated by the live threads since the snapshot, threads started since counting from 0.
+     */
+    private static long allocatedSince(com.sun.management.ThreadMXBean threads, Map<Long, Long> before) {
+        long total = 0;
+        for (Map.Entry<Long, Long> allocated : allocatedBytes(threads).entrySet()) {
+            if (allocated.getValue() > 0) {
+                total += allocated.getValue() - before.getOrDefault(allocated.getKey(), 0L);
+            }
+        }
+        return total;
+    }
+}
@@ -0,0 +1,208 @@
+package snmp;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.ClosedChannelException;
+import java.nio.channels.DatagramChannel;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.NavigableSet;
+import java.util.TreeSet;
+
+import com.eaton.telemetry.LatencyHistogram;
+import lombok.extern.slf4j.Slf4j;
+import org.snmp4j.PDU;
+import org.snmp4j.asn1.BER;
+import org.snmp4j.asn1.BERInputStream;
+import org.snmp4j.smi.Integer32;
+import org.snmp4j.smi.OID;
+import org.snmp4j.smi.OctetString;
+import org.snmp4j.smi.VariableBinding;
+
+/**
+ * Local UDP trap receiver standing in for a trap collector in benchmarks.
+ * <br>
+ * Notifications are decoded and each variable binding following the mandatory ones ({@code sysUpTime},
+ * {@code snmpTrapOID} and {@code snmpTrapAddress}) is considered as a sample of a sensor whose value is a sequence
+ * number, as sent by a sensor generating its tick, e.g. {@code tick -> new Integer32(tick)}. Gaps in the sequence of a
+ * sensor are counted as lost samples, samples of a gap arriving late as reordered, no longer lost, and samples received
+ * again as duplicated.
+ */
+@Slf4j
+public class TrapSink implements AutoCloseable {
+
+    private static final int HEADER_SIZE = 3;
+
+    /**
+     * Number of sequence numbers before the greatest one received under which missing samples are no longer expected,
+     * late samples being counted as duplicated then.
+     */
+    private static final long REORDER_WINDOW = 4096;
+
+    private final DatagramChannel channel;
+
+    private final Thread receiver;
+
+    /**
+     * The sequence of each sensor, only used by the receiver thread.
+     */
+    private final Map<OID, Sequence> sequences = new HashMap<>();
+
+    private final LatencyHistogram interArrival = new LatencyHistogram();
+
+    private volatile long received;
+
+    private volatile long samples;
+
+    private volatile long lost;
+
+    private volatile long reordered;
+
+    private volatile long duplicated;
+
+    private volatile long malformed;
+
+    /**
+     * Smoothed variation of the inter-arrival times in nanoseconds, as the jitter of RFC 3550.
+     */
+    private volatile double jitter;
+
+    /**
+     * Starts a sink listening on an ephemeral port of the loopback interface.
+     *
+     * @throws IOException if the socket could not be opened
+     */
+    public TrapSink() throws IOException {
+        channel = DatagramChannel.open();
+        channel.setOption(StandardSocketOptions.SO_RCVBUF, 8 * 1024 * 1024);
+        channel.bind(new InetSocketAddress("127.0.0.1", 0));
+        receiver = new Thread(this::receive, "TrapSink");
+        receiver.setDaemon(true);
+        receiver.start();
+    }
+
+    public int getPort() throws IOException {
+        return ((InetSocketAddress) channel.getLocalAddress()).getPort();
+    }
+
+    public long getReceived() {
+        return received;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getLost() {
+        return lost;
+    }
+
+    public long getReordered() {
+        return reordered;
+    }
+
+    public long getDuplicated() {
+        return duplicated;
+    }
+
+    public long getMalformed() {
+        return malformed;
+    }
+
+    public double getJitterMillis() {
+        return jitter / 1e6;
+    }
+
+    public LatencyHistogram getInterArrival() {
+        return interArrival;
+    }
+
+    @Override
+    public void close() throws IOException {
+        channel.close();
+        receiver.interrupt();
+    }
+
+    private void receive() {
+        ByteBuffer buffer = ByteBuffer.allocate(65536);
+        long lastArrival = 0;
+        long lastInterArrival = 0;
+        try {
+            while (true) {
+                buffer.clear();
+                channel.receive(buffer);
+                long now = System.nanoTime();
+                buffer.flip();
+                received++;
+                if (lastArrival != 0) {
+                    long delta = now - lastArrival;
+                    interArrival.record(delta);
+                    jitter += (Math.abs(delta - lastInterArrival) - jitter) / 16;
+                    lastInterArrival = delta;
+                }
+                lastArrival = now;
+                try {
+                    record(decode(buffer));
+                } catch (IOException | RuntimeException e) {
+                    malformed++;
+                }
+            }
+        } catch (ClosedChannelException e) {
+            // the sink is closed
+        } catch (IOException e) {
+            log.error("trap sink stopped receiving", e);
+        }
+    }
+
+    private static PDU decode(ByteBuffer message) throws IOException {
+        BERInputStream in = new BERInputStream(message);
+        BER.decodeHeader(in, new BER.MutableByte());
+        new Integer32().decodeBER(in);
+        new OctetString().decodeBER(in);
+        PDU pdu = new PDU();
+        pdu.decodeBER(in);
+        return pdu;
+    }
+
+    private void record(PDU pdu) {
+        for (int i = HEADER_SIZE; i < pdu.size(); i++) {
+            VariableBinding binding = pdu.get(i);
+            long sequence = binding.getVariable().toLong();
+            Sequence stream = sequences.computeIfAbsent(binding.getOid(), oid -> new Sequence());
+            samples++;
+            if (sequence > stream.last) {
+                // sequences start at 0
+                long expected = stream.last + 1;
+                if (sequence > expected) {
+                    lost += sequence - expected;
+                    for (long missing = Math.max(expected, sequence - REORDER_WINDOW); missing < sequence; missing++) {
+                        stream.missing.add(missing);
+                    }
+                }
+                stream.last = sequence;
+                stream.missing.headSet(sequence - REORDER_WINDOW).clear();
+            } else if (stream.missing.remove(sequence)) {
+                // a late sample, counted as lost when its successor arrived
+                reordered++;
+                lost--;
+            } else {
+                duplicated++;
+            }
+        }
+    }
+
+    /**
+     * The samples received from a sensor.
+     */
+    private static final class Sequence {
+
+        private long last = -1;
+
+        /**
+         * The sequence numbers counted as lost which may still arrive late.
+         */
+        private final NavigableSet<Long> missing = new TreeSet<>();
+    }
+}